@@ -0,0 +1,52 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The AllocationCheck class verifies that a steady-state evaluation of a compiled expression
+ * on a reused stack allocates nothing. It measures the bytes allocated by the current thread
+ * with the HotSpot {@code com.sun.management.ThreadMXBean} and exits with status 1 on failure.
+ */
+public class AllocationCheck {
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int MEASURED_ITERATIONS = 1_000_000;
+
+    /**
+     * Runs the check for the given expression, or for a default one with functions and variables.
+     *
+     * @param args An optional mathematical expression.
+     */
+    public static void main(String[] args) {
+        String expression = args.length > 0 ? args[0] : "x^2 + sin(y)*3.5 - sqrt(x*y)/log10(y+2)";
+        CompiledExpression compiledExpression = new MathExpressionEvaluator().compile(expression);
+
+        // Preallocate everything the hot loop needs
+        double[] values = new double[Math.max(1, compiledExpression.getSlotCount())];
+        double[] stack = compiledExpression.newStack();
+        double sink = 0;
+
+        // Let the JIT compile the evaluation loop before measuring
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            values[0] = i;
+            sink += compiledExpression.evaluate(values, stack);
+        }
+
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threadBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            values[0] = i;
+            sink += compiledExpression.evaluate(values, stack);
+        }
+        long allocated = threadBean.getCurrentThreadAllocatedBytes() - before;
+
+        System.out.println("Expression: " + expression);
+        System.out.println("Allocated " + allocated + " bytes in " + MEASURED_ITERATIONS
+                + " evaluations (checksum " + sink + ")");
+        if (allocated > 0) {
+            System.out.println("FAILED: steady-state evaluation allocates");
+            System.exit(1);
+        }
+        System.out.println("OK: steady-state evaluation does not allocate");
+    }
+}
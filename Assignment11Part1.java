@@ -1,11 +1,41 @@
 package com.shpp.p2p.cs.ikopach.assignment11;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * This class represents the main program for evaluating mathematical expressions, as
  * part of Assignment 11. It uses a command-line argument to take a mathematical
  * expression and variable values.
+ * <p>
+ * Started as {@code --stream [--ndjson] -e FORMULA [-e FORMULA ...] [FILE]}, it evaluates the
+ * formulas for every row of a CSV (or NDJSON) file, or of the standard input, and writes one
+ * line of results per row to the standard output.
+ * <p>
+ * Started as {@code --bulk -e FORMULA -o OUTPUT VARIABLE=FILE ...}, it evaluates the formula over
+ * binary column files of little-endian doubles, one per variable, and writes the result column
+ * to the output file.
+ * <p>
+ * Started as {@code --serve ADDRESS}, it stays resident and evaluates the requests of
+ * {@code EvaluationServer} clients on a TCP port ({@code [HOST:]PORT}) or a Unix domain socket
+ * ({@code unix:PATH}).
+ * <p>
+ * Started as {@code --range FORMULA VARIABLE=LOW..HIGH ...}, it prints guaranteed bounds of the
+ * formula over the given intervals of the variables.
+ * <p>
+ * Started with {@code -Dcalculator.metrics=true}, it publishes {@code ExpressionMetrics} over JMX
+ * and prints them to the error stream when it exits.
  *
  * @author Ihor Kopach
  * @version 2.0
@@ -24,6 +54,26 @@ public class Assignment11Part1 {
             System.out.println("Please provide a mathematical expression");
             return;
         }
+        if (ExpressionMetrics.ENABLED) {
+            ExpressionMetrics.registerMBean();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(ExpressionMetrics.get().dump())));
+        }
+        if (args[0].equals("--stream")) {
+            streamMathExpressions(args);
+            return;
+        }
+        if (args[0].equals("--bulk")) {
+            evaluateColumnFiles(args);
+            return;
+        }
+        if (args[0].equals("--serve")) {
+            serveMathExpressions(args);
+            return;
+        }
+        if (args[0].equals("--range")) {
+            evaluateMathExpressionRange(args);
+            return;
+        }
         evaluateMathExpression(args[0], args);
     }
 
@@ -52,4 +102,151 @@ public class Assignment11Part1 {
                     + e.getMessage());
         }
     }
+
+    /**
+     * Evaluates the formulas given with {@code -e} for every row read from the file, or from
+     * the standard input if no file is given, and writes the results to the standard output.
+     * The number of rows and the rate they were processed at are reported on the error stream.
+     *
+     * @param args Command-line arguments: {@code --stream [--ndjson] -e FORMULA [-e FORMULA ...] [FILE]}.
+     */
+    static void streamMathExpressions(String[] args) {
+        List<String> formulas = new ArrayList<>();
+        StreamEvaluator.Format format = StreamEvaluator.Format.CSV;
+        String file = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--ndjson")) {
+                format = StreamEvaluator.Format.NDJSON;
+            } else if (args[i].equals("--csv")) {
+                format = StreamEvaluator.Format.CSV;
+            } else if (args[i].equals("-e") && i + 1 < args.length) {
+                formulas.add(args[++i]);
+            } else if (!args[i].equals("-")) {
+                file = args[i];
+            }
+        }
+
+        try (ReadableByteChannel in = file == null
+                ? Channels.newChannel(System.in)
+                : FileChannel.open(Path.of(file), StandardOpenOption.READ);
+             WritableByteChannel out = new FileOutputStream(FileDescriptor.out).getChannel()) {
+            StreamEvaluator streamEvaluator = new StreamEvaluator(new MathExpressionEvaluator(), formulas, format);
+
+            long start = System.nanoTime();
+            long rows = streamEvaluator.run(in, out);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("Processed %d rows (%d errors) in %.3f s, %.0f rows/s%n",
+                    rows, streamEvaluator.getErrorCount(), seconds, rows / Math.max(seconds, 1e-9));
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs an evaluation server on the given address until the process is stopped.
+     *
+     * @param args Command-line arguments: {@code --serve ADDRESS}.
+     */
+    static void serveMathExpressions(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Please provide an address: [HOST:]PORT or unix:PATH");
+            return;
+        }
+
+        EvaluationServer server = new EvaluationServer(new MathExpressionEvaluator());
+        try {
+            System.err.println("Listening on " + server.start(EvaluationServer.parseAddress(args[1])));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    System.err.println("Error: " + e.getMessage());
+                }
+            }));
+            server.join();
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Prints guaranteed bounds of a formula over intervals of its variables, computed in a single
+     * pass of interval arithmetic. The ends of an interval may use a comma as the decimal point.
+     *
+     * @param args Command-line arguments: {@code --range FORMULA VARIABLE=LOW..HIGH ...}.
+     */
+    static void evaluateMathExpressionRange(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Please provide a mathematical expression");
+            return;
+        }
+
+        try {
+            Map<String, double[]> ranges = new LinkedHashMap<>();
+            for (int i = 2; i < args.length; i++) {
+                int separator = args[i].indexOf('=');
+                int dots = args[i].indexOf("..", separator + 1);
+                if (separator <= 0 || dots < 0) {
+                    throw new IllegalArgumentException("Expected VARIABLE=LOW..HIGH, got: " + args[i]);
+                }
+                double low = Double.parseDouble(args[i].substring(separator + 1, dots).trim().replace(',', '.'));
+                double high = Double.parseDouble(args[i].substring(dots + 2).trim().replace(',', '.'));
+                ranges.put(args[i].substring(0, separator).trim(), new double[]{low, high});
+            }
+
+            double[] bounds = new MathExpressionEvaluator().evaluateRange(args[1], ranges);
+            if (Double.isNaN(bounds[0])) {
+                System.out.println("Range: undefined (the formula may fail for some values in the intervals)");
+            } else {
+                System.out.println("Range: [" + bounds[0] + ", " + bounds[1] + "]");
+            }
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            // NumberFormatException, for malformed interval ends, is an IllegalArgumentException
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Evaluates the formula given with {@code -e} over memory-mapped binary column files and
+     * writes the result column to the file given with {@code -o}.
+     * The number of rows and the rate they were processed at are reported on the error stream.
+     *
+     * @param args Command-line arguments: {@code --bulk -e FORMULA -o OUTPUT VARIABLE=FILE ...}.
+     */
+    static void evaluateColumnFiles(String[] args) {
+        String formula = null;
+        String output = null;
+        Map<String, Path> columns = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-e") && i + 1 < args.length) {
+                formula = args[++i];
+            } else if (args[i].equals("-o") && i + 1 < args.length) {
+                output = args[++i];
+            } else if (args[i].indexOf('=') > 0) {
+                int separator = args[i].indexOf('=');
+                columns.put(args[i].substring(0, separator).trim(), Path.of(args[i].substring(separator + 1)));
+            }
+        }
+        if (formula == null || output == null) {
+            System.err.println("Please provide a formula with -e and an output file with -o");
+            return;
+        }
+
+        try {
+            CompiledExpression compiledExpression = new MathExpressionEvaluator().compile(formula);
+            long start = System.nanoTime();
+            long rows = new MappedColumnEvaluator(compiledExpression).evaluate(columns, Path.of(output));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("Processed %d rows in %.3f s, %.0f rows/s%n",
+                    rows, seconds, rows / Math.max(seconds, 1e-9));
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
 }
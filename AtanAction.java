@@ -16,4 +16,42 @@ public class AtanAction implements IAction {
     public double calculate(double number) {
         return Math.atan(number);
     }
+
+    /**
+     * Calculates the arctangent of each of the first {@code n} numbers in a loop of its own.
+     *
+     * @param in  The input numbers.
+     * @param out The array receiving the results.
+     * @param n   The number of elements to calculate.
+     */
+    @Override
+    public void calculate(double[] in, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = Math.atan(in[i]);
+        }
+    }
+
+    /**
+     * Calculates the derivative of the arctangent: 1 / (1 + x^2).
+     *
+     * @param number The input number.
+     * @return The derivative at the input number.
+     */
+    @Override
+    public double derivative(double number) {
+        return 1 / (1 + number * number);
+    }
+
+    /**
+     * Calculates the range of the arctangent over an interval. The arctangent increases, so the
+     * range lies between its values at the ends.
+     *
+     * @param low    The lower end of the interval.
+     * @param high   The upper end of the interval.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    @Override
+    public void range(double low, double high, double[] bounds) {
+        IntervalMath.increasing(Math.atan(low), Math.atan(high), 2, bounds);
+    }
 }
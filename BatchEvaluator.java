@@ -0,0 +1,163 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * The BatchEvaluator class evaluates a compiled expression over columns of variable values.
+ * Rows are processed in chunks: every instruction of the program runs across a whole chunk
+ * before the next one starts, so each step is a simple loop over a few small arrays that stay
+ * in cache and that the JIT can unroll and vectorize.
+ * A BatchEvaluator keeps its chunk buffers between calls and must not be shared between threads.
+ */
+public final class BatchEvaluator {
+    /** The number of rows evaluated by each step of the program. */
+    static final int CHUNK_SIZE = 1024;
+
+    private final CompiledExpression expression;
+    private final double[][] stack;
+
+    /**
+     * Constructs a BatchEvaluator for the given expression.
+     *
+     * @param expression The compiled expression to evaluate.
+     */
+    public BatchEvaluator(CompiledExpression expression) {
+        this.expression = expression;
+        this.stack = new double[expression.getMaxStackDepth() + expression.getTempCount()][CHUNK_SIZE];
+    }
+
+    /**
+     * Evaluates the expression for every row of the given columns.
+     *
+     * @param columns  The variable columns, indexed by slot: {@code columns[slot][row]}.
+     * @param results  The column receiving the result of every row.
+     * @param rowCount The number of rows to evaluate.
+     * @throws ArithmeticException      If division by zero is encountered in any row.
+     * @throws IllegalArgumentException If a negative number is raised to a fractional power in any row.
+     */
+    public void evaluate(double[][] columns, double[] results, int rowCount) {
+        if (columns.length < expression.getSlotCount()) {
+            throw new IllegalArgumentException("Expected " + expression.getSlotCount()
+                    + " variable columns, got " + columns.length);
+        }
+        for (int from = 0; from < rowCount; from += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, rowCount - from);
+            evaluateChunk(columns, null, from, length);
+            System.arraycopy(stack[0], 0, results, from, length);
+        }
+    }
+
+    /**
+     * Evaluates the expression for every row of the given column buffers, which may be direct
+     * or memory-mapped. Values are read from and written to the buffers one chunk at a time,
+     * at absolute indices, so the positions of the buffers are not changed.
+     *
+     * @param columns  The variable columns, indexed by slot: {@code columns[slot].get(row)}.
+     * @param results  The column receiving the result of every row.
+     * @param rowCount The number of rows to evaluate.
+     * @throws ArithmeticException      If division by zero is encountered in any row.
+     * @throws IllegalArgumentException If a negative number is raised to a fractional power in any row.
+     */
+    public void evaluate(DoubleBuffer[] columns, DoubleBuffer results, int rowCount) {
+        if (columns.length < expression.getSlotCount()) {
+            throw new IllegalArgumentException("Expected " + expression.getSlotCount()
+                    + " variable columns, got " + columns.length);
+        }
+        for (int from = 0; from < rowCount; from += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, rowCount - from);
+            evaluateChunk(null, columns, from, length);
+            results.put(from, stack[0], 0, length);
+        }
+    }
+
+    /**
+     * Runs the program over one chunk of rows. The result is left in the bottom stack buffer.
+     *
+     * @param columns The variable columns, indexed by slot, or null if the columns are buffers.
+     * @param buffers The variable column buffers, indexed by slot, or null if the columns are arrays.
+     * @param from    The first row of the chunk.
+     * @param length  The number of rows in the chunk.
+     */
+    private void evaluateChunk(double[][] columns, DoubleBuffer[] buffers, int from, int length) {
+        byte[] code = expression.getCode();
+        int[] operands = expression.getOperands();
+        double[] constants = expression.getConstants();
+        IAction[] functions = expression.getFunctions();
+        IMultiAction[] multiFunctions = expression.getMultiFunctions();
+        int temps = expression.getMaxStackDepth();
+        int top = 0;
+
+        for (int i = 0; i < code.length; i++) {
+            switch (code[i]) {
+                case Opcode.CONST -> Arrays.fill(stack[top++], 0, length, constants[operands[i]]);
+                case Opcode.LOAD -> {
+                    if (buffers != null) {
+                        buffers[operands[i]].get(from, stack[top++], 0, length);
+                    } else {
+                        System.arraycopy(columns[operands[i]], from, stack[top++], 0, length);
+                    }
+                }
+                case Opcode.ADD -> {
+                    double[] left = stack[top - 2];
+                    double[] right = stack[--top];
+                    for (int row = 0; row < length; row++) {
+                        left[row] += right[row];
+                    }
+                }
+                case Opcode.SUB -> {
+                    double[] left = stack[top - 2];
+                    double[] right = stack[--top];
+                    for (int row = 0; row < length; row++) {
+                        left[row] -= right[row];
+                    }
+                }
+                case Opcode.MUL -> {
+                    double[] left = stack[top - 2];
+                    double[] right = stack[--top];
+                    for (int row = 0; row < length; row++) {
+                        left[row] *= right[row];
+                    }
+                }
+                case Opcode.DIV -> {
+                    double[] left = stack[top - 2];
+                    double[] right = stack[--top];
+                    // Check the whole chunk first, so the division loop itself has no branches
+                    for (int row = 0; row < length; row++) {
+                        if (right[row] == 0) {
+                            throw new ArithmeticException("Division by 0 is not allowed");
+                        }
+                    }
+                    for (int row = 0; row < length; row++) {
+                        left[row] /= right[row];
+                    }
+                }
+                case Opcode.POW -> {
+                    double[] left = stack[top - 2];
+                    double[] right = stack[--top];
+                    for (int row = 0; row < length; row++) {
+                        left[row] = CompiledExpression.power(left[row], right[row]);
+                    }
+                }
+                case Opcode.DUP -> {
+                    System.arraycopy(stack[top - 1], 0, stack[top], 0, length);
+                    top++;
+                }
+                // Temporary registers are the buffers above the deepest stack position
+                case Opcode.STORE_TEMP -> System.arraycopy(stack[top - 1], 0, stack[temps + operands[i]], 0, length);
+                case Opcode.LOAD_TEMP -> System.arraycopy(stack[temps + operands[i]], 0, stack[top++], 0, length);
+                case Opcode.CALL_MULTI -> {
+                    IMultiAction function = multiFunctions[operands[i]];
+                    int first = top - function.getArity();
+                    function.calculate(stack, first, stack[first], length);
+                    top = first + 1;
+                }
+                default -> {
+                    // Functions transform the whole column in place, with their batch loop if they have one
+                    double[] argument = stack[top - 1];
+                    functions[operands[i]].calculate(argument, argument, length);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The BindingParseException class reports a malformed {@code name=value} pair found by a
+ * {@code BindingParser}: what is wrong with it, where, and for which variable, so callers
+ * feeding large binding files can point at the offending pair instead of losing its value.
+ */
+public class BindingParseException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    /** What is wrong with a pair. */
+    public enum Reason {
+        /** A pair starts with '=' and has no variable name. */
+        MISSING_NAME,
+        /** A variable name is not followed by '='. */
+        MISSING_EQUALS,
+        /** A pair ends right after its '='. */
+        MISSING_VALUE,
+        /** The value of a pair is not a number. */
+        INVALID_NUMBER
+    }
+
+    private final Reason reason;
+    private final long offset;
+    private final String variable;
+
+    /**
+     * Constructs a BindingParseException.
+     *
+     * @param reason   What is wrong with the pair.
+     * @param offset   The offset of the error in the input.
+     * @param variable The name of the variable of the pair, or null if it has none.
+     */
+    public BindingParseException(Reason reason, long offset, String variable) {
+        super(describe(reason, variable) + " at offset " + offset);
+        this.reason = reason;
+        this.offset = offset;
+        this.variable = variable;
+    }
+
+    /**
+     * Returns what is wrong with the pair.
+     *
+     * @return The reason of the error.
+     */
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * Returns the offset of the error in the input: in characters for text, in bytes for a
+     * byte buffer, counted from where the parser started reading.
+     *
+     * @return The offset of the offending character, or the length of the input for an error at its end.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the name of the variable of the malformed pair.
+     *
+     * @return The name of the variable, or null if the pair has no name.
+     */
+    public String getVariable() {
+        return variable;
+    }
+
+    /**
+     * Describes an error without its position.
+     *
+     * @param reason   What is wrong with the pair.
+     * @param variable The name of the variable of the pair, or null if it has none.
+     * @return The description of the error.
+     */
+    private static String describe(Reason reason, String variable) {
+        return switch (reason) {
+            case MISSING_NAME -> "Missing variable name before '='";
+            case MISSING_EQUALS -> "Expected '=' after variable " + variable;
+            case MISSING_VALUE -> "Missing value for variable " + variable;
+            case INVALID_NUMBER -> "Invalid number for variable " + variable;
+        };
+    }
+}
@@ -0,0 +1,518 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * The BindingParser class reads {@code name=value} pairs straight into the variable slot array of
+ * a compiled expression or a formula set, for inputs too large to go through
+ * {@code MathArgumentsParser}: generated argument lists and binding files. It is a hand-written
+ * state machine that sees every character once, looks names up in an open-addressing table
+ * without creating strings and computes most values exactly from their digits, so a steady
+ * stream of pairs is parsed without allocating.
+ * <p>
+ * Pairs are separated by whitespace or semicolons; spaces and tabs may surround the '='.
+ * A value is an optionally signed decimal number with a point or a comma as its decimal
+ * separator and an optional exponent, such as {@code 2}, {@code -0,5}, {@code .25} or
+ * {@code 6,02e23}. Pairs naming variables the expression does not use are checked and skipped;
+ * when a variable is given twice, the last value wins. A malformed pair is never dropped: it
+ * stops the parse with a {@code BindingParseException} that tells what is wrong and where.
+ * <p>
+ * Text is read from a {@code CharSequence} or a {@code Reader}, bytes from a {@code ByteBuffer}
+ * holding UTF-8. A BindingParser keeps its buffers between calls and must not be shared between threads.
+ */
+public final class BindingParser {
+    // The states of the parser between two characters
+    private static final int BETWEEN_PAIRS = 0;
+    private static final int NAME = 1;
+    private static final int AFTER_NAME = 2;
+    private static final int BEFORE_VALUE = 3;
+    private static final int VALUE = 4;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    // The variable names by slot, and an open-addressing table from their hash codes to their slots
+    private final String[] slotNames;
+    private final int[] tableSlots;
+    private final int tableMask;
+    private final boolean[] bound;
+    private int boundCount;
+
+    private int state;
+    private char[] name = new char[32];
+    private int nameLength;
+    private int nameHash;
+    private int slot;
+    private char[] value = new char[32];
+    private int valueLength;
+    private long valueOffset;
+    private double[] values;
+    private char[] readBuffer;
+
+    /**
+     * Constructs a BindingParser for the variables of a compiled expression.
+     *
+     * @param expression The compiled expression whose variable slots are filled.
+     */
+    public BindingParser(CompiledExpression expression) {
+        this(slotNames(expression.getSlotCount(), expression::getSlotName));
+    }
+
+    /**
+     * Constructs a BindingParser for the variables of a formula set.
+     *
+     * @param formulaSet The formula set whose variable slots are filled.
+     */
+    public BindingParser(FormulaSet formulaSet) {
+        this(slotNames(formulaSet.getSlotCount(), formulaSet::getSlotName));
+    }
+
+    /**
+     * Constructs a BindingParser for the given variables.
+     *
+     * @param slotNames The variable names, indexed by slot.
+     */
+    private BindingParser(String[] slotNames) {
+        this.slotNames = slotNames;
+        this.bound = new boolean[slotNames.length];
+
+        // At most half full, so probes stay short
+        int capacity = Integer.highestOneBit(Math.max(1, slotNames.length) * 4 - 1);
+        this.tableSlots = new int[capacity];
+        this.tableMask = capacity - 1;
+        Arrays.fill(tableSlots, -1);
+        for (int s = 0; s < slotNames.length; s++) {
+            int index = spread(slotNames[s].hashCode()) & tableMask;
+            while (tableSlots[index] >= 0) {
+                index = (index + 1) & tableMask;
+            }
+            tableSlots[index] = s;
+        }
+    }
+
+    /**
+     * Parses the pairs of the given text into the slot array.
+     *
+     * @param text   The pairs.
+     * @param values The variable values, indexed by slot; the slots of the variables given in
+     *               the text are overwritten, the others are left as they are.
+     * @return The number of distinct variables of the expression given a value.
+     * @throws BindingParseException If a pair is malformed.
+     */
+    public int parse(CharSequence text, double[] values) {
+        start(values);
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            accept(text.charAt(i), i);
+        }
+        return finish(length);
+    }
+
+    /**
+     * Parses the pairs read from the given reader into the slot array. The reader is read to
+     * its end and is not closed.
+     *
+     * @param reader The reader of the pairs.
+     * @param values The variable values, indexed by slot; the slots of the variables given in
+     *               the input are overwritten, the others are left as they are.
+     * @return The number of distinct variables of the expression given a value.
+     * @throws IOException           If reading fails.
+     * @throws BindingParseException If a pair is malformed.
+     */
+    public int parse(Reader reader, double[] values) throws IOException {
+        if (readBuffer == null) {
+            readBuffer = new char[READ_BUFFER_SIZE];
+        }
+        start(values);
+        long offset = 0;
+        int count;
+        while ((count = reader.read(readBuffer)) >= 0) {
+            for (int i = 0; i < count; i++) {
+                accept(readBuffer[i], offset + i);
+            }
+            offset += count;
+        }
+        return finish(offset);
+    }
+
+    /**
+     * Parses the pairs in the remaining bytes of the given buffer, which hold UTF-8, into the
+     * slot array. The position of the buffer is advanced to its limit; malformed UTF-8 sequences
+     * are read as U+FFFD, which only matters inside names.
+     *
+     * @param bytes  The buffer holding the pairs.
+     * @param values The variable values, indexed by slot; the slots of the variables given in
+     *               the buffer are overwritten, the others are left as they are.
+     * @return The number of distinct variables of the expression given a value.
+     * @throws BindingParseException If a pair is malformed.
+     */
+    public int parse(ByteBuffer bytes, double[] values) {
+        start(values);
+        int begin = bytes.position();
+        int end = bytes.limit();
+        int i = begin;
+        while (i < end) {
+            int b = bytes.get(i);
+            if (b >= 0) {
+                // Every character of the syntax is ASCII
+                accept((char) b, i - begin);
+                i++;
+                continue;
+            }
+
+            // Decode a multi-byte sequence into one code point
+            int length = (b & 0xE0) == 0xC0 ? 2 : (b & 0xF0) == 0xE0 ? 3 : (b & 0xF8) == 0xF0 ? 4 : 1;
+            int codePoint = length == 1 ? 0xFFFD : b & (0x7F >> length);
+            int j = i + 1;
+            for (; j < i + length; j++) {
+                if (j == end || (bytes.get(j) & 0xC0) != 0x80) {
+                    codePoint = 0xFFFD;
+                    break;
+                }
+                codePoint = codePoint << 6 | bytes.get(j) & 0x3F;
+            }
+            if (!Character.isValidCodePoint(codePoint)) {
+                accept('\uFFFD', i - begin);
+            } else if (Character.isBmpCodePoint(codePoint)) {
+                accept((char) codePoint, i - begin);
+            } else {
+                accept(Character.highSurrogate(codePoint), i - begin);
+                accept(Character.lowSurrogate(codePoint), i - begin);
+            }
+            i = Math.max(j, i + 1);
+        }
+        bytes.position(end);
+        return finish(end - begin);
+    }
+
+    /**
+     * Checks whether the last parse gave a value to the variable in the given slot.
+     *
+     * @param slot The slot index of the variable.
+     * @return True if the variable was given a value.
+     * @throws IndexOutOfBoundsException If the slot does not exist.
+     */
+    public boolean isBound(int slot) {
+        return bound[slot];
+    }
+
+    /**
+     * Prepares a parse into the given slot array.
+     *
+     * @param values The variable values, indexed by slot.
+     */
+    private void start(double[] values) {
+        this.values = values;
+        Arrays.fill(bound, false);
+        boundCount = 0;
+        state = BETWEEN_PAIRS;
+    }
+
+    /**
+     * Handles the next character of the input.
+     *
+     * @param c      The character.
+     * @param offset The offset of the character in the input.
+     * @throws BindingParseException If the character makes the current pair malformed.
+     */
+    private void accept(char c, long offset) {
+        switch (state) {
+            case BETWEEN_PAIRS -> {
+                if (c == '=') {
+                    nameLength = 0;
+                    throw new BindingParseException(BindingParseException.Reason.MISSING_NAME, offset, null);
+                }
+                if (!isSeparator(c)) {
+                    nameLength = 0;
+                    nameHash = 0;
+                    appendName(c);
+                    state = NAME;
+                }
+            }
+            case NAME -> {
+                if (c == '=') {
+                    endName();
+                } else if (isBlank(c)) {
+                    state = AFTER_NAME;
+                } else if (isSeparator(c)) {
+                    throw error(BindingParseException.Reason.MISSING_EQUALS, offset);
+                } else {
+                    appendName(c);
+                }
+            }
+            case AFTER_NAME -> {
+                if (c == '=') {
+                    endName();
+                } else if (!isBlank(c)) {
+                    throw error(BindingParseException.Reason.MISSING_EQUALS, offset);
+                }
+            }
+            case BEFORE_VALUE -> {
+                if (isSeparator(c) && !isBlank(c)) {
+                    throw error(BindingParseException.Reason.MISSING_VALUE, offset);
+                }
+                if (!isBlank(c)) {
+                    valueLength = 0;
+                    valueOffset = offset;
+                    appendValue(c);
+                    state = VALUE;
+                }
+            }
+            default -> {
+                if (isSeparator(c)) {
+                    endValue();
+                } else {
+                    appendValue(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends the input, completing its last pair.
+     *
+     * @param length The length of the input.
+     * @return The number of distinct variables of the expression given a value.
+     * @throws BindingParseException If the last pair is incomplete.
+     */
+    private int finish(long length) {
+        switch (state) {
+            case NAME, AFTER_NAME -> throw error(BindingParseException.Reason.MISSING_EQUALS, length);
+            case BEFORE_VALUE -> throw error(BindingParseException.Reason.MISSING_VALUE, length);
+            case VALUE -> endValue();
+            default -> {
+            }
+        }
+        values = null;
+        return boundCount;
+    }
+
+    /**
+     * Appends a character to the current name, updating its hash code as {@code String.hashCode} would.
+     *
+     * @param c The character.
+     */
+    private void appendName(char c) {
+        if (nameLength == name.length) {
+            name = Arrays.copyOf(name, nameLength * 2);
+        }
+        name[nameLength++] = c;
+        nameHash = 31 * nameHash + c;
+    }
+
+    /**
+     * Ends the current name at its '=' and looks up its slot.
+     */
+    private void endName() {
+        slot = -1;
+        int index = spread(nameHash) & tableMask;
+        for (int s; (s = tableSlots[index]) >= 0; index = (index + 1) & tableMask) {
+            if (nameEquals(slotNames[s])) {
+                slot = s;
+                break;
+            }
+        }
+        state = BEFORE_VALUE;
+    }
+
+    /**
+     * Checks whether the current name is the given variable name.
+     *
+     * @param variable The variable name.
+     * @return True if the names are equal.
+     */
+    private boolean nameEquals(String variable) {
+        if (variable.length() != nameLength) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (variable.charAt(i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends a character to the current value.
+     *
+     * @param c The character.
+     */
+    private void appendValue(char c) {
+        if (valueLength == value.length) {
+            value = Arrays.copyOf(value, valueLength * 2);
+        }
+        value[valueLength++] = c;
+    }
+
+    /**
+     * Ends the current value, parses it and stores it in the slot of its variable.
+     *
+     * @throws BindingParseException If the value is not a number.
+     */
+    private void endValue() {
+        double number = parseValue();
+        if (slot >= 0) {
+            values[slot] = number;
+            if (!bound[slot]) {
+                bound[slot] = true;
+                boundCount++;
+            }
+        }
+        state = BETWEEN_PAIRS;
+    }
+
+    /**
+     * Parses the current value.
+     *
+     * @return The value.
+     * @throws BindingParseException If the value is not a number.
+     */
+    private double parseValue() {
+        double number = parseNumber(value, valueLength);
+        if (Double.isNaN(number)) {
+            throw error(BindingParseException.Reason.INVALID_NUMBER, valueOffset);
+        }
+        return number;
+    }
+
+    /**
+     * Parses a number of the binding grammar: a sign, digits with at most one decimal point or
+     * comma, and an optional exponent, so {@code NaN}, {@code Infinity}, hexadecimal numbers and
+     * type suffixes are not numbers. Values of up to 15 digits whose decimal exponent is within
+     * 22 of zero are computed exactly from their digits, with a single correctly rounded
+     * multiplication or division; the others fall back to {@code Double.parseDouble}.
+     *
+     * @param value  The characters of the number; a decimal comma is replaced by a point.
+     * @param length The number of characters.
+     * @return The value, or NaN if the characters are not a number.
+     */
+    static double parseNumber(char[] value, int length) {
+        int i = 0;
+        boolean negative = length > 0 && value[0] == '-';
+        if (length > 0 && (value[0] == '-' || value[0] == '+')) {
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean point = false;
+        boolean anyDigit = false;
+        for (; i < length; i++) {
+            char c = value[i];
+            if (c >= '0' && c <= '9') {
+                // Leading zeros are not significant
+                if (mantissa != 0 || c != '0') {
+                    mantissa = digits < 18 ? mantissa * 10 + (c - '0') : mantissa;
+                    digits++;
+                }
+                decimals += point ? 1 : 0;
+                anyDigit = true;
+            } else if ((c == '.' || c == ',') && !point) {
+                point = true;
+                // The fallback below reads the comma as a decimal point
+                value[i] = '.';
+            } else {
+                break;
+            }
+        }
+        if (!anyDigit) {
+            return Double.NaN;
+        }
+
+        int exponent = 0;
+        if (i < length && (value[i] == 'e' || value[i] == 'E')) {
+            i++;
+            boolean negativeExponent = i < length && value[i] == '-';
+            if (i < length && (value[i] == '-' || value[i] == '+')) {
+                i++;
+            }
+            int exponentStart = i;
+            for (; i < length && value[i] >= '0' && value[i] <= '9'; i++) {
+                // Any exponent this large under- or overflows, so it only needs to stay large
+                exponent = Math.min(exponent * 10 + (value[i] - '0'), 100_000);
+            }
+            if (i == exponentStart) {
+                return Double.NaN;
+            }
+            exponent = negativeExponent ? -exponent : exponent;
+        }
+        if (i < length) {
+            return Double.NaN;
+        }
+
+        double result;
+        int power = exponent - decimals;
+        if (mantissa == 0) {
+            result = 0.0;
+        } else if (digits <= 15 && power >= 0 && power < MathExpressionParser.POWERS_OF_TEN.length) {
+            result = mantissa * MathExpressionParser.POWERS_OF_TEN[power];
+        } else if (digits <= 15 && power < 0 && -power < MathExpressionParser.POWERS_OF_TEN.length) {
+            result = mantissa / MathExpressionParser.POWERS_OF_TEN[-power];
+        } else {
+            return Double.parseDouble(new String(value, 0, length));
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Creates the exception reporting a malformed pair of the current variable.
+     *
+     * @param reason What is wrong with the pair.
+     * @param offset The offset of the error in the input.
+     * @return The exception to throw.
+     */
+    private BindingParseException error(BindingParseException.Reason reason, long offset) {
+        state = BETWEEN_PAIRS;
+        return new BindingParseException(reason, offset, new String(name, 0, nameLength));
+    }
+
+    /**
+     * Checks whether a character separates pairs.
+     *
+     * @param c The character.
+     * @return True for whitespace and ';'.
+     */
+    private static boolean isSeparator(char c) {
+        return c == ';' || MathExpressionParser.isWhitespace(c);
+    }
+
+    /**
+     * Checks whether a character may surround the '=' of a pair.
+     *
+     * @param c The character.
+     * @return True for a space or a tab.
+     */
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * Spreads the high bits of a hash code into the low ones, which index the table.
+     *
+     * @param hash The hash code.
+     * @return The spread hash code.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Collects the variable names of a slot table.
+     *
+     * @param slotCount The number of slots.
+     * @param slotName  The function returning the name of a slot.
+     * @return The variable names, indexed by slot.
+     */
+    private static String[] slotNames(int slotCount, IntFunction<String> slotName) {
+        String[] names = new String[slotCount];
+        for (int s = 0; s < slotCount; s++) {
+            names[s] = slotName.apply(s);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,81 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The BytecodeBenchmark class compares the evaluation speed of {@code MathExpression.calculate},
+ * the {@code CompiledExpression} interpreter and the class generated by {@code BytecodeCompiler}
+ * for the same expression.
+ */
+public class BytecodeBenchmark {
+    private static final int ITERATIONS = 5_000_000;
+    private static final int ROUNDS = 5;
+
+    /**
+     * Runs the benchmark for the given expression, or for a default one.
+     *
+     * @param args An optional mathematical expression over the variables x and y, used in that order.
+     */
+    public static void main(String[] args) {
+        String expression = args.length > 0 ? args[0] : "x^2 + sin(y)*3.5 - sqrt(x*y)/log10(y+2)";
+        MathExpressionParser parser = new MathExpressionParser();
+        FunctionRegistry functionRegistry = new FunctionRegistry();
+
+        MathExpression mathExpression = parser.parse(expression, new HashMap<>());
+        mathExpression.setFunctionRegistry(functionRegistry);
+        CompiledExpression compiledExpression = mathExpression.compile();
+        CompiledFunction generated = BytecodeCompiler.compile(compiledExpression);
+
+        System.out.println("Expression: " + expression);
+        System.out.println("Generated:  " + generated.getClass().getName());
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.println("Round " + round);
+            report("MathExpression.calculate", runCalculate(mathExpression));
+            report("CompiledExpression", runInterpreter(compiledExpression));
+            report("BytecodeCompiler", runGenerated(generated));
+        }
+    }
+
+    private static long[] runCalculate(MathExpression mathExpression) {
+        Map<String, Double> values = new HashMap<>();
+        double sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            values.put("x", (double) (i % 1000));
+            values.put("y", 3.0);
+            mathExpression.setVariableValues(values);
+            sink += mathExpression.calculate();
+        }
+        return new long[]{System.nanoTime() - start, (long) sink};
+    }
+
+    private static long[] runInterpreter(CompiledExpression compiledExpression) {
+        double[] values = new double[2];
+        double[] stack = compiledExpression.newStack();
+        double sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            values[0] = i % 1000;
+            values[1] = 3.0;
+            sink += compiledExpression.evaluate(values, stack);
+        }
+        return new long[]{System.nanoTime() - start, (long) sink};
+    }
+
+    private static long[] runGenerated(CompiledFunction generated) {
+        double[] values = new double[2];
+        double sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            values[0] = i % 1000;
+            values[1] = 3.0;
+            sink += generated.eval(values);
+        }
+        return new long[]{System.nanoTime() - start, (long) sink};
+    }
+
+    private static void report(String name, long[] result) {
+        System.out.printf("  %-26s %8.2f ns/op  (checksum %d)%n", name, (double) result[0] / ITERATIONS, result[1]);
+    }
+}
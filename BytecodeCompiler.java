@@ -0,0 +1,398 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The BytecodeCompiler class turns a compiled expression into a JVM class at runtime.
+ * Every instruction of the program becomes the matching bytecode, functions become final
+ * fields of a hidden class (which the JIT trusts as constants), so the JIT can inline
+ * the {@code IAction} calls and the arithmetic. The generated code has no branches:
+ * division and exponentiation go through the same checks as the interpreter.
+ * If the class cannot be generated, the interpreter is used instead, and the fallback is counted
+ * in {@code ExpressionMetrics}.
+ */
+public final class BytecodeCompiler {
+    private static final String PACKAGE = "com/shpp/p2p/cs/ikopach/assignment11/";
+    private static final String CLASS_NAME = PACKAGE + "GeneratedExpression";
+    private static final String ACTION_DESCRIPTOR = "L" + PACKAGE + "IAction;";
+
+    private static final int CLASS_FILE_VERSION = 61;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * Compiles the expression into a generated class, falling back to the interpreter
+     * if the class cannot be generated or loaded. Any other error is a bug and is thrown.
+     *
+     * @param expression The compiled expression.
+     * @return A function evaluating the expression.
+     */
+    public static CompiledFunction compile(CompiledExpression expression) {
+        try {
+            return generate(expression);
+        } catch (IllegalArgumentException | IllegalAccessException | VerifyError | ClassFormatError e) {
+            // Too large for a single method, an unsupported opcode, or rejected by the JVM: interpret instead
+            if (ExpressionMetrics.ENABLED) {
+                ExpressionMetrics.get().recordBytecodeFallback();
+            }
+            return expression::evaluate;
+        }
+    }
+
+    /**
+     * Generates, defines and instantiates a hidden class evaluating the expression.
+     *
+     * @param expression The compiled expression.
+     * @return An instance of the generated class.
+     * @throws IllegalArgumentException If the expression cannot be expressed in a single method.
+     * @throws IllegalAccessException   If the class cannot be defined.
+     * @throws VerifyError              If the JVM rejects the generated code.
+     * @throws ClassFormatError         If the JVM rejects the class file.
+     */
+    static CompiledFunction generate(CompiledExpression expression) throws IllegalAccessException {
+        byte[] classFile;
+        try {
+            classFile = generateClassFile(expression);
+        } catch (IOException e) {
+            // The class file is written to memory
+            throw new IllegalStateException(e);
+        }
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+        try {
+            return (CompiledFunction) lookup.lookupClass().getConstructor(IAction[].class)
+                    .newInstance((Object) expression.getFunctions());
+        } catch (NoSuchMethodException | InstantiationException | InvocationTargetException e) {
+            // The generated class always has this constructor, and it only stores the functions
+            throw new IllegalStateException("Cannot instantiate the generated class", e);
+        }
+    }
+
+    /**
+     * Writes the class file of a class implementing {@code CompiledFunction} for the expression.
+     *
+     * @param expression The compiled expression.
+     * @return The bytes of the class file.
+     * @throws IOException If the class file cannot be written.
+     */
+    private static byte[] generateClassFile(CompiledExpression expression) throws IOException {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int interfaceClass = pool.classRef(PACKAGE + "CompiledFunction");
+        int codeName = pool.utf8("Code");
+
+        int functionCount = expression.getFunctions().length;
+        byte[] constructorCode = constructorCode(pool, functionCount);
+        byte[] evalCode = evalCode(pool, expression);
+
+        // Every constant pool entry has to exist before the pool is written
+        int[] fieldNames = new int[functionCount];
+        for (int i = 0; i < functionCount; i++) {
+            fieldNames[i] = pool.utf8("f" + i);
+        }
+        int fieldDescriptor = pool.utf8(ACTION_DESCRIPTOR);
+        int constructorName = pool.utf8("<init>");
+        int constructorDescriptor = pool.utf8("([" + ACTION_DESCRIPTOR + ")V");
+        int evalName = pool.utf8("eval");
+        int evalDescriptor = pool.utf8("([D)D");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(CLASS_FILE_VERSION);
+        pool.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(interfaceClass);
+
+        // One final field per function call site
+        out.writeShort(functionCount);
+        for (int i = 0; i < functionCount; i++) {
+            out.writeShort(ACC_PRIVATE | ACC_FINAL);
+            out.writeShort(fieldNames[i]);
+            out.writeShort(fieldDescriptor);
+            out.writeShort(0);
+        }
+
+        out.writeShort(2);
+        writeMethod(out, constructorName, constructorDescriptor, codeName, 3, 2, constructorCode);
+        writeMethod(out, evalName, evalDescriptor, codeName, expression.getMaxStackDepth() * 2 + 4,
+                2 + 2 * expression.getTempCount(), evalCode);
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Generates the constructor, which stores every function of the array in its own final field.
+     *
+     * @param pool          The constant pool of the class.
+     * @param functionCount The number of functions.
+     * @return The bytecode of the constructor.
+     */
+    private static byte[] constructorCode(ConstantPool pool, int functionCount) {
+        CodeBuffer code = new CodeBuffer();
+        code.op(0x2A); // aload_0
+        code.op(0xB7).u2(pool.methodRef("java/lang/Object", "<init>", "()V")); // invokespecial
+        for (int i = 0; i < functionCount; i++) {
+            code.op(0x2A); // aload_0
+            code.op(0x2B); // aload_1
+            code.pushInt(pool, i);
+            code.op(0x32); // aaload
+            code.op(0xB5).u2(pool.fieldRef(CLASS_NAME, "f" + i, ACTION_DESCRIPTOR)); // putfield
+        }
+        code.op(0xB1); // return
+        return code.toByteArray();
+    }
+
+    /**
+     * Generates {@code eval(double[])}, translating every instruction of the program to bytecode.
+     *
+     * @param pool       The constant pool of the class.
+     * @param expression The compiled expression.
+     * @return The bytecode of the method.
+     */
+    private static byte[] evalCode(ConstantPool pool, CompiledExpression expression) {
+        byte[] program = expression.getCode();
+        int[] operands = expression.getOperands();
+        double[] constants = expression.getConstants();
+        String helpers = PACKAGE + "CompiledExpression";
+
+        CodeBuffer code = new CodeBuffer();
+        for (int i = 0; i < program.length; i++) {
+            switch (program[i]) {
+                case Opcode.CONST -> code.pushDouble(pool, constants[operands[i]]);
+                case Opcode.LOAD -> {
+                    code.op(0x2B); // aload_1
+                    code.pushInt(pool, operands[i]);
+                    code.op(0x31); // daload
+                }
+                case Opcode.ADD -> code.op(0x63); // dadd
+                case Opcode.SUB -> code.op(0x67); // dsub
+                case Opcode.MUL -> code.op(0x6B); // dmul
+                case Opcode.DIV -> code.op(0xB8).u2(pool.methodRef(helpers, "divide", "(DD)D")); // invokestatic
+                case Opcode.POW -> code.op(0xB8).u2(pool.methodRef(helpers, "power", "(DD)D")); // invokestatic
+                case Opcode.DUP -> code.op(0x5C); // dup2
+                case Opcode.STORE_TEMP -> {
+                    // Temporary registers are the locals after this and vars
+                    code.op(0x5C); // dup2
+                    code.local(0x39, 2 + 2 * operands[i]); // dstore
+                }
+                case Opcode.LOAD_TEMP -> code.local(0x18, 2 + 2 * operands[i]); // dload
+                case Opcode.CALL -> {
+                    // Load the function and move it below its argument
+                    code.op(0x2A); // aload_0
+                    code.op(0xB4).u2(pool.fieldRef(CLASS_NAME, "f" + operands[i], ACTION_DESCRIPTOR)); // getfield
+                    code.op(0x5B); // dup_x2
+                    code.op(0x57); // pop
+                    code.op(0xB9).u2(pool.interfaceMethodRef(PACKAGE + "IAction", "calculate", "(D)D"))
+                            .u1(3).u1(0); // invokeinterface
+                }
+                // Calls of several arguments are left to the interpreter, which passes them as an array slice
+                case Opcode.CALL_MULTI -> throw new IllegalArgumentException("Unsupported opcode: CALL_MULTI");
+                default -> throw new IllegalArgumentException("Unsupported opcode: " + program[i]);
+            }
+        }
+        code.op(0xAF); // dreturn
+
+        if (code.size() > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("The expression is too large to compile to bytecode");
+        }
+        return code.toByteArray();
+    }
+
+    /**
+     * Writes a method with a single Code attribute.
+     *
+     * @param out        The class file output.
+     * @param name       The constant pool index of the method name.
+     * @param descriptor The constant pool index of the method descriptor.
+     * @param codeName   The constant pool index of the "Code" attribute name.
+     * @param maxStack   The maximum operand stack size in words.
+     * @param maxLocals  The number of local variable words.
+     * @param code       The bytecode of the method.
+     * @throws IOException If the method cannot be written.
+     */
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    /**
+     * A growable buffer of bytecode with helpers for the instructions the compiler emits.
+     */
+    private static final class CodeBuffer extends ByteArrayOutputStream {
+
+        CodeBuffer op(int opcode) {
+            write(opcode);
+            return this;
+        }
+
+        CodeBuffer u1(int value) {
+            write(value);
+            return this;
+        }
+
+        CodeBuffer u2(int value) {
+            write(value >>> 8);
+            write(value);
+            return this;
+        }
+
+        void local(int opcode, int index) {
+            if (index <= 0xFF) {
+                op(opcode).u1(index);
+            } else {
+                op(0xC4).op(opcode).u2(index); // wide
+            }
+        }
+
+        void pushInt(ConstantPool pool, int value) {
+            if (value <= 5) {
+                op(0x03 + value); // iconst_<n>
+            } else if (value <= Byte.MAX_VALUE) {
+                op(0x10).u1(value); // bipush
+            } else if (value <= Short.MAX_VALUE) {
+                op(0x11).u2(value); // sipush
+            } else {
+                op(0x13).u2(pool.integer(value)); // ldc_w
+            }
+        }
+
+        void pushDouble(ConstantPool pool, double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                op(0x0E); // dconst_0
+            } else if (value == 1.0) {
+                op(0x0F); // dconst_1
+            } else {
+                op(0x14).u2(pool.doubleValue(value)); // ldc2_w
+            }
+        }
+    }
+
+    /**
+     * The constant pool of the generated class. Equal entries are shared.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, 1, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, 1, () -> {
+                out.writeByte(7);
+                out.writeShort(name);
+            });
+        }
+
+        int integer(int value) {
+            return entry("I" + value, 1, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        int doubleValue(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            // A double takes two constant pool entries
+            return entry("D" + bits, 2, () -> {
+                out.writeByte(6);
+                out.writeLong(bits);
+            });
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(9, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(10, owner, name, descriptor);
+        }
+
+        int interfaceMethodRef(String owner, String name, String descriptor) {
+            return memberRef(11, owner, name, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerClass = classRef(owner);
+            int nameUtf8 = utf8(name);
+            int descriptorUtf8 = utf8(descriptor);
+            int nameAndType = entry("N" + name + ":" + descriptor, 1, () -> {
+                out.writeByte(12);
+                out.writeShort(nameUtf8);
+                out.writeShort(descriptorUtf8);
+            });
+            return entry(tag + owner + "." + name + ":" + descriptor, 1, () -> {
+                out.writeByte(tag);
+                out.writeShort(ownerClass);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(String key, int size, Writer writer) {
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = count;
+            count += size;
+            if (count > 0xFFFF) {
+                throw new IllegalArgumentException("The constant pool of the generated class is too large");
+            }
+            entries.put(key, index);
+            return index;
+        }
+
+        void writeTo(DataOutputStream classFile) throws IOException {
+            classFile.writeShort(count);
+            out.flush();
+            bytes.writeTo(classFile);
+        }
+
+        /**
+         * Writes the body of a constant pool entry.
+         */
+        private interface Writer {
+            void write() throws IOException;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The CommonSubexpressionEliminator class turns an expression tree into a DAG in which
+ * structurally identical subtrees are represented by a single node. The program writer computes
+ * a shared node once per evaluation and reuses its value, so for example {@code sin(a*b)} that
+ * appears three times in a formula is calculated only once.
+ * Operands of {@code +} and {@code *} are put in a canonical order first, because both operations
+ * are exactly commutative in floating point. This relies on every registered function being pure.
+ */
+final class CommonSubexpressionEliminator {
+    private final Map<Key, ExpressionNode> canonicalNodes = new HashMap<>();
+    private final Map<ExpressionNode, Integer> ids = new IdentityHashMap<>();
+    private final Map<ExpressionNode, ExpressionNode> visited = new IdentityHashMap<>();
+
+    /**
+     * Returns the DAG form of the given tree. Nodes are shared with every tree
+     * previously passed to the same eliminator.
+     *
+     * @param root The root of the expression tree.
+     * @return The root of the DAG.
+     */
+    ExpressionNode eliminate(ExpressionNode root) {
+        // Children come first in post-order, so their canonical nodes are known when their parent is reached
+        for (ExpressionNode node : ExpressionNode.postOrder(root)) {
+            if (!visited.containsKey(node)) {
+                visited.put(node, canonical(node));
+            }
+        }
+        return visited.get(root);
+    }
+
+    /**
+     * Returns the canonical node of the given node, whose children already have theirs.
+     *
+     * @param node The node.
+     * @return The canonical node: an identical node seen before, or the node with canonical children.
+     */
+    private ExpressionNode canonical(ExpressionNode node) {
+        ExpressionNode[] children = node.getChildren();
+        ExpressionNode candidate;
+        if (node.getOpcode() == Opcode.CALL) {
+            ExpressionNode argument = visited.get(children[0]);
+            candidate = argument == children[0]
+                    ? node
+                    : ExpressionNode.call(node.getName(), node.getFunction(), argument);
+        } else if (node.getOpcode() == Opcode.CALL_MULTI) {
+            ExpressionNode[] arguments = new ExpressionNode[children.length];
+            boolean changed = false;
+            for (int i = 0; i < children.length; i++) {
+                arguments[i] = visited.get(children[i]);
+                changed |= arguments[i] != children[i];
+            }
+            candidate = changed ? ExpressionNode.callMulti(node.getName(), node.getMultiFunction(), arguments) : node;
+        } else if (children.length == 2) {
+            ExpressionNode left = visited.get(children[0]);
+            ExpressionNode right = visited.get(children[1]);
+            boolean commutative = node.getOpcode() == Opcode.ADD || node.getOpcode() == Opcode.MUL;
+            if (commutative && ids.get(left) > ids.get(right)) {
+                ExpressionNode swap = left;
+                left = right;
+                right = swap;
+            }
+            candidate = left == children[0] && right == children[1] ? node
+                    : ExpressionNode.binary(node.getOpcode(), left, right);
+        } else {
+            candidate = node;
+        }
+
+        // Reuse an identical node if there is one, otherwise this node becomes the canonical one
+        return canonicalNodes.computeIfAbsent(new Key(candidate, ids), key -> {
+            ids.put(candidate, ids.size());
+            return candidate;
+        });
+    }
+
+    /**
+     * Returns the number of nodes that were removed because an identical node already existed.
+     *
+     * @return The number of distinct input nodes minus the number of distinct output nodes.
+     */
+    int getRemovedNodeCount() {
+        return visited.size() - canonicalNodes.size();
+    }
+
+    /**
+     * The structural identity of a node whose children are already canonical:
+     * the opcode, the constant, the slot, the function and the children.
+     */
+    private static final class Key {
+        private final byte opcode;
+        private final long valueBits;
+        private final int slot;
+        // The IAction or IMultiAction of a call node
+        private final Object function;
+        private final int[] childIds;
+
+        Key(ExpressionNode node, Map<ExpressionNode, Integer> ids) {
+            this.opcode = node.getOpcode();
+            this.valueBits = Double.doubleToLongBits(node.getValue());
+            this.slot = node.getSlot();
+            this.function = node.getOpcode() == Opcode.CALL_MULTI ? node.getMultiFunction() : node.getFunction();
+            ExpressionNode[] children = node.getChildren();
+            this.childIds = new int[children.length];
+            for (int i = 0; i < children.length; i++) {
+                childIds[i] = ids.get(children[i]);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key other)) {
+                return false;
+            }
+            return opcode == other.opcode && valueBits == other.valueBits && slot == other.slot
+                    && function == other.function && Arrays.equals(childIds, other.childIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(opcode, valueBits, slot, System.identityHashCode(function),
+                    Arrays.hashCode(childIds));
+        }
+    }
+}
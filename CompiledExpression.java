@@ -0,0 +1,577 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.*;
+
+/**
+ * The CompiledExpression class is an immutable, thread-safe program compiled from the expression
+ * tree of a mathematical expression. The program consists of opcode bytes, pre-parsed
+ * constants, resolved {@code IAction} references and variable slot indices, so it can be evaluated
+ * any number of times, from any number of threads, without looking at a single string.
+ */
+public final class CompiledExpression {
+    private final byte[] code;
+    private final int[] operands;
+    private final double[] constants;
+    private final IAction[] functions;
+    private final String[] functionNames;
+    private final IMultiAction[] multiFunctions;
+    private final String[] multiFunctionNames;
+    private final String[] slotNames;
+    private final Set<String> variableNames;
+    private final Map<String, Integer> slotIndices;
+    private final int maxStackDepth;
+    private final int tempCount;
+    private final int eliminatedNodeCount;
+    private final int resultCount;
+    // Rebuilt from the program on first use for expressions loaded from a snapshot; nodes are
+    // immutable, so a thread seeing null merely rebuilds an identical DAG
+    private ExpressionNode root;
+
+    /**
+     * Compiles the given expression tree. The tree is simplified by {@code ExpressionOptimizer},
+     * identical subtrees are merged by {@code CommonSubexpressionEliminator}, and the resulting
+     * DAG is written out as a program.
+     *
+     * @param root      The root of the expression tree.
+     * @param slotNames The variable names, indexed by slot.
+     */
+    CompiledExpression(ExpressionNode root, String[] slotNames) {
+        this(new ExpressionNode[]{root}, slotNames);
+    }
+
+    /**
+     * Compiles several expression trees over the same variable slots into one program. Identical
+     * subtrees are merged across all of the trees, so a subexpression shared by several of them is
+     * computed once per evaluation. The program leaves the result of tree {@code i} at stack
+     * position {@code i}; {@code evaluate} returns the last one.
+     *
+     * @param roots     The roots of the expression trees.
+     * @param slotNames The variable names, indexed by slot, shared by all of the trees.
+     */
+    CompiledExpression(ExpressionNode[] roots, String[] slotNames) {
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator();
+        ProgramWriter writer = new ProgramWriter();
+        ExpressionNode[] dags = new ExpressionNode[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            dags[i] = eliminator.eliminate(ExpressionOptimizer.optimize(roots[i]));
+        }
+        this.root = dags[0];
+        this.resultCount = dags.length;
+        writer.write(dags);
+
+        this.code = writer.getCode();
+        this.operands = writer.getOperands();
+        this.constants = writer.getConstants();
+        this.functionNames = writer.getFunctionNames();
+        this.functions = counting(functionNames, writer.getFunctions());
+        this.multiFunctionNames = writer.getMultiFunctionNames();
+        this.multiFunctions = counting(multiFunctionNames, writer.getMultiFunctions());
+        this.slotNames = slotNames;
+        this.variableNames = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(slotNames)));
+        this.slotIndices = new HashMap<>();
+        for (int slot = 0; slot < slotNames.length; slot++) {
+            slotIndices.put(slotNames[slot], slot);
+        }
+        this.maxStackDepth = writer.getMaxDepth();
+        this.tempCount = writer.getTempCount();
+        this.eliminatedNodeCount = eliminator.getRemovedNodeCount();
+    }
+
+    /**
+     * Reconstructs a compiled expression from the parts of its program, as stored by
+     * {@code ExpressionSnapshot}, without parsing or optimizing anything. The instructions are
+     * checked by rebuilding the DAG of the program, which is then dropped to save memory; the
+     * few users of the DAG rebuild it again.
+     *
+     * @param code                The opcode of every instruction.
+     * @param operands            The operand of every instruction.
+     * @param constants           The constant pool.
+     * @param functionNames       The names of the functions of one argument, indexed by operand.
+     * @param functions           The functions of one argument, indexed by operand.
+     * @param multiFunctionNames  The names of the functions of several arguments, indexed by operand.
+     * @param multiFunctions      The functions of several arguments, indexed by operand.
+     * @param slotNames           The variable names, indexed by slot.
+     * @param maxStackDepth       The stack depth the program needs.
+     * @param tempCount           The number of temporary registers the program uses.
+     * @param eliminatedNodeCount The number of nodes removed when the program was compiled.
+     * @throws IllegalArgumentException If the program is malformed.
+     */
+    CompiledExpression(byte[] code, int[] operands, double[] constants, String[] functionNames, IAction[] functions,
+                       String[] multiFunctionNames, IMultiAction[] multiFunctions, String[] slotNames,
+                       int maxStackDepth, int tempCount, int eliminatedNodeCount) {
+        if (operands.length != code.length || functions.length != functionNames.length
+                || multiFunctions.length != multiFunctionNames.length) {
+            throw new IllegalArgumentException("The parts of the program differ in length");
+        }
+        this.code = code;
+        this.operands = operands;
+        this.constants = constants;
+        this.functions = counting(functionNames, functions);
+        this.functionNames = functionNames;
+        this.multiFunctions = counting(multiFunctionNames, multiFunctions);
+        this.multiFunctionNames = multiFunctionNames;
+        this.slotNames = slotNames;
+        this.variableNames = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(slotNames)));
+        this.slotIndices = new HashMap<>();
+        for (int slot = 0; slot < slotNames.length; slot++) {
+            slotIndices.put(slotNames[slot], slot);
+        }
+        this.maxStackDepth = maxStackDepth;
+        this.tempCount = tempCount;
+        this.eliminatedNodeCount = eliminatedNodeCount;
+        this.resultCount = 1;
+        ExpressionNode.fromProgram(this);
+    }
+
+    /**
+     * Evaluates the expression with the given variable values. Variables without a value
+     * are treated as 0.0, the same way MathExpression does.
+     *
+     * @param bindings A map containing variable names and their corresponding values.
+     * @return The result of the mathematical expression.
+     * @throws ArithmeticException      If division by zero is encountered during the calculation.
+     * @throws IllegalArgumentException If a negative number is raised to a fractional power.
+     */
+    public double evaluate(Map<String, Double> bindings) {
+        double[] values = new double[slotNames.length];
+        for (int slot = 0; slot < slotNames.length; slot++) {
+            values[slot] = bindings.getOrDefault(slotNames[slot], 0.0);
+        }
+        return evaluate(values);
+    }
+
+    /**
+     * Evaluates the expression with variable values given by slot index.
+     * The value of the variable in slot {@code i}, as returned by {@code slotOf}, is {@code values[i]}.
+     *
+     * @param values The variable values, indexed by slot.
+     * @return The result of the mathematical expression.
+     * @throws ArithmeticException      If division by zero is encountered during the calculation.
+     * @throws IllegalArgumentException If a negative number is raised to a fractional power.
+     */
+    public double evaluate(double[] values) {
+        return evaluate(values, newStack());
+    }
+
+    /**
+     * Evaluates the expression on a caller-supplied stack. A caller that keeps its stack
+     * (one per thread) and its values array evaluates the expression without allocating anything.
+     *
+     * @param values The variable values, indexed by slot.
+     * @param stack  The evaluation stack, created by {@code newStack()}.
+     * @return The result of the mathematical expression.
+     * @throws ArithmeticException      If division by zero is encountered during the calculation.
+     * @throws IllegalArgumentException If a negative number is raised to a fractional power.
+     */
+    public double evaluate(double[] values, double[] stack) {
+        int top = 0;
+
+        for (int i = 0; i < code.length; i++) {
+            switch (code[i]) {
+                case Opcode.CONST -> stack[top++] = constants[operands[i]];
+                case Opcode.LOAD -> stack[top++] = values[operands[i]];
+                case Opcode.ADD -> {
+                    top--;
+                    stack[top - 1] += stack[top];
+                }
+                case Opcode.SUB -> {
+                    top--;
+                    stack[top - 1] -= stack[top];
+                }
+                case Opcode.MUL -> {
+                    top--;
+                    stack[top - 1] *= stack[top];
+                }
+                case Opcode.DIV -> {
+                    top--;
+                    stack[top - 1] = divide(stack[top - 1], stack[top]);
+                }
+                case Opcode.POW -> {
+                    top--;
+                    stack[top - 1] = power(stack[top - 1], stack[top]);
+                }
+                case Opcode.DUP -> {
+                    stack[top] = stack[top - 1];
+                    top++;
+                }
+                // Temporary registers live in the stack array, above the deepest stack position
+                case Opcode.STORE_TEMP -> stack[maxStackDepth + operands[i]] = stack[top - 1];
+                case Opcode.LOAD_TEMP -> stack[top++] = stack[maxStackDepth + operands[i]];
+                case Opcode.CALL_MULTI -> {
+                    IMultiAction function = multiFunctions[operands[i]];
+                    // The arguments are the topmost values; the result replaces the first one
+                    top -= function.getArity() - 1;
+                    stack[top - 1] = function.calculate(stack, top - 1);
+                }
+                default -> stack[top - 1] = functions[operands[i]].calculate(stack[top - 1]);
+            }
+        }
+
+        // The final result is at the top of the stack
+        return stack[top - 1];
+    }
+
+    /**
+     * Evaluates the program so that an error only fails the results that depend on it. Every
+     * stack position and temporary register carries the error its value came from, if any: an
+     * instruction whose operands carry an error passes the first of them on without computing,
+     * and an instruction that fails, or loads a variable without a value, starts a new one. The
+     * value of an erroneous position is NaN. This is slower than {@code evaluate} and meant for
+     * the programs of formula sets, whose results are independent formulas.
+     *
+     * @param values The variable values, indexed by slot.
+     * @param bound  Which variable slots have a value.
+     * @param stack  The evaluation stack, created by {@code newStack()}.
+     * @param errors The array receiving the error of every stack position, as long as the stack;
+     *               the error of result {@code i} is left at position {@code i}, or null if it has none.
+     */
+    void evaluateEach(double[] values, boolean[] bound, double[] stack, RuntimeException[] errors) {
+        int top = 0;
+
+        for (int i = 0; i < code.length; i++) {
+            byte opcode = code[i];
+            int operand = operands[i];
+            switch (opcode) {
+                case Opcode.CONST -> {
+                    errors[top] = null;
+                    stack[top++] = constants[operand];
+                }
+                case Opcode.LOAD -> {
+                    errors[top] = bound[operand] ? null : new IllegalArgumentException(
+                            "Please provide a value for variable: " + slotNames[operand]);
+                    stack[top++] = bound[operand] ? values[operand] : Double.NaN;
+                }
+                case Opcode.DUP -> {
+                    errors[top] = errors[top - 1];
+                    stack[top] = stack[top - 1];
+                    top++;
+                }
+                case Opcode.STORE_TEMP -> {
+                    errors[maxStackDepth + operand] = errors[top - 1];
+                    stack[maxStackDepth + operand] = stack[top - 1];
+                }
+                case Opcode.LOAD_TEMP -> {
+                    errors[top] = errors[maxStackDepth + operand];
+                    stack[top++] = stack[maxStackDepth + operand];
+                }
+                default -> {
+                    int arity = opcode == Opcode.CALL_MULTI ? multiFunctions[operand].getArity()
+                            : opcode == Opcode.CALL ? 1 : 2;
+                    top -= arity - 1;
+                    RuntimeException error = null;
+                    for (int a = top - 1; a < top - 1 + arity && error == null; a++) {
+                        error = errors[a];
+                    }
+                    if (error == null) {
+                        try {
+                            stack[top - 1] = switch (opcode) {
+                                case Opcode.ADD -> stack[top - 1] + stack[top];
+                                case Opcode.SUB -> stack[top - 1] - stack[top];
+                                case Opcode.MUL -> stack[top - 1] * stack[top];
+                                case Opcode.DIV -> divide(stack[top - 1], stack[top]);
+                                case Opcode.POW -> power(stack[top - 1], stack[top]);
+                                case Opcode.CALL_MULTI -> multiFunctions[operand].calculate(stack, top - 1);
+                                default -> functions[operand].calculate(stack[top - 1]);
+                            };
+                        } catch (ArithmeticException | IllegalArgumentException e) {
+                            error = e;
+                        }
+                    }
+                    if (error != null) {
+                        stack[top - 1] = Double.NaN;
+                    }
+                    errors[top - 1] = error;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the unique variable names used by the expression, in order of first use.
+     *
+     * @return An unmodifiable set of variable names.
+     */
+    public Set<String> getVariables() {
+        return variableNames;
+    }
+
+    /**
+     * Returns the number of variable slots, which is the length of the values array
+     * expected by {@code evaluate(double[])}.
+     *
+     * @return The number of distinct variables.
+     */
+    public int getSlotCount() {
+        return slotNames.length;
+    }
+
+    /**
+     * Returns the slot assigned to the given variable at compile time.
+     *
+     * @param variable The name of the variable.
+     * @return The slot index of the variable, or -1 if the expression does not use it.
+     */
+    public int slotOf(String variable) {
+        Integer slot = slotIndices.get(variable);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Returns the name of the variable stored in the given slot.
+     *
+     * @param slot The slot index.
+     * @return The name of the variable.
+     * @throws IndexOutOfBoundsException If the slot does not exist.
+     */
+    public String getSlotName(int slot) {
+        return slotNames[slot];
+    }
+
+    /**
+     * Creates a binder that collects variable values for this expression in a reusable slot array.
+     *
+     * @return A new variable binder.
+     */
+    public VariableBinder newBinder() {
+        return new VariableBinder(this);
+    }
+
+    /**
+     * Creates a session that keeps the value of every subexpression between evaluations,
+     * so only the parts depending on changed variables are computed again.
+     *
+     * @return A new evaluation session.
+     */
+    public EvaluationSession newSession() {
+        return new EvaluationSession(this);
+    }
+
+    /**
+     * Creates an evaluator that computes the partial derivatives by every variable along with
+     * the value, by reverse-mode automatic differentiation.
+     *
+     * @return A new gradient evaluator.
+     */
+    public GradientEvaluator newGradientEvaluator() {
+        return new GradientEvaluator(this);
+    }
+
+    /**
+     * Creates an evaluator that computes guaranteed bounds of the expression over intervals
+     * of the variables, by interval arithmetic.
+     *
+     * @return A new interval evaluator.
+     */
+    public IntervalEvaluator newIntervalEvaluator() {
+        return new IntervalEvaluator(this);
+    }
+
+    /**
+     * Returns the stack depth required to evaluate the expression.
+     *
+     * @return The maximum number of values on the stack during evaluation.
+     */
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    /**
+     * Returns the number of nodes removed by common subexpression elimination: every repeated
+     * copy of a subexpression is computed only once per evaluation.
+     *
+     * @return The number of removed nodes.
+     */
+    public int getEliminatedNodeCount() {
+        return eliminatedNodeCount;
+    }
+
+    /**
+     * Creates a stack large enough to evaluate this expression, to be reused across evaluations.
+     * It also holds the values of shared subexpressions. A stack must not be shared by threads
+     * that evaluate at the same time.
+     *
+     * @return A new evaluation stack.
+     */
+    public double[] newStack() {
+        return new double[maxStackDepth + tempCount];
+    }
+
+    /**
+     * Returns the number of temporary registers holding shared subexpressions.
+     *
+     * @return The number of temporary registers.
+     */
+    int getTempCount() {
+        return tempCount;
+    }
+
+    /**
+     * Returns the number of results the program leaves on the stack, one per compiled tree.
+     *
+     * @return The number of results.
+     */
+    int getResultCount() {
+        return resultCount;
+    }
+
+    /**
+     * Returns the number of instructions of the program.
+     *
+     * @return The length of the program.
+     */
+    int getInstructionCount() {
+        return code.length;
+    }
+
+    /**
+     * Returns the variable name of every slot. The array is shared and must not be modified.
+     *
+     * @return The variable names, indexed by slot.
+     */
+    String[] getSlotNames() {
+        return slotNames;
+    }
+
+    /**
+     * Returns the root of the optimized DAG the program was written from, the first one if
+     * the program computes several results.
+     *
+     * @return The root node of the expression.
+     */
+    ExpressionNode getRoot() {
+        if (root == null) {
+            root = ExpressionNode.fromProgram(this);
+        }
+        return root;
+    }
+
+    /**
+     * Returns the opcodes of the program. The array is shared and must not be modified.
+     *
+     * @return The opcode of every instruction.
+     */
+    byte[] getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the operands of the program. The array is shared and must not be modified.
+     *
+     * @return The constant, slot or function index of every instruction.
+     */
+    int[] getOperands() {
+        return operands;
+    }
+
+    /**
+     * Returns the constant pool of the program. The array is shared and must not be modified.
+     *
+     * @return The pre-parsed numeric constants.
+     */
+    double[] getConstants() {
+        return constants;
+    }
+
+    /**
+     * Returns the resolved functions of the program. The array is shared and must not be modified.
+     *
+     * @return The functions called by the program.
+     */
+    IAction[] getFunctions() {
+        return functions;
+    }
+
+    /**
+     * Returns the registry names of the functions of the program. The array is shared and must not be modified.
+     *
+     * @return The function names, in the order of {@code getFunctions()}.
+     */
+    String[] getFunctionNames() {
+        return functionNames;
+    }
+
+    /**
+     * Returns the resolved functions of several arguments. The array is shared and must not be modified.
+     *
+     * @return The functions called by the {@code CALL_MULTI} instructions of the program.
+     */
+    IMultiAction[] getMultiFunctions() {
+        return multiFunctions;
+    }
+
+    /**
+     * Returns the registry names of the functions of several arguments. The array is shared and must not be modified.
+     *
+     * @return The function names, in the order of {@code getMultiFunctions()}.
+     */
+    String[] getMultiFunctionNames() {
+        return multiFunctionNames;
+    }
+
+    /**
+     * Wraps the functions of a program in the decorators of {@code ExpressionMetrics} that count
+     * their calls, if metrics are enabled. Only the program is wrapped, so the calls the optimizer
+     * folds into constants while compiling are not counted.
+     *
+     * @param names     The names of the functions.
+     * @param functions The functions of one argument, modified in place.
+     * @return The functions, counting their calls if metrics are enabled.
+     */
+    private static IAction[] counting(String[] names, IAction[] functions) {
+        if (ExpressionMetrics.ENABLED) {
+            for (int i = 0; i < functions.length; i++) {
+                functions[i] = ExpressionMetrics.get().count(names[i], functions[i]);
+            }
+        }
+        return functions;
+    }
+
+    /**
+     * Wraps the functions of several arguments of a program in the decorators of
+     * {@code ExpressionMetrics} that count their calls, if metrics are enabled.
+     *
+     * @param names     The names of the functions.
+     * @param functions The functions of several arguments, modified in place.
+     * @return The functions, counting their calls if metrics are enabled.
+     */
+    private static IMultiAction[] counting(String[] names, IMultiAction[] functions) {
+        if (ExpressionMetrics.ENABLED) {
+            for (int i = 0; i < functions.length; i++) {
+                functions[i] = ExpressionMetrics.get().count(names[i], functions[i]);
+            }
+        }
+        return functions;
+    }
+
+    /**
+     * Divides one operand by another.
+     *
+     * @param dividend The first operand.
+     * @param divisor  The second operand.
+     * @return The quotient of the operands.
+     * @throws ArithmeticException If the divisor is zero.
+     */
+    static double divide(double dividend, double divisor) {
+        if (divisor == 0) {
+            throw new ArithmeticException("Division by 0 is not allowed");
+        }
+        return dividend / divisor;
+    }
+
+    /**
+     * Computes the result of raising a base to a given exponent.
+     *
+     * @param base     The base value.
+     * @param exponent The exponent value.
+     * @return The result of raising the base to the exponent.
+     * @throws IllegalArgumentException If raising a negative number to a fractional power is attempted.
+     */
+    static double power(double base, double exponent) {
+        if (base < 0 && Math.floor(exponent) != exponent) {
+            // Raising a negative number to a fractional power is undefined
+            throw new IllegalArgumentException("Raising a negative number to a fractional power is undefined");
+        }
+
+        return Math.pow(base, exponent);
+    }
+}
@@ -0,0 +1,17 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The CompiledFunction interface represents a compiled mathematical expression that can be
+ * evaluated with variable values given by slot index, in the order of
+ * {@code CompiledExpression.getVariables()}.
+ */
+public interface CompiledFunction {
+
+    /**
+     * Evaluates the expression with the given variable values.
+     *
+     * @param vars The variable values, indexed by slot.
+     * @return The result of the mathematical expression.
+     */
+    double eval(double[] vars);
+}
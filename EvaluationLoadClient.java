@@ -0,0 +1,174 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.io.*;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The EvaluationLoadClient class generates load against an {@code EvaluationServer} and reports
+ * the throughput and the p50, p99 and p999 latencies of the requests. Every connection runs on its
+ * own thread and keeps a fixed number of requests in flight, so pipelining can be measured too.
+ * The latency of a request is measured from flushing it to the server to reading its response.
+ * If any connection fails, the test fails with the errors of all failed connections instead of
+ * reporting the requests of the others.
+ * <p>
+ * Usage: {@code EvaluationLoadClient ADDRESS [CONNECTIONS] [REQUESTS_PER_CONNECTION] [PIPELINE_DEPTH] [FORMULA]}.
+ * Without an address of its own ({@code embedded}), it starts a server on a free local port.
+ */
+public class EvaluationLoadClient {
+
+    /**
+     * Runs the load test.
+     *
+     * @param args The server address and, optionally, the number of connections, the number of
+     *             requests per connection, the pipeline depth and the formula.
+     * @throws Exception If the server cannot be reached or a connection fails.
+     */
+    public static void main(String[] args) throws Exception {
+        String address = args.length > 0 ? args[0] : "embedded";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        String formula = args.length > 4 ? args[4] : "sin(x)*cos(y)+sqrt(x*x+y*y)";
+
+        EvaluationServer embeddedServer = null;
+        SocketAddress socketAddress;
+        if (address.equals("embedded")) {
+            embeddedServer = new EvaluationServer(new MathExpressionEvaluator());
+            socketAddress = embeddedServer.start(EvaluationServer.parseAddress("0"));
+        } else {
+            socketAddress = EvaluationServer.parseAddress(address);
+        }
+
+        long[][] latencies = new long[connections][];
+        Exception[] failures = new Exception[connections];
+        AtomicLong errors = new AtomicLong();
+        Thread[] threads = new Thread[connections];
+        long start = System.nanoTime();
+        try {
+            for (int c = 0; c < connections; c++) {
+                int connection = c;
+                threads[c] = new Thread(() -> {
+                    try {
+                        latencies[connection] = run(socketAddress, formula, requests, depth, connection, errors);
+                    } catch (IOException | RuntimeException e) {
+                        failures[connection] = e;
+                    }
+                });
+                threads[c].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            if (embeddedServer != null) {
+                embeddedServer.close();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        checkFailures(failures);
+
+        // Merge the latencies of all connections and read off the percentiles
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%d connections, pipeline depth %d: %d requests (%d errors) in %.3f s, %.0f requests/s%n",
+                connections, depth, all.length, errors.get(), seconds, all.length / seconds);
+        System.out.printf("Latency: p50 %.1f us, p99 %.1f us, p999 %.1f us, max %.1f us%n",
+                percentile(all, 0.50) / 1e3, percentile(all, 0.99) / 1e3, percentile(all, 0.999) / 1e3,
+                all[all.length - 1] / 1e3);
+    }
+
+    /**
+     * Fails the test if any connection failed, since the latencies of the others alone would
+     * misrepresent the run.
+     *
+     * @param failures The failure of every connection, or null for a connection that succeeded.
+     * @throws IOException If any connection failed; the first failure is its cause and the others are suppressed.
+     */
+    private static void checkFailures(Exception[] failures) throws IOException {
+        Exception[] failed = Arrays.stream(failures).filter(Objects::nonNull).toArray(Exception[]::new);
+        if (failed.length == 0) {
+            return;
+        }
+        IOException report = new IOException(failed.length + " of " + failures.length + " connections failed",
+                failed[0]);
+        for (int i = 1; i < failed.length; i++) {
+            report.addSuppressed(failed[i]);
+        }
+        throw report;
+    }
+
+    /**
+     * Sends the requests of one connection, keeping up to {@code depth} of them in flight.
+     *
+     * @param address  The server address.
+     * @param formula  The formula of every request.
+     * @param requests The number of requests to send.
+     * @param depth    The maximum number of requests in flight.
+     * @param seed     The seed of the random variable values.
+     * @param errors   The counter of error responses.
+     * @return The latency of every request, in nanoseconds.
+     * @throws IOException If the connection fails.
+     */
+    private static long[] run(SocketAddress address, String formula, int requests, int depth, long seed,
+                              AtomicLong errors) throws IOException {
+        long[] latencies = new long[requests];
+        long[] sentAt = new long[requests];
+        Random random = new Random(seed);
+
+        try (SocketChannel channel = SocketChannel.open(address instanceof UnixDomainSocketAddress
+                ? java.net.StandardProtocolFamily.UNIX : java.net.StandardProtocolFamily.INET)) {
+            channel.connect(address);
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+
+            int sent = 0;
+            for (int received = 0; received < requests; received++) {
+                // Fill the pipeline, then send one request for every response
+                int firstNew = sent;
+                while (sent < requests && sent - received < depth) {
+                    out.write(formula + "\tx=" + random.nextDouble() + " y=" + random.nextDouble() + "\n");
+                    sent++;
+                }
+                if (sent > firstNew) {
+                    // The requests only leave the client with the flush
+                    out.flush();
+                    long now = System.nanoTime();
+                    Arrays.fill(sentAt, firstNew, sent, now);
+                }
+
+                String response = in.readLine();
+                if (response == null) {
+                    throw new EOFException("The server closed the connection");
+                }
+                latencies[received] = System.nanoTime() - sentAt[received];
+                if (!response.startsWith("OK")) {
+                    errors.incrementAndGet();
+                }
+            }
+            out.write("QUIT\n");
+            out.flush();
+        }
+        return latencies;
+    }
+
+    /**
+     * Returns the given percentile of sorted values, by the nearest-rank method.
+     *
+     * @param sorted   The values, in ascending order.
+     * @param fraction The percentile as a fraction, such as 0.99.
+     * @return The value at the percentile.
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,436 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The EvaluationServer class is a resident server that evaluates formulas sent over a local TCP
+ * or Unix domain socket, so clients pay for JVM startup and compilation once instead of per request.
+ * Every connection is served on its own (virtual, where the JVM has them) thread, and all
+ * connections share the compiled-expression cache of one {@code MathExpressionEvaluator}.
+ * <p>
+ * The protocol is line-based UTF-8 text. A request is a formula followed by one or more groups
+ * of bindings, separated by tabs; the bindings of a group are separated by spaces:
+ * <pre>
+ *     x*y+1&lt;TAB&gt;x=2 y=3&lt;TAB&gt;x=4 y=5
+ * </pre>
+ * The formula is evaluated once per group (a request without groups is evaluated once with no
+ * variables). The response is {@code OK} followed by one tab-separated result per group, or
+ * {@code ERR}, an error code and a message, separated by tabs. The error code is {@code REQUEST}
+ * for a malformed request, {@code FORMULA} for a formula that cannot be compiled and
+ * {@code EVALUATION} for a group that cannot be evaluated; an unexpected failure is reported as
+ * {@code INTERNAL} and leaves the connection open. Values use the number grammar of
+ * {@code BindingParser}: a point or a comma as the decimal separator, and no {@code NaN},
+ * {@code Infinity} or hexadecimal forms. A request longer than {@value #MAX_REQUEST_LENGTH}
+ * characters is skipped and answered with a {@code REQUEST} error. {@code PING} is answered with
+ * {@code PONG}, and {@code QUIT} closes the connection.
+ * <p>
+ * Requests may be pipelined: a client may send any number of requests without waiting, and the
+ * responses come back in order. Responses are flushed only when no further request is waiting.
+ */
+public final class EvaluationServer implements Closeable {
+    /** The maximum number of characters of a request line, without its line break. */
+    static final int MAX_REQUEST_LENGTH = 1 << 20;
+
+    private final MathExpressionEvaluator evaluator;
+    private final ExecutorService executor;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private Path socketFile;
+
+    /**
+     * Constructs an EvaluationServer that evaluates requests with the given evaluator.
+     *
+     * @param evaluator The evaluator, shared by all connections.
+     */
+    public EvaluationServer(MathExpressionEvaluator evaluator) {
+        this.evaluator = evaluator;
+        this.executor = newThreadPerTaskExecutor();
+    }
+
+    /**
+     * Starts accepting connections on the given address in a background thread.
+     * A Unix domain socket file left over from an earlier run is replaced.
+     *
+     * @param address The TCP or Unix domain socket address to listen on.
+     * @return The address actually bound, which tells the port if port 0 was requested.
+     * @throws IOException If the address cannot be bound.
+     */
+    public SocketAddress start(SocketAddress address) throws IOException {
+        if (address instanceof UnixDomainSocketAddress unixAddress) {
+            socketFile = unixAddress.getPath();
+            Files.deleteIfExists(socketFile);
+            serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            serverChannel = ServerSocketChannel.open();
+        }
+        serverChannel.bind(address);
+
+        acceptor = new Thread(this::acceptConnections, "evaluation-server-acceptor");
+        acceptor.start();
+        return serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Stops accepting connections and closes the connection threads.
+     *
+     * @throws IOException If the server socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        executor.shutdownNow();
+        if (socketFile != null) {
+            Files.deleteIfExists(socketFile);
+        }
+    }
+
+    /**
+     * Waits until the server stops accepting connections.
+     *
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    public void join() throws InterruptedException {
+        if (acceptor != null) {
+            acceptor.join();
+        }
+    }
+
+    /**
+     * Parses a server address: {@code unix:PATH} for a Unix domain socket, {@code HOST:PORT},
+     * or a port number on the loopback interface.
+     *
+     * @param address The text of the address.
+     * @return The socket address.
+     * @throws IllegalArgumentException If the address is malformed.
+     */
+    public static SocketAddress parseAddress(String address) {
+        if (address.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(address.substring("unix:".length()));
+        }
+        try {
+            int separator = address.lastIndexOf(':');
+            if (separator < 0) {
+                return new InetSocketAddress("127.0.0.1", Integer.parseInt(address));
+            }
+            return new InetSocketAddress(address.substring(0, separator),
+                    Integer.parseInt(address.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid address: " + address);
+        }
+    }
+
+    /**
+     * Accepts connections until the server socket is closed, serving each on its own thread.
+     */
+    private void acceptConnections() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel connection = serverChannel.accept();
+                executor.execute(() -> serve(connection));
+            } catch (IOException e) {
+                // The server socket was closed
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of one connection until the client closes it or sends {@code QUIT}.
+     *
+     * @param connection The connection to serve.
+     */
+    private void serve(SocketChannel connection) {
+        try (connection;
+             LineReader in = new LineReader(new InputStreamReader(
+                     Channels.newInputStream(connection), StandardCharsets.UTF_8), MAX_REQUEST_LENGTH);
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                     Channels.newOutputStream(connection), StandardCharsets.UTF_8), 1 << 16)) {
+            StringBuilder response = new StringBuilder();
+            String request;
+            while ((request = in.readLine()) != null) {
+                if (request.equals("QUIT")) {
+                    break;
+                }
+                response.setLength(0);
+                if (in.wasTooLong()) {
+                    error(response, "REQUEST", "The request is longer than " + MAX_REQUEST_LENGTH + " characters");
+                } else {
+                    try {
+                        handle(request, response);
+                    } catch (RuntimeException e) {
+                        // A bug must not take the other requests of the connection down with it
+                        response.setLength(0);
+                        error(response, "INTERNAL", e.toString());
+                    }
+                }
+                out.append(response).append('\n');
+
+                // Answer a whole pipelined batch with a single write
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The client went away; there is nobody to report the error to
+        }
+    }
+
+    /**
+     * Evaluates one request and writes the response, without the line break, to the given builder.
+     *
+     * @param request  The request line.
+     * @param response The builder receiving the response.
+     */
+    void handle(String request, StringBuilder response) {
+        if (request.equals("PING")) {
+            response.append("PONG");
+            return;
+        }
+
+        int end = request.indexOf('\t');
+        String formula = end < 0 ? request : request.substring(0, end);
+        if (formula.isBlank()) {
+            error(response, "REQUEST", "The request has no formula");
+            return;
+        }
+
+        CompiledExpression compiledExpression;
+        try {
+            compiledExpression = evaluator.compile(formula);
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            error(response, "FORMULA", e.getMessage());
+            return;
+        }
+
+        VariableBinder binder = compiledExpression.newBinder();
+        BindingParser parser = new BindingParser(compiledExpression);
+        double[] values = new double[compiledExpression.getSlotCount()];
+        response.append("OK");
+        int group = 0;
+        do {
+            int start = end + 1;
+            end = end < 0 ? -1 : request.indexOf('\t', start);
+            group++;
+            try {
+                binder.clear();
+                if (start > 0) {
+                    bind(parser, values, binder, request, start, end < 0 ? request.length() : end);
+                }
+                response.append('\t').append(evaluate(binder, formula));
+            } catch (BindingParseException e) {
+                response.setLength(0);
+                error(response, "REQUEST", "Group " + group + ": " + e.getMessage());
+                return;
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                response.setLength(0);
+                error(response, "EVALUATION", "Group " + group + ": " + e.getMessage());
+                return;
+            }
+        } while (end >= 0);
+    }
+
+    /**
+     * Evaluates one group of a request, timing it if metrics are enabled.
+     *
+     * @param binder  The binder holding the values of the group.
+     * @param formula The formula of the request.
+     * @return The result of the evaluation.
+     * @throws ArithmeticException      If division by zero is encountered during the calculation.
+     * @throws IllegalArgumentException If a variable has no value or a negative number is raised to a fractional power.
+     */
+    private static double evaluate(VariableBinder binder, String formula) {
+        if (!ExpressionMetrics.ENABLED) {
+            return binder.evaluate();
+        }
+
+        long start = System.nanoTime();
+        try {
+            double result = binder.evaluate();
+            ExpressionMetrics.get().recordEvaluation(formula, System.nanoTime() - start, null);
+            return result;
+        } catch (RuntimeException e) {
+            ExpressionMetrics.get().recordEvaluation(formula, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Binds the {@code name=value} pairs of one group of a request with the number grammar of
+     * {@code BindingParser}. Values may use a comma as the decimal point, and names the
+     * expression does not use are ignored.
+     *
+     * @param parser  The parser of the expression.
+     * @param values  The scratch array of slot values.
+     * @param binder  The binder receiving the values.
+     * @param request The request line.
+     * @param start   The offset of the group.
+     * @param end     The offset after the group.
+     * @throws BindingParseException If a pair is malformed; its offset is counted from the start of the group.
+     */
+    private static void bind(BindingParser parser, double[] values, VariableBinder binder,
+                             String request, int start, int end) {
+        parser.parse(CharBuffer.wrap(request, start, end), values);
+        for (int slot = 0; slot < values.length; slot++) {
+            if (parser.isBound(slot)) {
+                binder.set(slot, values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Writes an error response.
+     *
+     * @param response The builder receiving the response.
+     * @param code     The error code.
+     * @param message  The error message.
+     */
+    private static void error(StringBuilder response, String code, String message) {
+        response.append("ERR\t").append(code).append('\t');
+        // Keep the response on one line and its fields apart
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            response.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+        }
+    }
+
+    /**
+     * The LineReader class reads the lines of a connection like {@code BufferedReader.readLine},
+     * but keeps at most a given number of characters of a line, so a client cannot make the
+     * server buffer an endless line. The rest of a longer line is read and dropped.
+     */
+    private static final class LineReader implements Closeable {
+        private final Reader in;
+        private final int maxLength;
+        private final char[] buffer = new char[1 << 16];
+        private final StringBuilder line = new StringBuilder();
+        private int position;
+        private int limit;
+        private boolean skipLineFeed;
+        private boolean tooLong;
+
+        /**
+         * Constructs a LineReader.
+         *
+         * @param in        The reader of the connection.
+         * @param maxLength The maximum number of characters of a line.
+         */
+        LineReader(Reader in, int maxLength) {
+            this.in = in;
+            this.maxLength = maxLength;
+        }
+
+        /**
+         * Reads the next line, ended by '\n', '\r' or "\r\n".
+         *
+         * @return The line without its line break, cut at the maximum length, or null at the end of the input.
+         * @throws IOException If reading fails.
+         */
+        String readLine() throws IOException {
+            line.setLength(0);
+            tooLong = false;
+            boolean any = false;
+            while (true) {
+                if (position == limit) {
+                    if (!fill()) {
+                        return any ? line.toString() : null;
+                    }
+                }
+                char c = buffer[position++];
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (c == '\n') {
+                        continue;
+                    }
+                }
+                if (c == '\n' || c == '\r') {
+                    skipLineFeed = c == '\r';
+                    return line.toString();
+                }
+                any = true;
+                if (line.length() < maxLength) {
+                    line.append(c);
+                } else {
+                    tooLong = true;
+                }
+            }
+        }
+
+        /**
+         * Checks whether the last line read was longer than the maximum length.
+         *
+         * @return True if the last line was cut.
+         */
+        boolean wasTooLong() {
+            return tooLong;
+        }
+
+        /**
+         * Checks whether more input can be read without blocking.
+         *
+         * @return True if buffered or readable input is waiting.
+         * @throws IOException If the reader fails.
+         */
+        boolean ready() throws IOException {
+            return position < limit || in.ready();
+        }
+
+        /**
+         * Refills the buffer, blocking until input arrives.
+         *
+         * @return False at the end of the input.
+         * @throws IOException If reading fails.
+         */
+        private boolean fill() throws IOException {
+            int count = in.read(buffer, 0, buffer.length);
+            if (count < 0) {
+                return false;
+            }
+            position = 0;
+            limit = count;
+            return true;
+        }
+
+        /**
+         * Closes the underlying reader.
+         *
+         * @throws IOException If the reader cannot be closed.
+         */
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates an executor that runs every task on a new virtual thread if the JVM has them
+     * (Java 21 and later), or on a pooled daemon platform thread otherwise.
+     *
+     * @return The executor for connection threads.
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "evaluation-server-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.*;
+
+/**
+ * The EvaluationSession class evaluates a compiled expression again and again while only a few
+ * variables change between evaluations. It keeps the value of every node of the expression DAG
+ * and knows which nodes depend on which variable, so a changed variable marks just the nodes
+ * on its paths to the root as dirty, and the next evaluation computes only those.
+ * The number of recomputed and reused operations is counted, so the savings can be checked.
+ * An EvaluationSession is stateful and must not be shared between threads.
+ */
+public final class EvaluationSession {
+    private final CompiledExpression expression;
+    // The nodes of the DAG in post-order, so every node comes after its operands
+    private final byte[] opcodes;
+    private final int[] left;
+    private final int[] right;
+    private final IAction[] functions;
+    // The function and the operand nodes of every call with several arguments
+    private final IMultiAction[] multiFunctions;
+    private final int[][] arguments;
+    private final double[] argumentValues;
+    private final double[] nodeValues;
+    // The operation nodes depending on each variable slot, in post-order
+    private final int[][] dependents;
+    private final int[] loadNodes;
+    private final boolean[] dirty;
+    private final boolean[] bound;
+    private final int operationCount;
+    private int boundCount;
+    private int firstDirty;
+    private int dirtyCount;
+    private long recomputedCount;
+    private long reusedCount;
+
+    /**
+     * Constructs an EvaluationSession for the given expression, with no variable bound.
+     *
+     * @param expression The compiled expression to evaluate.
+     */
+    public EvaluationSession(CompiledExpression expression) {
+        this.expression = expression;
+
+        // Number the nodes of the DAG in post-order
+        List<ExpressionNode> nodes = ExpressionNode.postOrder(expression.getRoot());
+        Map<ExpressionNode, Integer> indices = new IdentityHashMap<>();
+        for (ExpressionNode node : nodes) {
+            indices.put(node, indices.size());
+        }
+
+        int size = nodes.size();
+        this.opcodes = new byte[size];
+        this.left = new int[size];
+        this.right = new int[size];
+        this.functions = new IAction[size];
+        this.multiFunctions = new IMultiAction[size];
+        this.arguments = new int[size][];
+        this.nodeValues = new double[size];
+        this.dirty = new boolean[size];
+        this.loadNodes = new int[expression.getSlotCount()];
+        Arrays.fill(loadNodes, -1);
+
+        List<List<Integer>> parents = new ArrayList<>(size);
+        int operations = 0;
+        int maxArity = 0;
+        for (int i = 0; i < size; i++) {
+            ExpressionNode node = nodes.get(i);
+            ExpressionNode[] children = node.getChildren();
+            opcodes[i] = node.getOpcode();
+            functions[i] = node.getFunction();
+            multiFunctions[i] = node.getMultiFunction();
+            left[i] = children.length > 0 ? indices.get(children[0]) : -1;
+            right[i] = children.length > 1 ? indices.get(children[1]) : -1;
+            parents.add(new ArrayList<>(1));
+            for (ExpressionNode child : children) {
+                List<Integer> childParents = parents.get(indices.get(child));
+                // A node used twice by the same parent is recorded once
+                if (childParents.isEmpty() || childParents.get(childParents.size() - 1) != i) {
+                    childParents.add(i);
+                }
+            }
+            if (node.getOpcode() == Opcode.CALL_MULTI) {
+                arguments[i] = new int[children.length];
+                for (int a = 0; a < children.length; a++) {
+                    arguments[i][a] = indices.get(children[a]);
+                }
+                maxArity = Math.max(maxArity, children.length);
+            }
+
+            switch (node.getOpcode()) {
+                case Opcode.CONST -> nodeValues[i] = node.getValue();
+                case Opcode.LOAD -> loadNodes[node.getSlot()] = i;
+                default -> {
+                    dirty[i] = true;
+                    operations++;
+                }
+            }
+        }
+        this.argumentValues = new double[maxArity];
+        this.operationCount = operations;
+        this.dirtyCount = operations;
+        this.firstDirty = 0;
+
+        // Collect every operation above each variable
+        this.dependents = new int[loadNodes.length][];
+        this.bound = new boolean[loadNodes.length];
+        for (int slot = 0; slot < loadNodes.length; slot++) {
+            dependents[slot] = loadNodes[slot] < 0 ? new int[0] : ancestors(loadNodes[slot], parents, size);
+        }
+    }
+
+    /**
+     * Binds a value to the variable with the given name. The subexpressions using the variable
+     * are recomputed by the next evaluation, unless the value did not change.
+     *
+     * @param variable The name of the variable.
+     * @param value    The value of the variable.
+     * @return This session, so calls can be chained.
+     * @throws IllegalArgumentException If the expression does not use the variable.
+     */
+    public EvaluationSession set(String variable, double value) {
+        int slot = expression.slotOf(variable);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Unknown variable: " + variable);
+        }
+        return set(slot, value);
+    }
+
+    /**
+     * Binds a value to the variable in the given slot. The subexpressions using the variable
+     * are recomputed by the next evaluation, unless the value did not change.
+     *
+     * @param slot  The slot index of the variable.
+     * @param value The value of the variable.
+     * @return This session, so calls can be chained.
+     * @throws IndexOutOfBoundsException If the slot does not exist.
+     */
+    public EvaluationSession set(int slot, double value) {
+        if (!bound[slot]) {
+            bound[slot] = true;
+            boundCount++;
+        } else if (Double.doubleToLongBits(value) == Double.doubleToLongBits(valueOf(slot))) {
+            return this;
+        }
+
+        int load = loadNodes[slot];
+        if (load < 0) {
+            // The optimizer removed every use of the variable
+            return this;
+        }
+        nodeValues[load] = value;
+        for (int node : dependents[slot]) {
+            if (!dirty[node]) {
+                dirty[node] = true;
+                dirtyCount++;
+            }
+        }
+        if (dependents[slot].length > 0) {
+            firstDirty = Math.min(firstDirty, dependents[slot][0]);
+        }
+        return this;
+    }
+
+    /**
+     * Binds the values of every variable of the expression from the given map.
+     * Entries for variables the expression does not use are ignored.
+     *
+     * @param bindings A map containing variable names and their corresponding values.
+     * @return This session, so calls can be chained.
+     * @throws IllegalArgumentException If the map has no value for one of the variables.
+     */
+    public EvaluationSession bind(Map<String, Double> bindings) {
+        for (int slot = 0; slot < loadNodes.length; slot++) {
+            Double value = bindings.get(expression.getSlotName(slot));
+            if (value == null) {
+                throw missing(slot);
+            }
+            set(slot, value);
+        }
+        return this;
+    }
+
+    /**
+     * Evaluates the expression, computing only the operations whose operands changed since
+     * the previous evaluation. If an operation fails, it stays dirty and is tried again next time.
+     *
+     * @return The result of the mathematical expression.
+     * @throws IllegalArgumentException If a variable has no value or a negative number is raised to a fractional power.
+     * @throws ArithmeticException      If division by zero is encountered during the calculation.
+     */
+    public double evaluate() {
+        if (boundCount != bound.length) {
+            for (int slot = 0; slot < bound.length; slot++) {
+                if (!bound[slot]) {
+                    throw missing(slot);
+                }
+            }
+        }
+
+        reusedCount += operationCount - dirtyCount;
+        for (int i = firstDirty; dirtyCount > 0; i++) {
+            if (!dirty[i]) {
+                continue;
+            }
+            firstDirty = i;
+            nodeValues[i] = compute(i);
+            dirty[i] = false;
+            dirtyCount--;
+            recomputedCount++;
+        }
+        firstDirty = opcodes.length;
+
+        // The root is the last node in post-order
+        return nodeValues[opcodes.length - 1];
+    }
+
+    /**
+     * Returns the number of operations computed by all evaluations of this session.
+     *
+     * @return The number of recomputed operations.
+     */
+    public long getRecomputedCount() {
+        return recomputedCount;
+    }
+
+    /**
+     * Returns the number of operations whose cached value was reused by all evaluations of this session.
+     *
+     * @return The number of reused operations.
+     */
+    public long getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * Resets the recomputed and reused counters to zero.
+     */
+    public void resetCounters() {
+        recomputedCount = 0;
+        reusedCount = 0;
+    }
+
+    /**
+     * Returns the compiled expression evaluated by this session.
+     *
+     * @return The compiled expression.
+     */
+    public CompiledExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Computes the value of one operation node from the cached values of its operands.
+     *
+     * @param node The index of the node.
+     * @return The value of the node.
+     */
+    private double compute(int node) {
+        double a = nodeValues[left[node]];
+        return switch (opcodes[node]) {
+            case Opcode.ADD -> a + nodeValues[right[node]];
+            case Opcode.SUB -> a - nodeValues[right[node]];
+            case Opcode.MUL -> a * nodeValues[right[node]];
+            case Opcode.DIV -> CompiledExpression.divide(a, nodeValues[right[node]]);
+            case Opcode.POW -> CompiledExpression.power(a, nodeValues[right[node]]);
+            case Opcode.CALL_MULTI -> {
+                int[] operands = arguments[node];
+                for (int i = 0; i < operands.length; i++) {
+                    argumentValues[i] = nodeValues[operands[i]];
+                }
+                yield multiFunctions[node].calculate(argumentValues, 0);
+            }
+            default -> functions[node].calculate(a);
+        };
+    }
+
+    /**
+     * Returns the current value of the variable in the given slot.
+     *
+     * @param slot The slot index of the variable.
+     * @return The bound value, or 0.0 if the variable is not used.
+     */
+    private double valueOf(int slot) {
+        return loadNodes[slot] < 0 ? 0.0 : nodeValues[loadNodes[slot]];
+    }
+
+    /**
+     * Collects every node above the given one.
+     *
+     * @param node    The index of the node.
+     * @param parents The parents of every node.
+     * @param size    The number of nodes.
+     * @return The indices of the ancestors, in ascending (post-)order.
+     */
+    private static int[] ancestors(int node, List<List<Integer>> parents, int size) {
+        boolean[] seen = new boolean[size];
+        Deque<Integer> pending = new ArrayDeque<>(parents.get(node));
+        int count = 0;
+        while (!pending.isEmpty()) {
+            int parent = pending.pop();
+            if (!seen[parent]) {
+                seen[parent] = true;
+                count++;
+                pending.addAll(parents.get(parent));
+            }
+        }
+
+        int[] result = new int[count];
+        for (int i = 0, j = 0; i < size; i++) {
+            if (seen[i]) {
+                result[j++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates the exception reporting a variable without a value.
+     *
+     * @param slot The slot of the variable.
+     * @return The exception to throw.
+     */
+    private IllegalArgumentException missing(int slot) {
+        return new IllegalArgumentException("Please provide a value for variable: " + expression.getSlotName(slot));
+    }
+}
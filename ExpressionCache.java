@@ -0,0 +1,164 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The ExpressionCache class is a bounded, thread-safe cache of compiled expressions keyed by
+ * formula text, with least-recently-used eviction. Formulas that differ only in whitespace
+ * share one entry. Lookups hold the lock only to read or reorder the map; compilation of a
+ * missing formula happens outside of it, so a slow compile never blocks other threads.
+ */
+public class ExpressionCache {
+    /** The number of entries a cache created without an explicit size can hold. */
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private final int maximumSize;
+    private final LinkedHashMap<String, CompiledExpression> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a cache holding at most the given number of compiled expressions.
+     *
+     * @param maximumSize The maximum number of entries.
+     * @throws IllegalArgumentException If the size is not positive.
+     */
+    public ExpressionCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("The cache size must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        // Access order makes the first entry the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+                if (size() > ExpressionCache.this.maximumSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled expression for the given formula, compiling and caching it on a miss.
+     *
+     * @param formula  The formula text.
+     * @param compiler The function compiling the formula as given, so that parse errors point at
+     *                 the text the caller wrote rather than at the normalized key.
+     * @return The compiled expression.
+     */
+    public CompiledExpression get(String formula, Function<String, CompiledExpression> compiler) {
+        String key = normalize(formula);
+        CompiledExpression compiledExpression;
+        synchronized (entries) {
+            compiledExpression = entries.get(key);
+        }
+        if (compiledExpression != null) {
+            hits.increment();
+            return compiledExpression;
+        }
+
+        misses.increment();
+        compiledExpression = compiler.apply(formula);
+        synchronized (entries) {
+            // Another thread may have compiled the same formula in the meantime
+            CompiledExpression existing = entries.putIfAbsent(key, compiledExpression);
+            return existing != null ? existing : compiledExpression;
+        }
+    }
+
+    /**
+     * Removes all entries. The counters are kept.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached expressions.
+     *
+     * @return The current number of entries.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the maximum number of cached expressions.
+     *
+     * @return The maximum number of entries.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of lookups that found a compiled expression.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to compile the formula.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of entries removed to stay within the maximum size.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionCache[size=" + size() + "/" + maximumSize + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * Removes whitespace from the formula, the same characters the parser ignores.
+     *
+     * @param formula The formula text.
+     * @return The formula without whitespace, or the same string if it has none.
+     */
+    static String normalize(String formula) {
+        int length = formula.length();
+        int i = 0;
+        while (i < length && !MathExpressionParser.isWhitespace(formula.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return formula;
+        }
+
+        StringBuilder normalized = new StringBuilder(length);
+        normalized.append(formula, 0, i);
+        for (; i < length; i++) {
+            char c = formula.charAt(i);
+            if (!MathExpressionParser.isWhitespace(c)) {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+}
@@ -0,0 +1,443 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ExpressionMetrics class collects the metrics of parsing, compilation and evaluation:
+ * counters of parses, compilations, evaluations and errors (with {@code ArithmeticException}
+ * counted separately), latency histograms, the number of calls of every function, and the total
+ * time spent on every formula. Compilation is timed on its own, so a cache miss does not show up
+ * as a slow evaluation, and function calls are counted only when a compiled program makes them,
+ * not when the optimizer folds constant calls.
+ * The metrics are shared by the whole JVM, exposed over JMX by {@code registerMBean()} and
+ * printed as text by {@code dump()}.
+ * <p>
+ * Metrics are collected only if the JVM is started with {@code -Dcalculator.metrics=true}.
+ * {@code ENABLED} is a constant, so when it is false the JIT compiler removes the instrumented
+ * branches altogether and compiled programs call functions without their counting wrappers.
+ */
+public final class ExpressionMetrics implements ExpressionMetricsMXBean {
+    /** Whether metrics are collected, read once from the {@code calculator.metrics} system property. */
+    public static final boolean ENABLED = Boolean.getBoolean("calculator.metrics");
+    /** The name the metrics are registered under by {@code registerMBean()}. */
+    public static final String OBJECT_NAME = "com.shpp.p2p.cs.ikopach.assignment11:type=ExpressionMetrics";
+
+    // The number of distinct formulas timed separately; later formulas are only counted in total
+    private static final int MAX_FORMULAS = 1000;
+    private static final int SLOWEST_FORMULAS = 10;
+    private static final ExpressionMetrics INSTANCE = new ExpressionMetrics();
+
+    private final LongAdder parseCount = new LongAdder();
+    private final LongAdder parseErrorCount = new LongAdder();
+    private final LongAdder compileCount = new LongAdder();
+    private final LongAdder compileErrorCount = new LongAdder();
+    private final LongAdder evaluationCount = new LongAdder();
+    private final LongAdder evaluationErrorCount = new LongAdder();
+    private final LongAdder arithmeticErrorCount = new LongAdder();
+    private final LongAdder bytecodeFallbackCount = new LongAdder();
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram compileLatency = new LatencyHistogram();
+    private final LatencyHistogram evaluationLatency = new LatencyHistogram();
+    private final Map<String, LongAdder> functionCalls = new ConcurrentHashMap<>();
+    private final Map<String, FormulaStatistics> formulas = new ConcurrentHashMap<>();
+
+    private ExpressionMetrics() {
+    }
+
+    /**
+     * Returns the metrics of this JVM.
+     *
+     * @return The shared metrics.
+     */
+    public static ExpressionMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, unless they are registered already.
+     *
+     * @throws IllegalStateException If the MBean cannot be registered.
+     */
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register the metrics MBean: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Records one parse.
+     *
+     * @param nanos The time the parse took.
+     * @param error The exception the parse failed with, or null if it succeeded.
+     */
+    void recordParse(long nanos, RuntimeException error) {
+        parseCount.increment();
+        parseLatency.record(nanos);
+        if (error != null) {
+            parseErrorCount.increment();
+        }
+    }
+
+    /**
+     * Records one compilation of parsed formulas into a program.
+     *
+     * @param nanos The time the compilation took.
+     * @param error The exception the compilation failed with, or null if it succeeded.
+     */
+    void recordCompile(long nanos, RuntimeException error) {
+        compileCount.increment();
+        compileLatency.record(nanos);
+        if (error != null) {
+            compileErrorCount.increment();
+        }
+    }
+
+    /**
+     * Records one expression that {@code BytecodeCompiler} could not compile, so it is interpreted.
+     */
+    void recordBytecodeFallback() {
+        bytecodeFallbackCount.increment();
+    }
+
+    /**
+     * Records one evaluation.
+     *
+     * @param formula The formula evaluated, or null if it is not known.
+     * @param nanos   The time the evaluation took.
+     * @param error   The exception the evaluation failed with, or null if it succeeded.
+     */
+    void recordEvaluation(String formula, long nanos, RuntimeException error) {
+        evaluationCount.increment();
+        evaluationLatency.record(nanos);
+        if (error != null) {
+            evaluationErrorCount.increment();
+            if (error instanceof ArithmeticException) {
+                arithmeticErrorCount.increment();
+            }
+        }
+
+        if (formula != null) {
+            FormulaStatistics statistics = formulas.get(formula);
+            if (statistics == null && formulas.size() < MAX_FORMULAS) {
+                statistics = formulas.computeIfAbsent(formula, key -> new FormulaStatistics());
+            }
+            if (statistics != null) {
+                statistics.record(nanos);
+            }
+        }
+    }
+
+    /**
+     * Wraps a function so that its calls are counted under the given name.
+     *
+     * @param name   The name of the function.
+     * @param action The function.
+     * @return The counting function.
+     */
+    IAction count(String name, IAction action) {
+        if (action instanceof CountingAction) {
+            return action;
+        }
+        return new CountingAction(functionCalls.computeIfAbsent(name, key -> new LongAdder()), action);
+    }
+
+    /**
+     * Wraps a function of several arguments so that its calls are counted under the given name.
+     *
+     * @param name   The name of the function.
+     * @param action The function.
+     * @return The counting function.
+     */
+    IMultiAction count(String name, IMultiAction action) {
+        if (action instanceof CountingMultiAction) {
+            return action;
+        }
+        return new CountingMultiAction(functionCalls.computeIfAbsent(name, key -> new LongAdder()), action);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public long getParseCount() {
+        return parseCount.sum();
+    }
+
+    @Override
+    public long getParseErrorCount() {
+        return parseErrorCount.sum();
+    }
+
+    @Override
+    public long getCompileCount() {
+        return compileCount.sum();
+    }
+
+    @Override
+    public long getCompileErrorCount() {
+        return compileErrorCount.sum();
+    }
+
+    @Override
+    public long getEvaluationCount() {
+        return evaluationCount.sum();
+    }
+
+    @Override
+    public long getEvaluationErrorCount() {
+        return evaluationErrorCount.sum();
+    }
+
+    @Override
+    public long getArithmeticErrorCount() {
+        return arithmeticErrorCount.sum();
+    }
+
+    @Override
+    public long getBytecodeFallbackCount() {
+        return bytecodeFallbackCount.sum();
+    }
+
+    @Override
+    public double getParseMeanNanos() {
+        return parseLatency.getMean();
+    }
+
+    @Override
+    public long getParseP50Nanos() {
+        return parseLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getParseP99Nanos() {
+        return parseLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getParseMaxNanos() {
+        return parseLatency.getMax();
+    }
+
+    @Override
+    public double getCompileMeanNanos() {
+        return compileLatency.getMean();
+    }
+
+    @Override
+    public long getCompileP50Nanos() {
+        return compileLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getCompileP99Nanos() {
+        return compileLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getCompileMaxNanos() {
+        return compileLatency.getMax();
+    }
+
+    @Override
+    public double getEvaluationMeanNanos() {
+        return evaluationLatency.getMean();
+    }
+
+    @Override
+    public long getEvaluationP50Nanos() {
+        return evaluationLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getEvaluationP99Nanos() {
+        return evaluationLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getEvaluationP999Nanos() {
+        return evaluationLatency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getEvaluationMaxNanos() {
+        return evaluationLatency.getMax();
+    }
+
+    @Override
+    public Map<String, Long> getFunctionCallCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        functionCalls.forEach((name, calls) -> counts.put(name, calls.sum()));
+        return counts;
+    }
+
+    @Override
+    public String[] getSlowestFormulas() {
+        List<Map.Entry<String, FormulaStatistics>> entries = new ArrayList<>(formulas.entrySet());
+        entries.sort(Comparator.comparingLong(
+                (Map.Entry<String, FormulaStatistics> entry) -> entry.getValue().totalNanos.sum()).reversed());
+
+        String[] lines = new String[Math.min(SLOWEST_FORMULAS, entries.size())];
+        for (int i = 0; i < lines.length; i++) {
+            FormulaStatistics statistics = entries.get(i).getValue();
+            lines[i] = String.format("%.3f ms total, %d evaluations, max %.1f us: %s",
+                    statistics.totalNanos.sum() / 1e6, statistics.count.sum(),
+                    statistics.maxNanos.get() / 1e3, entries.get(i).getKey());
+        }
+        return lines;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("parse: %d (%d errors), mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                getParseCount(), getParseErrorCount(), getParseMeanNanos() / 1e3,
+                getParseP50Nanos() / 1e3, getParseP99Nanos() / 1e3, getParseMaxNanos() / 1e3));
+        text.append(String.format("compile: %d (%d errors), mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                getCompileCount(), getCompileErrorCount(), getCompileMeanNanos() / 1e3,
+                getCompileP50Nanos() / 1e3, getCompileP99Nanos() / 1e3, getCompileMaxNanos() / 1e3));
+        text.append(String.format("evaluate: %d (%d errors, %d arithmetic), mean %.1f us, p50 %.1f us, "
+                        + "p99 %.1f us, p999 %.1f us, max %.1f us%n",
+                getEvaluationCount(), getEvaluationErrorCount(), getArithmeticErrorCount(),
+                getEvaluationMeanNanos() / 1e3, getEvaluationP50Nanos() / 1e3, getEvaluationP99Nanos() / 1e3,
+                getEvaluationP999Nanos() / 1e3, getEvaluationMaxNanos() / 1e3));
+
+        text.append("bytecode fallbacks: ").append(getBytecodeFallbackCount()).append(System.lineSeparator());
+
+        text.append("function calls:");
+        getFunctionCallCounts().forEach((name, calls) -> {
+            if (calls > 0) {
+                text.append(' ').append(name).append('=').append(calls);
+            }
+        });
+        text.append(System.lineSeparator());
+
+        text.append("slowest formulas:").append(System.lineSeparator());
+        for (String line : getSlowestFormulas()) {
+            text.append("  ").append(line).append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void reset() {
+        parseCount.reset();
+        parseErrorCount.reset();
+        compileCount.reset();
+        compileErrorCount.reset();
+        evaluationCount.reset();
+        evaluationErrorCount.reset();
+        arithmeticErrorCount.reset();
+        bytecodeFallbackCount.reset();
+        parseLatency.reset();
+        compileLatency.reset();
+        evaluationLatency.reset();
+        // Keep the counters, the counting functions refer to them
+        functionCalls.values().forEach(LongAdder::reset);
+        formulas.clear();
+    }
+
+    /**
+     * The number of evaluations of one formula and the time they took.
+     */
+    private static final class FormulaStatistics {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+    }
+
+    /**
+     * A function of one argument that counts its calls.
+     */
+    private static final class CountingAction implements IAction {
+        private final LongAdder calls;
+        private final IAction action;
+
+        CountingAction(LongAdder calls, IAction action) {
+            this.calls = calls;
+            this.action = action;
+        }
+
+        @Override
+        public double calculate(double number) {
+            calls.increment();
+            return action.calculate(number);
+        }
+
+        @Override
+        public void calculate(double[] in, double[] out, int n) {
+            calls.add(n);
+            action.calculate(in, out, n);
+        }
+
+        @Override
+        public double derivative(double number) {
+            return action.derivative(number);
+        }
+
+        @Override
+        public void range(double low, double high, double[] bounds) {
+            action.range(low, high, bounds);
+        }
+    }
+
+    /**
+     * A function of several arguments that counts its calls.
+     */
+    private static final class CountingMultiAction implements IMultiAction {
+        private final LongAdder calls;
+        private final IMultiAction action;
+
+        CountingMultiAction(LongAdder calls, IMultiAction action) {
+            this.calls = calls;
+            this.action = action;
+        }
+
+        @Override
+        public int getArity() {
+            return action.getArity();
+        }
+
+        @Override
+        public double calculate(double[] arguments, int offset) {
+            calls.increment();
+            return action.calculate(arguments, offset);
+        }
+
+        @Override
+        public void calculate(double[][] arguments, int offset, double[] out, int n) {
+            calls.add(n);
+            action.calculate(arguments, offset, out, n);
+        }
+
+        @Override
+        public double derivative(double[] arguments, int offset, int index) {
+            return action.derivative(arguments, offset, index);
+        }
+
+        @Override
+        public void range(double[] lows, double[] highs, int offset, double[] bounds) {
+            action.range(lows, highs, offset, bounds);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.Map;
+
+/**
+ * The ExpressionMetricsMXBean interface is the JMX view of {@code ExpressionMetrics}, registered
+ * as {@code com.shpp.p2p.cs.ikopach.assignment11:type=ExpressionMetrics}. Latencies are in nanoseconds.
+ */
+public interface ExpressionMetricsMXBean {
+
+    boolean isEnabled();
+
+    long getParseCount();
+
+    long getParseErrorCount();
+
+    long getCompileCount();
+
+    long getCompileErrorCount();
+
+    long getEvaluationCount();
+
+    long getEvaluationErrorCount();
+
+    long getArithmeticErrorCount();
+
+    /**
+     * Returns the number of expressions that could not be compiled to bytecode and are interpreted.
+     *
+     * @return The number of fallbacks to the interpreter.
+     */
+    long getBytecodeFallbackCount();
+
+    double getParseMeanNanos();
+
+    long getParseP50Nanos();
+
+    long getParseP99Nanos();
+
+    long getParseMaxNanos();
+
+    double getCompileMeanNanos();
+
+    long getCompileP50Nanos();
+
+    long getCompileP99Nanos();
+
+    long getCompileMaxNanos();
+
+    double getEvaluationMeanNanos();
+
+    long getEvaluationP50Nanos();
+
+    long getEvaluationP99Nanos();
+
+    long getEvaluationP999Nanos();
+
+    long getEvaluationMaxNanos();
+
+    /**
+     * Returns the number of calls of every function made by compiled programs.
+     *
+     * @return The call counts by function name.
+     */
+    Map<String, Long> getFunctionCallCounts();
+
+    /**
+     * Returns the formulas with the largest total evaluation time.
+     *
+     * @return One line per formula: the total time, the number of evaluations, the maximum and the formula.
+     */
+    String[] getSlowestFormulas();
+
+    /**
+     * Returns all metrics as text, as printed by the command-line program.
+     *
+     * @return The text dump.
+     */
+    String dump();
+
+    /**
+     * Clears every counter and histogram.
+     */
+    void reset();
+}
@@ -0,0 +1,410 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * The ExpressionNode class is a node of the expression tree that sits between the parser and
+ * the compiled program. A node is a constant, a variable, an arithmetic operation on two nodes
+ * or a function applied to one or more nodes. Nodes are immutable; the optimizer builds new ones.
+ * The passes over a tree walk it with {@code postOrder} or {@code rebuild} rather than by
+ * recursion, so trees of any depth can be compiled.
+ */
+final class ExpressionNode {
+    private final byte opcode;
+    private final double value;
+    private final int slot;
+    private final String name;
+    private final IAction function;
+    private final IMultiAction multiFunction;
+    private final ExpressionNode[] children;
+
+    private ExpressionNode(byte opcode, double value, int slot, String name, IAction function,
+                           IMultiAction multiFunction, ExpressionNode... children) {
+        this.opcode = opcode;
+        this.value = value;
+        this.slot = slot;
+        this.name = name;
+        this.function = function;
+        this.multiFunction = multiFunction;
+        this.children = children;
+    }
+
+    /**
+     * Creates a constant node.
+     *
+     * @param value The value of the constant.
+     * @return The new node.
+     */
+    static ExpressionNode constant(double value) {
+        return new ExpressionNode(Opcode.CONST, value, -1, null, null, null);
+    }
+
+    /**
+     * Creates a variable node.
+     *
+     * @param slot The slot of the variable.
+     * @param name The name of the variable.
+     * @return The new node.
+     */
+    static ExpressionNode variable(int slot, String name) {
+        return new ExpressionNode(Opcode.LOAD, 0.0, slot, name, null, null);
+    }
+
+    /**
+     * Creates an arithmetic operation node.
+     *
+     * @param opcode The opcode of the operation ({@code ADD}, {@code SUB}, {@code MUL}, {@code DIV} or {@code POW}).
+     * @param left   The first operand.
+     * @param right  The second operand.
+     * @return The new node.
+     */
+    static ExpressionNode binary(byte opcode, ExpressionNode left, ExpressionNode right) {
+        return new ExpressionNode(opcode, 0.0, -1, null, null, null, left, right);
+    }
+
+    /**
+     * Creates a function call node.
+     *
+     * @param name     The name of the function.
+     * @param function The resolved function.
+     * @param argument The argument of the function.
+     * @return The new node.
+     */
+    static ExpressionNode call(String name, IAction function, ExpressionNode argument) {
+        return new ExpressionNode(Opcode.CALL, 0.0, -1, name, function, null, argument);
+    }
+
+    /**
+     * Creates a node calling a function of several arguments.
+     *
+     * @param name      The name of the function.
+     * @param function  The resolved function.
+     * @param arguments The arguments of the function, as many as its arity.
+     * @return The new node.
+     */
+    static ExpressionNode callMulti(String name, IMultiAction function, ExpressionNode... arguments) {
+        return new ExpressionNode(Opcode.CALL_MULTI, 0.0, -1, name, null, function, arguments);
+    }
+
+    /**
+     * Creates the call of the function with the given name, resolved in the given registry.
+     *
+     * @param name             The name of the function.
+     * @param functionRegistry The registry used to resolve the function.
+     * @param arguments        The arguments of the call.
+     * @return The new node.
+     * @throws IllegalArgumentException If the function is unknown or takes another number of arguments.
+     */
+    static ExpressionNode resolveCall(String name, FunctionRegistry functionRegistry, ExpressionNode... arguments) {
+        IAction function = functionRegistry.getFunction(name);
+        IMultiAction multiFunction = function == null ? functionRegistry.getMultiFunction(name) : null;
+        if (function == null && multiFunction == null) {
+            throw new IllegalArgumentException("Unknown function: " + name);
+        }
+        int expected = function != null ? 1 : multiFunction.getArity();
+        if (arguments.length != expected) {
+            throw new IllegalArgumentException("The function " + name + " takes " + expected
+                    + (expected == 1 ? " argument, got " : " arguments, got ") + arguments.length);
+        }
+        return function != null ? call(name, function, arguments[0]) : callMulti(name, multiFunction, arguments);
+    }
+
+    /**
+     * Returns a copy of this tree with its functions resolved again in the given registry and its
+     * variables numbered in the given slot table, in order of first use.
+     *
+     * @param functionRegistry The registry used to resolve functions.
+     * @param slots            The slot table to fill, from variable name to slot index.
+     * @return The root of the copy.
+     * @throws IllegalArgumentException If a function is unknown or takes another number of arguments.
+     */
+    ExpressionNode resolve(FunctionRegistry functionRegistry, Map<String, Integer> slots) {
+        // Nodes are rebuilt in post-order, which meets the variables in the order they are written in
+        return rebuild(this, (node, resolved) -> switch (node.opcode) {
+            case Opcode.CONST -> node;
+            case Opcode.LOAD -> variable(slots.computeIfAbsent(node.name, variable -> slots.size()), node.name);
+            case Opcode.CALL, Opcode.CALL_MULTI -> resolveCall(node.name, functionRegistry, resolved);
+            default -> binary(node.opcode, resolved[0], resolved[1]);
+        });
+    }
+
+    /**
+     * Rebuilds a tree from the bottom up: every node is passed to the builder after its children,
+     * together with what the builder returned for them. A node reached through several parents is
+     * rebuilt once for each of them. The path from the root and the rebuilt children are kept in
+     * arrays rather than on the call stack, so the walk handles trees of any depth.
+     *
+     * @param root    The root of the tree.
+     * @param builder The function building the new node from an original node and its rebuilt
+     *                children.
+     * @return What the builder returned for the root.
+     */
+    static ExpressionNode rebuild(ExpressionNode root,
+                                  BiFunction<ExpressionNode, ExpressionNode[], ExpressionNode> builder) {
+        // The nodes on the path from the root, and the index of the next child of each
+        ExpressionNode[] path = new ExpressionNode[16];
+        int[] nextChild = new int[16];
+        // The rebuilt children of the nodes on the path
+        ExpressionNode[] results = new ExpressionNode[16];
+        int resultCount = 0;
+
+        path[0] = root;
+        int depth = 1;
+        while (depth > 0) {
+            ExpressionNode node = path[depth - 1];
+            int next = nextChild[depth - 1]++;
+            if (next < node.children.length) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    nextChild = Arrays.copyOf(nextChild, depth * 2);
+                }
+                path[depth] = node.children[next];
+                nextChild[depth] = 0;
+                depth++;
+            } else {
+                depth--;
+                int count = node.children.length;
+                resultCount -= count;
+                ExpressionNode[] children = count == 0 ? node.children
+                        : Arrays.copyOfRange(results, resultCount, resultCount + count);
+                if (resultCount == results.length) {
+                    results = Arrays.copyOf(results, resultCount * 2);
+                }
+                results[resultCount++] = builder.apply(node, children);
+            }
+        }
+        return results[0];
+    }
+
+    /**
+     * Lists the distinct nodes of the given trees in post-order: every node after its children,
+     * the children from left to right, and a node shared by several parents only once. The path
+     * from the root is kept in arrays rather than on the call stack, so the walk handles trees of
+     * any depth.
+     *
+     * @param roots The roots of the trees.
+     * @return The distinct nodes, every node after all of its children.
+     */
+    static List<ExpressionNode> postOrder(ExpressionNode... roots) {
+        List<ExpressionNode> order = new ArrayList<>();
+        Set<ExpressionNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        // The nodes on the path from the root, and the index of the next child of each
+        ExpressionNode[] path = new ExpressionNode[16];
+        int[] nextChild = new int[16];
+
+        for (ExpressionNode root : roots) {
+            if (!visited.add(root)) {
+                continue;
+            }
+            path[0] = root;
+            nextChild[0] = 0;
+            int depth = 1;
+            while (depth > 0) {
+                ExpressionNode node = path[depth - 1];
+                int next = nextChild[depth - 1]++;
+                if (next == node.children.length) {
+                    order.add(node);
+                    depth--;
+                } else if (visited.add(node.children[next])) {
+                    if (depth == path.length) {
+                        path = Arrays.copyOf(path, depth * 2);
+                        nextChild = Arrays.copyOf(nextChild, depth * 2);
+                    }
+                    path[depth] = node.children[next];
+                    nextChild[depth] = 0;
+                    depth++;
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Rebuilds the DAG a compiled program was written from, by running the program on a stack
+     * of nodes instead of values. A value kept in a temporary register or duplicated on the
+     * stack becomes a node with several parents, and so does every variable. The program is
+     * checked on the way, since it may have been read from a file rather than written by
+     * {@code ProgramWriter}.
+     *
+     * @param program The compiled program; its root is not used.
+     * @return The root of the DAG.
+     * @throws IllegalArgumentException If the program is malformed: an operand is out of range,
+     *                                  the stack underflows or overflows, or the program does not
+     *                                  leave exactly one result.
+     */
+    static ExpressionNode fromProgram(CompiledExpression program) {
+        byte[] code = program.getCode();
+        int[] operands = program.getOperands();
+        double[] constants = program.getConstants();
+        String[] slotNames = program.getSlotNames();
+        IAction[] functions = program.getFunctions();
+        IMultiAction[] multiFunctions = program.getMultiFunctions();
+        ExpressionNode[] stack = new ExpressionNode[program.getMaxStackDepth()];
+        ExpressionNode[] temps = new ExpressionNode[program.getTempCount()];
+        // Like after common subexpression elimination, every variable is a single node
+        ExpressionNode[] variables = new ExpressionNode[slotNames.length];
+        int top = 0;
+
+        for (int i = 0; i < code.length; i++) {
+            int operand = operands[i];
+            // The number of values the instruction takes from the stack, and the number it leaves there
+            int taken = switch (code[i]) {
+                case Opcode.CONST, Opcode.LOAD, Opcode.LOAD_TEMP -> 0;
+                case Opcode.CALL, Opcode.DUP, Opcode.STORE_TEMP -> 1;
+                case Opcode.ADD, Opcode.SUB, Opcode.MUL, Opcode.DIV, Opcode.POW -> 2;
+                case Opcode.CALL_MULTI -> multiFunctions[checkIndex(operand, multiFunctions.length, i)].getArity();
+                default -> throw new IllegalArgumentException("Unknown opcode " + code[i] + " at instruction " + i);
+            };
+            int kept = code[i] == Opcode.STORE_TEMP ? 1 : code[i] == Opcode.DUP ? 2 : 1;
+            if (top < taken) {
+                throw new IllegalArgumentException("Stack underflow at instruction " + i);
+            }
+            if (top - taken + kept > stack.length) {
+                throw new IllegalArgumentException("Stack overflow at instruction " + i);
+            }
+
+            switch (code[i]) {
+                case Opcode.CONST -> stack[top++] = constant(constants[checkIndex(operand, constants.length, i)]);
+                case Opcode.LOAD -> {
+                    checkIndex(operand, slotNames.length, i);
+                    if (variables[operand] == null) {
+                        variables[operand] = variable(operand, slotNames[operand]);
+                    }
+                    stack[top++] = variables[operand];
+                }
+                case Opcode.DUP -> {
+                    stack[top] = stack[top - 1];
+                    top++;
+                }
+                case Opcode.STORE_TEMP -> temps[checkIndex(operand, temps.length, i)] = stack[top - 1];
+                case Opcode.LOAD_TEMP -> {
+                    ExpressionNode temp = temps[checkIndex(operand, temps.length, i)];
+                    if (temp == null) {
+                        throw new IllegalArgumentException("Temporary register " + operand
+                                + " is read before it is written at instruction " + i);
+                    }
+                    stack[top++] = temp;
+                }
+                case Opcode.CALL -> {
+                    checkIndex(operand, functions.length, i);
+                    stack[top - 1] = call(program.getFunctionNames()[operand], functions[operand], stack[top - 1]);
+                }
+                case Opcode.CALL_MULTI -> {
+                    top -= taken;
+                    ExpressionNode[] arguments = Arrays.copyOfRange(stack, top, top + taken);
+                    String name = program.getMultiFunctionNames()[operand];
+                    stack[top++] = callMulti(name, multiFunctions[operand], arguments);
+                }
+                default -> {
+                    top--;
+                    stack[top - 1] = binary(code[i], stack[top - 1], stack[top]);
+                }
+            }
+        }
+
+        if (top != 1) {
+            throw new IllegalArgumentException("The program leaves " + top + " values instead of one result");
+        }
+        return stack[0];
+    }
+
+    /**
+     * Checks that an operand of a program indexes one of its tables.
+     *
+     * @param operand     The operand.
+     * @param length      The length of the table.
+     * @param instruction The index of the instruction.
+     * @return The operand.
+     * @throws IllegalArgumentException If the operand is out of range.
+     */
+    private static int checkIndex(int operand, int length, int instruction) {
+        if (operand < 0 || operand >= length) {
+            throw new IllegalArgumentException("Operand " + operand + " out of range at instruction " + instruction);
+        }
+        return operand;
+    }
+
+    /**
+     * Returns the opcode that computes this node.
+     *
+     * @return The opcode of the node.
+     */
+    byte getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Checks if this node is a constant.
+     *
+     * @return True if the node is a constant, false otherwise.
+     */
+    boolean isConstant() {
+        return opcode == Opcode.CONST;
+    }
+
+    /**
+     * Checks if this node is the constant with the given value.
+     *
+     * @param constant The value to compare with.
+     * @return True if the node is a constant equal to the value, false otherwise.
+     */
+    boolean isConstant(double constant) {
+        return opcode == Opcode.CONST && value == constant;
+    }
+
+    /**
+     * Returns the value of a constant node.
+     *
+     * @return The value of the constant.
+     */
+    double getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the slot of a variable node.
+     *
+     * @return The slot of the variable.
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Returns the name of a variable or function node.
+     *
+     * @return The name of the variable or function.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the function of a function call node.
+     *
+     * @return The resolved function.
+     */
+    IAction getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns the function of a call node with several arguments.
+     *
+     * @return The resolved function.
+     */
+    IMultiAction getMultiFunction() {
+        return multiFunction;
+    }
+
+    /**
+     * Returns the operands of an operation or the arguments of a function call.
+     * The array is shared and must not be modified.
+     *
+     * @return The child nodes, empty for constants and variables.
+     */
+    ExpressionNode[] getChildren() {
+        return children;
+    }
+}
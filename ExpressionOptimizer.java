@@ -0,0 +1,156 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The ExpressionOptimizer class simplifies an expression tree before it is compiled.
+ * It folds operations and function calls whose operands are all constants, removes the
+ * identities {@code x*1}, {@code x+0}, {@code x-0}, {@code x/1} and {@code x^1}, and rewrites
+ * {@code x^2} as {@code x*x}. An operation that would throw (division by zero, a negative base
+ * with a fractional exponent) is never folded, so it still throws when the expression is evaluated.
+ */
+final class ExpressionOptimizer {
+
+    private ExpressionOptimizer() {
+    }
+
+    /**
+     * Returns the simplified form of the given tree.
+     *
+     * @param root The root of the expression tree.
+     * @return The root of the simplified tree.
+     */
+    static ExpressionNode optimize(ExpressionNode root) {
+        // Every node is simplified after its operands
+        return ExpressionNode.rebuild(root, (node, operands) -> switch (node.getOpcode()) {
+            case Opcode.CONST, Opcode.LOAD -> node;
+            case Opcode.CALL -> optimizeCall(node, operands[0]);
+            case Opcode.CALL_MULTI -> optimizeMultiCall(node, operands);
+            default -> optimizeBinary(node.getOpcode(), operands[0], operands[1]);
+        });
+    }
+
+    /**
+     * Simplifies a function call whose argument is already simplified.
+     *
+     * @param node     The original function call node.
+     * @param argument The simplified argument.
+     * @return The simplified function call.
+     */
+    private static ExpressionNode optimizeCall(ExpressionNode node, ExpressionNode argument) {
+        if (argument.isConstant()) {
+            try {
+                // Every registered function is a pure function of its argument
+                return ExpressionNode.constant(node.getFunction().calculate(argument.getValue()));
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                // Keep the call, so the error is raised on evaluation
+            }
+        }
+        return argument == node.getChildren()[0]
+                ? node
+                : ExpressionNode.call(node.getName(), node.getFunction(), argument);
+    }
+
+    /**
+     * Simplifies a call to a function of several arguments whose arguments are already
+     * simplified, folding it if every argument is constant.
+     *
+     * @param node      The original function call node.
+     * @param arguments The simplified arguments.
+     * @return The simplified function call.
+     */
+    private static ExpressionNode optimizeMultiCall(ExpressionNode node, ExpressionNode[] arguments) {
+        ExpressionNode[] children = node.getChildren();
+        double[] values = new double[children.length];
+        boolean constant = true;
+        boolean changed = false;
+        for (int i = 0; i < children.length; i++) {
+            constant &= arguments[i].isConstant();
+            changed |= arguments[i] != children[i];
+            values[i] = arguments[i].getValue();
+        }
+
+        if (constant) {
+            try {
+                return ExpressionNode.constant(node.getMultiFunction().calculate(values, 0));
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                // Keep the call, so the error is raised on evaluation
+            }
+        }
+        return changed ? ExpressionNode.callMulti(node.getName(), node.getMultiFunction(), arguments) : node;
+    }
+
+    /**
+     * Simplifies an arithmetic operation whose operands are already simplified.
+     *
+     * @param opcode The opcode of the operation.
+     * @param left   The simplified first operand.
+     * @param right  The simplified second operand.
+     * @return The simplified operation.
+     */
+    private static ExpressionNode optimizeBinary(byte opcode, ExpressionNode left, ExpressionNode right) {
+        if (left.isConstant() && right.isConstant()) {
+            try {
+                return ExpressionNode.constant(apply(opcode, left.getValue(), right.getValue()));
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                // Keep the operation, so the error is raised on evaluation, as before
+                return ExpressionNode.binary(opcode, left, right);
+            }
+        }
+
+        switch (opcode) {
+            case Opcode.ADD -> {
+                if (right.isConstant(0)) {
+                    return left;
+                }
+                if (left.isConstant(0)) {
+                    return right;
+                }
+            }
+            case Opcode.SUB, Opcode.DIV -> {
+                if (right.isConstant(opcode == Opcode.SUB ? 0 : 1)) {
+                    return left;
+                }
+            }
+            case Opcode.MUL -> {
+                if (right.isConstant(1)) {
+                    return left;
+                }
+                if (left.isConstant(1)) {
+                    return right;
+                }
+            }
+            case Opcode.POW -> {
+                if (right.isConstant(1)) {
+                    return left;
+                }
+                if (right.isConstant(2)) {
+                    // Squaring never throws, and one multiplication is far cheaper than Math.pow
+                    return ExpressionNode.binary(Opcode.MUL, left, left);
+                }
+            }
+            default -> {
+            }
+        }
+        return ExpressionNode.binary(opcode, left, right);
+    }
+
+    /**
+     * Applies an arithmetic operation to two constants.
+     *
+     * @param opcode   The opcode of the operation.
+     * @param operand1 The first operand.
+     * @param operand2 The second operand.
+     * @return The result of the operation.
+     * @throws ArithmeticException      If division by zero is attempted.
+     * @throws IllegalArgumentException If a negative number is raised to a fractional power.
+     */
+    private static double apply(byte opcode, double operand1, double operand2) {
+        return switch (opcode) {
+            case Opcode.ADD -> operand1 + operand2;
+            case Opcode.SUB -> operand1 - operand2;
+            case Opcode.MUL -> operand1 * operand2;
+            case Opcode.DIV -> CompiledExpression.divide(operand1, operand2);
+            case Opcode.POW -> CompiledExpression.power(operand1, operand2);
+            default -> throw new IllegalArgumentException("Unknown opcode: " + opcode);
+        };
+    }
+}
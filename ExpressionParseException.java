@@ -0,0 +1,46 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The ExpressionParseException class reports a formula that cannot be parsed, together with the
+ * offset of the offending character, so callers can point at the error. It is an
+ * {@code IllegalArgumentException}, which is what malformed formulas have always raised.
+ */
+public class ExpressionParseException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final String formula;
+    private final int offset;
+
+    /**
+     * Constructs an ExpressionParseException.
+     *
+     * @param message The description of the error, without its position.
+     * @param formula The formula that could not be parsed.
+     * @param offset  The offset of the error in the formula; the length of the formula for an
+     *                error at its end.
+     */
+    public ExpressionParseException(String message, String formula, int offset) {
+        super(message + " at offset " + offset);
+        this.formula = formula;
+        this.offset = offset;
+    }
+
+    /**
+     * Returns the formula that could not be parsed.
+     *
+     * @return The formula.
+     */
+    public String getFormula() {
+        return formula;
+    }
+
+    /**
+     * Returns the offset of the error in the formula.
+     *
+     * @return The offset of the first character of the offending token, or the length of the
+     *         formula for an error at its end.
+     */
+    public int getOffset() {
+        return offset;
+    }
+}
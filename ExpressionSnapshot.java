@@ -0,0 +1,295 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The ExpressionSnapshot class stores compiled expressions in a compact binary file and loads
+ * them back without parsing or optimizing anything, so a service with many formulas can serve
+ * them right after a restart. For every formula the file holds its program: the opcodes, the
+ * operands, the constant pool, the variable slots and the names of the functions it calls,
+ * which are resolved in the function registry when the file is loaded.
+ * <p>
+ * The file is big-endian and laid out as follows; strings are a length followed by UTF-8 bytes:
+ * <pre>
+ * int    MAGIC, int FORMAT_VERSION, int registry fingerprint, int number of formulas
+ * per formula:
+ *   string formula
+ *   int n, n opcode bytes, n int operands
+ *   int n, n double constants
+ *   int n, n string variable names (by slot)
+ *   int n, n string names of the functions of one argument
+ *   int n, n string names of the functions of several arguments
+ *   int maximum stack depth, int temporary register count, int eliminated node count
+ * long   CRC32 of everything before it
+ * </pre>
+ * A file is loaded with a single memory-mapped read. A file that is missing, was written by
+ * another format version or for a registry with other functions, or fails its checksum is
+ * ignored as a whole, and so is a program that does not pass the checks of
+ * {@code CompiledExpression}; callers then compile the formulas again.
+ */
+public final class ExpressionSnapshot {
+    /** The first four bytes of every snapshot: "EXPR". */
+    public static final int MAGIC = 0x45585052;
+    /** The version of the file format, changed whenever the format or the opcodes change. */
+    public static final int FORMAT_VERSION = 1;
+
+    // The magic number, the version, the fingerprint and the number of formulas
+    private static final int HEADER_SIZE = 16;
+    private static final int CHECKSUM_SIZE = 8;
+
+    private ExpressionSnapshot() {
+    }
+
+    /**
+     * Writes the given compiled expressions to a snapshot file, which is created or replaced.
+     * The file is written under a temporary name and then moved into place, so a reader never
+     * sees a partly written snapshot.
+     *
+     * @param file             The snapshot file.
+     * @param expressions      The compiled expressions, by formula.
+     * @param functionRegistry The registry the expressions were compiled with.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(Path file, Map<String, CompiledExpression> expressions,
+                             FunctionRegistry functionRegistry) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporary)), new CRC32());
+            try (DataOutputStream out = new DataOutputStream(checked)) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(functionRegistry.getFingerprint());
+                out.writeInt(expressions.size());
+                for (Map.Entry<String, CompiledExpression> entry : expressions.entrySet()) {
+                    writeExpression(out, entry.getKey(), entry.getValue());
+                }
+                // The checksum covers everything written before it
+                out.writeLong(checked.getChecksum().getValue());
+            }
+
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Loads the compiled expressions stored in a snapshot file, resolving their functions in the
+     * given registry. If the file is missing or cannot be used, the result is empty.
+     *
+     * @param file             The snapshot file.
+     * @param functionRegistry The registry used to resolve the functions of the expressions.
+     * @return The compiled expressions, by formula.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    public static Map<String, CompiledExpression> read(Path file, FunctionRegistry functionRegistry)
+            throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return new HashMap<>();
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + CHECKSUM_SIZE || size > Integer.MAX_VALUE) {
+                return new HashMap<>();
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION
+                    || buffer.getInt(8) != functionRegistry.getFingerprint()) {
+                return new HashMap<>();
+            }
+
+            int end = (int) size - CHECKSUM_SIZE;
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate().limit(end));
+            if (checksum.getValue() != buffer.getLong(end)) {
+                return new HashMap<>();
+            }
+
+            buffer.position(12).limit(end);
+            try {
+                int count = readCount(buffer, 1);
+                Map<String, CompiledExpression> expressions = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    String formula = readString(buffer);
+                    expressions.put(formula, readExpression(buffer, functionRegistry));
+                }
+                return expressions;
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                // The checksum matched, but the content is not a program this version can run
+                return new HashMap<>();
+            }
+        }
+    }
+
+    /**
+     * Writes the program of one compiled expression.
+     *
+     * @param out        The stream to write to.
+     * @param formula    The formula of the expression.
+     * @param expression The compiled expression.
+     * @throws IOException If writing fails.
+     */
+    private static void writeExpression(DataOutputStream out, String formula, CompiledExpression expression)
+            throws IOException {
+        writeString(out, formula);
+        byte[] code = expression.getCode();
+        int[] operands = expression.getOperands();
+        out.writeInt(code.length);
+        out.write(code);
+        for (int operand : operands) {
+            out.writeInt(operand);
+        }
+
+        double[] constants = expression.getConstants();
+        out.writeInt(constants.length);
+        for (double constant : constants) {
+            out.writeDouble(constant);
+        }
+        writeStrings(out, expression.getSlotNames());
+        writeStrings(out, expression.getFunctionNames());
+        writeStrings(out, expression.getMultiFunctionNames());
+
+        out.writeInt(expression.getMaxStackDepth());
+        out.writeInt(expression.getTempCount());
+        out.writeInt(expression.getEliminatedNodeCount());
+    }
+
+    /**
+     * Reads the program of one compiled expression and resolves its functions.
+     *
+     * @param buffer           The buffer to read from.
+     * @param functionRegistry The registry used to resolve the functions.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the program is malformed or calls an unknown function.
+     */
+    private static CompiledExpression readExpression(ByteBuffer buffer, FunctionRegistry functionRegistry) {
+        byte[] code = new byte[readCount(buffer, 1 + Integer.BYTES)];
+        buffer.get(code);
+        int[] operands = new int[code.length];
+        buffer.asIntBuffer().get(operands);
+        buffer.position(buffer.position() + operands.length * Integer.BYTES);
+
+        double[] constants = new double[readCount(buffer, Double.BYTES)];
+        buffer.asDoubleBuffer().get(constants);
+        buffer.position(buffer.position() + constants.length * Double.BYTES);
+
+        String[] slotNames = readStrings(buffer);
+        if (new HashSet<>(Arrays.asList(slotNames)).size() != slotNames.length) {
+            throw new IllegalArgumentException("Duplicate variable slots");
+        }
+
+        String[] functionNames = readStrings(buffer);
+        IAction[] functions = new IAction[functionNames.length];
+        for (int i = 0; i < functions.length; i++) {
+            functions[i] = functionRegistry.getFunction(functionNames[i]);
+            if (functions[i] == null) {
+                throw new IllegalArgumentException("Unknown function: " + functionNames[i]);
+            }
+        }
+        String[] multiFunctionNames = readStrings(buffer);
+        IMultiAction[] multiFunctions = new IMultiAction[multiFunctionNames.length];
+        for (int i = 0; i < multiFunctions.length; i++) {
+            multiFunctions[i] = functionRegistry.getMultiFunction(multiFunctionNames[i]);
+            if (multiFunctions[i] == null) {
+                throw new IllegalArgumentException("Unknown function: " + multiFunctionNames[i]);
+            }
+        }
+
+        int maxStackDepth = readCount(buffer, 0);
+        int tempCount = readCount(buffer, 0);
+        int eliminatedNodeCount = readCount(buffer, 0);
+        return new CompiledExpression(code, operands, constants, functionNames, functions,
+                multiFunctionNames, multiFunctions, slotNames, maxStackDepth, tempCount, eliminatedNodeCount);
+    }
+
+    /**
+     * Reads a count and checks that it is not negative and that the buffer can hold that many elements.
+     *
+     * @param buffer      The buffer to read from.
+     * @param elementSize The minimum number of bytes of every element, or 0 for a count that is
+     *                    not followed by elements.
+     * @return The count.
+     * @throws IllegalArgumentException If the count is impossible.
+     */
+    private static int readCount(ByteBuffer buffer, int elementSize) {
+        int count = buffer.getInt();
+        if (count < 0 || elementSize > 0 && count > buffer.remaining() / elementSize) {
+            throw new IllegalArgumentException("Invalid count: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Writes a string as its length in bytes followed by its UTF-8 bytes.
+     *
+     * @param out    The stream to write to.
+     * @param string The string.
+     * @throws IOException If writing fails.
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes an array of strings, preceded by its length.
+     *
+     * @param out     The stream to write to.
+     * @param strings The strings.
+     * @throws IOException If writing fails.
+     */
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    /**
+     * Reads a string written by {@code writeString}.
+     *
+     * @param buffer The buffer to read from.
+     * @return The string.
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[readCount(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads an array of strings written by {@code writeStrings}.
+     *
+     * @param buffer The buffer to read from.
+     * @return The strings.
+     */
+    private static String[] readStrings(ByteBuffer buffer) {
+        String[] strings = new String[readCount(buffer, Integer.BYTES)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(buffer);
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,62 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The FastLog2Action class implements the {@code IAction} interface
+ * and provides a fast method to calculate the base-2 logarithm of a given number.
+ * Powers of two give exact results; see {@code FastMath} for the error bound.
+ */
+public class FastLog2Action implements IAction {
+
+    /**
+     * Calculates the base-2 logarithm of the specified number.
+     *
+     * @param number The input value for which the base-2 logarithm is calculated.
+     * @return The base-2 logarithm of the given number.
+     */
+    @Override
+    public double calculate(double number) {
+        return FastMath.log2(number);
+    }
+
+    /**
+     * Calculates the base-2 logarithm of each of the first {@code n} numbers in a loop of its own.
+     *
+     * @param in  The input numbers.
+     * @param out The array receiving the results.
+     * @param n   The number of elements to calculate.
+     */
+    @Override
+    public void calculate(double[] in, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = FastMath.log2(in[i]);
+        }
+    }
+
+    /**
+     * Calculates the derivative of the base-2 logarithm: 1 / (x ln 2).
+     *
+     * @param number The input number.
+     * @return The derivative at the input number.
+     */
+    @Override
+    public double derivative(double number) {
+        return 1 / (number * Math.log(2));
+    }
+
+    /**
+     * Calculates the range of the base-2 logarithm over an interval, widened by twice the error
+     * bound of the fast logarithm, and undefined if the interval reaches below 0.
+     *
+     * @param low    The lower end of the interval.
+     * @param high   The upper end of the interval.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    @Override
+    public void range(double low, double high, double[] bounds) {
+        if (low < 0) {
+            IntervalMath.undefined(bounds);
+        } else {
+            IntervalMath.increasing(FastMath.log2(low), FastMath.log2(high), 6, bounds);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The FastMath class holds the kernels of the fast-math functions: the tangent of an angle in
+ * degrees and the base-2 logarithm. The tangent reduces the angle in degrees, where the reduction
+ * by multiples of 90 is exact, so no radians conversion of the full argument is needed. Only the
+ * reduced angle, at most 45 degrees, is converted to radians and passed to the polynomial kernels
+ * of fdlibm (the library StrictMath is specified by), which are accurate to well below one ulp on
+ * [-pi/4, pi/4]. There are no fast sine and cosine: the JIT compiles {@code Math.sin} and
+ * {@code Math.cos} to intrinsics that these kernels do not beat ({@code FastMathBenchmark}).
+ * <p>
+ * Maximum errors, as the distance in ulps from the StrictMath result with an extra-precise argument
+ * reduction: tangent 6 ulp, base-2 logarithm 3 ulp. The largest errors {@code FastMathAccuracyCheck}
+ * observes are 4 and 2 ulp, so the bounds leave a margin for inputs it does not sample. Multiples
+ * of 45 degrees give exact tangents, and powers of two give exact logarithms.
+ */
+final class FastMath {
+    // pi/180 rounded to double
+    static final double RADIANS_PER_DEGREE = 0.017453292519943295;
+    // Beyond this magnitude, the angle is first reduced with IEEEremainder, which is exact but slower
+    private static final double REDUCTION_LIMIT = 1e15;
+    private static final double QUARTER_TURNS_PER_DEGREE = 1.0 / 90.0;
+    // 1/ln(2) rounded to double
+    private static final double INV_LN2 = 1.4426950408889634;
+    private static final double SQRT2 = 1.4142135623730951;
+    private static final double TWO_54 = 0x1p54;
+
+    // Coefficients of the fdlibm sine kernel
+    private static final double S1 = -1.66666666666666324348e-01;
+    private static final double S2 = 8.33333333332248946124e-03;
+    private static final double S3 = -1.98412698298579493134e-04;
+    private static final double S4 = 2.75573137070700676789e-06;
+    private static final double S5 = -2.50507602534068634195e-08;
+    private static final double S6 = 1.58969099521155010221e-10;
+
+    // Coefficients of the fdlibm cosine kernel
+    private static final double C1 = 4.16666666666666019037e-02;
+    private static final double C2 = -1.38888888888741095749e-03;
+    private static final double C3 = 2.48015872894767294178e-05;
+    private static final double C4 = -2.75573143513906633035e-07;
+    private static final double C5 = 2.08757232129817482790e-09;
+    private static final double C6 = -1.13596475577881948265e-11;
+
+    // Coefficients of the fdlibm logarithm kernel
+    private static final double LG1 = 6.666666666666735130e-01;
+    private static final double LG2 = 3.999999999940941908e-01;
+    private static final double LG3 = 2.857142874366239149e-01;
+    private static final double LG4 = 2.222219843214978396e-01;
+    private static final double LG5 = 1.818357216161805012e-01;
+    private static final double LG6 = 1.531383769920937332e-01;
+    private static final double LG7 = 1.479819860511658591e-01;
+
+    private FastMath() {
+    }
+
+    /**
+     * Calculates the tangent of an angle in degrees. Odd multiples of 90 degrees give an infinity.
+     *
+     * @param degrees The angle in degrees.
+     * @return The tangent of the angle, or NaN for an infinite or NaN angle.
+     */
+    static double tanDegrees(double degrees) {
+        if (degrees == 0) {
+            return degrees;
+        }
+        double reduced = reduce(degrees);
+        double quarterTurns = Math.rint(reduced * QUARTER_TURNS_PER_DEGREE);
+        double r = reduced - quarterTurns * 90.0;
+        boolean odd = ((long) quarterTurns & 1) != 0;
+        if (r == 45.0 || r == -45.0) {
+            return odd == (r > 0) ? -1.0 : 1.0;
+        }
+
+        // The tangent has a period of 180 degrees; in odd quadrants it is minus the cotangent
+        double t = r * RADIANS_PER_DEGREE;
+        double sin = kernelSin(t);
+        double cos = kernelCos(t);
+        return odd ? -cos / sin : sin / cos;
+    }
+
+    /**
+     * Calculates the base-2 logarithm. Powers of two give exact results.
+     *
+     * @param x The input value.
+     * @return The base-2 logarithm, -Infinity for zero, and NaN for negative numbers and NaN.
+     */
+    static double log2(double x) {
+        if (!(x > 0) || x == Double.POSITIVE_INFINITY) {
+            // NaN, negative numbers, zero and infinity
+            return x == 0 ? Double.NEGATIVE_INFINITY : x < 0 ? Double.NaN : x;
+        }
+
+        // Split x into 2^k * m with m in [sqrt(2)/2, sqrt(2))
+        int k = 0;
+        if (x < Double.MIN_NORMAL) {
+            x *= TWO_54;
+            k = -54;
+        }
+        long bits = Double.doubleToRawLongBits(x);
+        k += (int) (bits >>> 52) - Double.MAX_EXPONENT;
+        double m = Double.longBitsToDouble((bits & 0x000FFFFFFFFFFFFFL) | 0x3FF0000000000000L);
+        if (m > SQRT2) {
+            m *= 0.5;
+            k++;
+        }
+
+        // The fdlibm logarithm kernel: log(1 + f) = f - hfsq + s * (hfsq + R)
+        double f = m - 1.0;
+        double s = f / (2.0 + f);
+        double z = s * s;
+        double w = z * z;
+        double t1 = w * (LG2 + w * (LG4 + w * LG6));
+        double t2 = z * (LG1 + w * (LG3 + w * (LG5 + w * LG7)));
+        double hfsq = 0.5 * f * f;
+        double log = f - (hfsq - s * (hfsq + t2 + t1));
+        return k + log * INV_LN2;
+    }
+
+    /**
+     * Reduces a huge angle exactly to the range [-180, 180]. Smaller angles are returned as they are,
+     * because the reduction by quarter turns is exact for them.
+     *
+     * @param degrees The angle in degrees.
+     * @return An angle with the same sine and cosine.
+     */
+    private static double reduce(double degrees) {
+        return Math.abs(degrees) < REDUCTION_LIMIT ? degrees : Math.IEEEremainder(degrees, 360.0);
+    }
+
+    /**
+     * The fdlibm sine kernel for arguments in [-pi/4, pi/4].
+     *
+     * @param x The angle in radians.
+     * @return The sine of the angle.
+     */
+    private static double kernelSin(double x) {
+        double z = x * x;
+        double w = z * z;
+        double v = z * x;
+        // Split the polynomial in two halves that can be computed in parallel
+        double r = S2 + z * (S3 + z * S4) + z * w * (S5 + z * S6);
+        return x + v * (S1 + z * r);
+    }
+
+    /**
+     * The fdlibm cosine kernel for arguments in [-pi/4, pi/4], in the branch-free form that
+     * recovers the rounding error of {@code 1 - x*x/2}.
+     *
+     * @param x The angle in radians.
+     * @return The cosine of the angle.
+     */
+    private static double kernelCos(double x) {
+        double z = x * x;
+        double w = z * z;
+        double r = z * (C1 + z * (C2 + z * C3)) + w * w * (C4 + z * (C5 + z * C6));
+        double hz = 0.5 * z;
+        double a = 1.0 - hz;
+        return a + (((1.0 - a) - hz) + z * r);
+    }
+}
@@ -0,0 +1,165 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The FastMathAccuracyCheck class measures the error of the fast-math functions in ulps across
+ * their input domain. The reference values come from StrictMath; for the tangent, the reduced
+ * angle is converted to radians with extra precision (as a double-double), so the reference does
+ * not suffer from the rounding of pi/180. It exits with status 1 if an error exceeds the bound
+ * documented in {@code FastMath}. The speed is measured by {@code FastMathBenchmark} in the JMH module.
+ */
+public class FastMathAccuracyCheck {
+    private static final int RANDOM_SAMPLES = 2_000_000;
+    // The error bounds documented in FastMath
+    private static final double TAN_BOUND = 6.0;
+    private static final double LOG2_BOUND = 3.0;
+
+    // pi/180 and 1/ln(2) as double-doubles
+    private static final double RADIANS_HI = FastMath.RADIANS_PER_DEGREE;
+    private static final double RADIANS_LO =
+            new BigDecimal("0.01745329251994329576923690768488612713442871888541725456")
+            .subtract(new BigDecimal(RADIANS_HI)).doubleValue();
+    private static final double INV_LN2_HI = 1.4426950408889634;
+    private static final double INV_LN2_LO = new BigDecimal("1.44269504088896340735992468100189213742664595415298593")
+            .subtract(new BigDecimal(INV_LN2_HI)).doubleValue();
+
+    private static boolean failed;
+
+    /**
+     * Runs the accuracy check.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        Random random = new Random(42);
+
+        // Degrees: a dense sweep of the first turns, random angles, and huge angles
+        double[] angles = new double[RANDOM_SAMPLES];
+        for (int i = 0; i < angles.length; i++) {
+            angles[i] = switch (i % 4) {
+                case 0 -> (i / 4) * 0.001 - 500.0;
+                case 1 -> (random.nextDouble() - 0.5) * 720.0;
+                case 2 -> (random.nextDouble() - 0.5) * 2e9;
+                default -> (random.nextDouble() - 0.5) * Math.scalb(1.0, random.nextInt(1000));
+            };
+        }
+        check("tan", FastMath::tanDegrees, FastMathAccuracyCheck::referenceTan, angles, TAN_BOUND);
+
+        // Logarithm: random magnitudes over the whole range, values close to 1, and subnormals
+        double[] numbers = new double[RANDOM_SAMPLES];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = switch (i % 3) {
+                case 0 -> Math.scalb(1.0 + random.nextDouble(), random.nextInt(2046) - 1022);
+                case 1 -> 1.0 + (random.nextDouble() - 0.5) * 0.5;
+                default -> random.nextDouble() * Double.MIN_NORMAL;
+            };
+        }
+        check("log2", FastMath::log2, FastMathAccuracyCheck::referenceLog2, numbers, LOG2_BOUND);
+
+        // Exact values
+        expect("tan(45)", FastMath.tanDegrees(45), 1.0);
+        expect("tan(135)", FastMath.tanDegrees(135), -1.0);
+        expect("tan(180)", FastMath.tanDegrees(180), 0.0);
+        expect("log2(1024)", FastMath.log2(1024), 10.0);
+        expect("log2(2^-1074)", FastMath.log2(Double.MIN_VALUE), -1074.0);
+
+        if (failed) {
+            System.out.println("FAILED: an error exceeds its documented bound");
+            System.exit(1);
+        }
+        System.out.println("OK: every error is within its documented bound");
+    }
+
+    /**
+     * Measures the maximum error of a function over the given inputs.
+     *
+     * @param name      The name of the function.
+     * @param fast      The fast function.
+     * @param reference The reference function.
+     * @param inputs    The inputs to check.
+     * @param bound     The documented maximum error in ulps.
+     */
+    private static void check(String name, DoubleUnaryOperator fast, DoubleUnaryOperator reference,
+                              double[] inputs, double bound) {
+        double maxError = 0;
+        double worstInput = 0;
+        for (double input : inputs) {
+            double expected = reference.applyAsDouble(input);
+            double actual = fast.applyAsDouble(input);
+            if (Double.isInfinite(expected) || Math.abs(expected) > 1e300) {
+                // Poles of the tangent
+                continue;
+            }
+            double error = Math.abs(actual - expected) / Math.ulp(expected);
+            if (!(error <= maxError)) {
+                maxError = error;
+                worstInput = input;
+            }
+        }
+        boolean ok = maxError <= bound;
+        failed |= !ok;
+        System.out.printf("%-5s max error %.3f ulp (bound %.0f) at %s%s%n",
+                name, maxError, bound, worstInput, ok ? "" : "  <-- exceeds the bound");
+    }
+
+    /**
+     * Checks an exact result.
+     *
+     * @param name     The description of the call.
+     * @param actual   The computed value.
+     * @param expected The exact value.
+     */
+    private static void expect(String name, double actual, double expected) {
+        if (actual != expected) {
+            failed = true;
+            System.out.println(name + " = " + actual + ", expected " + expected);
+        }
+    }
+
+    /**
+     * Returns the reduced angle, in [-45, 45] degrees, and stores the number of quarter turns.
+     *
+     * @param degrees      The angle in degrees.
+     * @param quarterTurns Receives the number of quarter turns, modulo 4.
+     * @return The reduced angle in degrees.
+     */
+    private static double reduce(double degrees, int[] quarterTurns) {
+        double reduced = Math.IEEEremainder(degrees, 360.0);
+        double turns = Math.rint(reduced / 90.0);
+        quarterTurns[0] = (int) turns & 3;
+        return reduced - turns * 90.0;
+    }
+
+    private static double referenceTan(double degrees) {
+        int[] quarterTurns = new int[1];
+        double r = reduce(degrees, quarterTurns);
+        double hi = r * RADIANS_HI;
+        double lo = Math.fma(r, RADIANS_HI, -hi) + r * RADIANS_LO;
+        double tan = StrictMath.tan(hi);
+        tan += lo * (1 + tan * tan);
+        return (quarterTurns[0] & 1) == 0 ? tan : -1 / tan;
+    }
+
+    private static double referenceLog2(double x) {
+        int exponent = Math.getExponent(x);
+        if (exponent < Double.MIN_EXPONENT) {
+            exponent = Math.getExponent(x * 0x1p54) - 54;
+        }
+        double m = Math.scalb(x, -exponent);
+        if (m > Math.sqrt(2)) {
+            m /= 2;
+            exponent++;
+        }
+
+        // exponent + log(m) / ln(2), summed in double-double
+        double log = StrictMath.log(m);
+        double productHi = log * INV_LN2_HI;
+        double productLo = Math.fma(log, INV_LN2_HI, -productHi) + log * INV_LN2_LO;
+        double sum = exponent + productHi;
+        double error = exponent == 0 ? 0 : (exponent - sum) + productHi;
+        return sum + (error + productLo);
+    }
+}
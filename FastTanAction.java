@@ -0,0 +1,60 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The FastTanAction class implements the {@code IAction} interface
+ * and provides a fast method to calculate the tangent of an angle in degrees.
+ * The angle is reduced in degrees rather than converted to radians; see {@code FastMath} for the error bound.
+ * Odd multiples of 90 degrees give an infinity.
+ */
+public class FastTanAction implements IAction {
+
+    /**
+     * Calculates the tangent of the specified angle in degrees.
+     *
+     * @param number The angle in degrees for which the tangent is calculated.
+     * @return The tangent of the given angle.
+     */
+    @Override
+    public double calculate(double number) {
+        return FastMath.tanDegrees(number);
+    }
+
+    /**
+     * Calculates the tangent of each of the first {@code n} numbers in a loop of its own.
+     *
+     * @param in  The input numbers.
+     * @param out The array receiving the results.
+     * @param n   The number of elements to calculate.
+     */
+    @Override
+    public void calculate(double[] in, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = FastMath.tanDegrees(in[i]);
+        }
+    }
+
+    /**
+     * Calculates the derivative of the tangent of an angle in degrees: (1 + tan^2) times pi/180.
+     *
+     * @param number The input number.
+     * @return The derivative at the input number.
+     */
+    @Override
+    public double derivative(double number) {
+        double tangent = FastMath.tanDegrees(number);
+        return (1 + tangent * tangent) * FastMath.RADIANS_PER_DEGREE;
+    }
+
+    /**
+     * Calculates the range of the tangent over an interval of angles in degrees, widened by twice
+     * the error bound of the fast tangent, which is not guaranteed to be monotonic.
+     *
+     * @param low    The lower end of the interval.
+     * @param high   The upper end of the interval.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    @Override
+    public void range(double low, double high, double[] bounds) {
+        IntervalMath.tangent(low, high, FastMath.tanDegrees(low), FastMath.tanDegrees(high), 12, bounds);
+    }
+}
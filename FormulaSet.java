@@ -0,0 +1,206 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.*;
+
+/**
+ * The FormulaSet class is an immutable, thread-safe set of formulas compiled together into a
+ * single program over one table of variable slots. Subexpressions are merged across all of the
+ * formulas, so a subterm that many formulas share, such as {@code sqrt(x^2+y^2)}, is computed once
+ * per row; one pass of the program over a row of variable values computes every result. The cost
+ * of a row therefore grows with the number of distinct subterms rather than the number of formulas.
+ * <p>
+ * An error in one formula, such as a division by zero, fails {@code evaluate} for the whole row.
+ * Callers that need the results of the other formulas evaluate that row again with
+ * {@code evaluateEach}, which runs the same program but keeps the errors of the formulas apart.
+ */
+public final class FormulaSet {
+    private final List<String> formulas;
+    private final CompiledExpression program;
+
+    /**
+     * Constructs a FormulaSet from the expression trees of the given formulas.
+     *
+     * @param formulas  The formulas, in the order of their results.
+     * @param roots     The expression tree of every formula.
+     * @param slotNames The variable names, indexed by slot, shared by all of the trees.
+     */
+    FormulaSet(List<String> formulas, ExpressionNode[] roots, String[] slotNames) {
+        this.formulas = List.copyOf(formulas);
+        this.program = new CompiledExpression(roots, slotNames);
+    }
+
+    /**
+     * Returns the number of formulas, which is the number of results of every evaluation.
+     *
+     * @return The number of formulas.
+     */
+    public int size() {
+        return formulas.size();
+    }
+
+    /**
+     * Returns the formula whose result is at the given index.
+     *
+     * @param index The index of the formula.
+     * @return The formula.
+     * @throws IndexOutOfBoundsException If there is no such formula.
+     */
+    public String getFormula(int index) {
+        return formulas.get(index);
+    }
+
+    /**
+     * Returns the formulas, in the order of their results.
+     *
+     * @return An unmodifiable list of formulas.
+     */
+    public List<String> getFormulas() {
+        return formulas;
+    }
+
+    /**
+     * Returns the unique variable names used by any of the formulas, in order of first use.
+     *
+     * @return An unmodifiable set of variable names.
+     */
+    public Set<String> getVariables() {
+        return program.getVariables();
+    }
+
+    /**
+     * Returns the number of variable slots, which is the length of the values array
+     * expected by {@code evaluate(double[])}.
+     *
+     * @return The number of distinct variables.
+     */
+    public int getSlotCount() {
+        return program.getSlotCount();
+    }
+
+    /**
+     * Returns the slot assigned to the given variable at compile time.
+     *
+     * @param variable The name of the variable.
+     * @return The slot index of the variable, or -1 if no formula uses it.
+     */
+    public int slotOf(String variable) {
+        return program.slotOf(variable);
+    }
+
+    /**
+     * Returns the name of the variable stored in the given slot.
+     *
+     * @param slot The slot index.
+     * @return The name of the variable.
+     * @throws IndexOutOfBoundsException If the slot does not exist.
+     */
+    public String getSlotName(int slot) {
+        return program.getSlotName(slot);
+    }
+
+    /**
+     * Creates a stack large enough to evaluate the set, to be reused across evaluations.
+     * A stack must not be shared by threads that evaluate at the same time.
+     *
+     * @return A new evaluation stack.
+     */
+    public double[] newStack() {
+        return program.newStack();
+    }
+
+    /**
+     * Evaluates every formula on a caller-supplied stack. A caller that keeps its stack (one per
+     * thread), its values array and its results array evaluates the set without allocating anything.
+     *
+     * @param values  The variable values, indexed by slot.
+     * @param stack   The evaluation stack, created by {@code newStack()}.
+     * @param results The array receiving the result of every formula, in the order of the formulas.
+     * @throws ArithmeticException      If division by zero is encountered in one of the formulas.
+     * @throws IllegalArgumentException If a negative number is raised to a fractional power in one of the formulas.
+     */
+    public void evaluate(double[] values, double[] stack, double[] results) {
+        program.evaluate(values, stack);
+        // The result of formula i is left at stack position i
+        System.arraycopy(stack, 0, results, 0, formulas.size());
+    }
+
+    /**
+     * Evaluates every formula on its own terms: a formula that fails, or uses a variable without
+     * a value, gets NaN and its error, and the other formulas still get their results. The shared
+     * program runs once, tracking which values every error reaches, so this is slower than
+     * {@code evaluate} and meant for the rows where {@code evaluate} fails or values are missing.
+     *
+     * @param values  The variable values, indexed by slot.
+     * @param bound   Which variable slots have a value, indexed by slot.
+     * @param stack   The evaluation stack, created by {@code newStack()}.
+     * @param results The array receiving the result of every formula, in the order of the formulas.
+     * @param errors  The array receiving the error of every formula, or null for a formula that succeeded.
+     * @return The number of formulas that failed.
+     */
+    public int evaluateEach(double[] values, boolean[] bound, double[] stack, double[] results,
+                            RuntimeException[] errors) {
+        RuntimeException[] stackErrors = new RuntimeException[stack.length];
+        program.evaluateEach(values, bound, stack, stackErrors);
+        int failed = 0;
+        for (int i = 0; i < formulas.size(); i++) {
+            results[i] = stack[i];
+            errors[i] = stackErrors[i];
+            failed += errors[i] != null ? 1 : 0;
+        }
+        return failed;
+    }
+
+    /**
+     * Evaluates every formula with variable values given by slot index.
+     *
+     * @param values The variable values, indexed by slot.
+     * @return The result of every formula, in the order of the formulas.
+     * @throws ArithmeticException      If division by zero is encountered in one of the formulas.
+     * @throws IllegalArgumentException If a negative number is raised to a fractional power in one of the formulas.
+     */
+    public double[] evaluate(double[] values) {
+        double[] results = new double[formulas.size()];
+        evaluate(values, newStack(), results);
+        return results;
+    }
+
+    /**
+     * Evaluates every formula with the variable values in the given map.
+     *
+     * @param bindings A map containing variable names and their corresponding values.
+     * @return The result of every formula, in the order of the formulas.
+     * @throws IllegalArgumentException If the map has no value for one of the variables or a
+     *                                  negative number is raised to a fractional power.
+     * @throws ArithmeticException      If division by zero is encountered in one of the formulas.
+     */
+    public double[] evaluate(Map<String, Double> bindings) {
+        double[] values = new double[program.getSlotCount()];
+        for (int slot = 0; slot < values.length; slot++) {
+            Double value = bindings.get(program.getSlotName(slot));
+            if (value == null) {
+                throw new IllegalArgumentException("Please provide a value for variable: " + program.getSlotName(slot));
+            }
+            values[slot] = value;
+        }
+        return evaluate(values);
+    }
+
+    /**
+     * Returns the number of instructions run for every row, for all of the formulas together.
+     *
+     * @return The length of the shared program.
+     */
+    public int getInstructionCount() {
+        return program.getInstructionCount();
+    }
+
+    /**
+     * Returns the number of nodes removed by common subexpression elimination, within and
+     * across the formulas: every repeated copy of a subexpression is computed only once per row.
+     *
+     * @return The number of removed nodes.
+     */
+    public int getEliminatedNodeCount() {
+        return program.getEliminatedNodeCount();
+    }
+}
@@ -0,0 +1,18 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The FunctionProvider interface lets a library add functions to every {@code FunctionRegistry}
+ * made by {@code FunctionRegistry.create}, which the default evaluator and parser use.
+ * Implementations are found with {@code java.util.ServiceLoader}: list the implementing class in
+ * {@code META-INF/services/com.shpp.p2p.cs.ikopach.assignment11.FunctionProvider} of a jar on the
+ * class path, and give it a public no-argument constructor.
+ */
+public interface FunctionProvider {
+
+    /**
+     * Registers the functions of this provider.
+     *
+     * @param registry The registry to add the functions to.
+     */
+    void registerFunctions(FunctionRegistry registry);
+}
@@ -1,29 +1,86 @@
 package com.shpp.p2p.cs.ikopach.assignment11;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 /**
  * The FunctionRegistry class manages a registry of mathematical functions
  * and provides methods to check if a function is registered, retrieve a function by name,
  * register new functions, and execute a registered function with a given input.
+ * Functions take one argument ({@code IAction}) or several ({@code IMultiAction}). A registry
+ * made by a constructor holds the built-in functions; one made by {@code create} also holds the
+ * functions of every {@code FunctionProvider} found by {@code ServiceLoader}, whose class path
+ * scan runs once per JVM. Functions can be registered at any time, from any thread.
+ * <p>
+ * Function names are reserved: a formula cannot use them as variable names. This matters for
+ * min, max, pow and hypot, which became built-in functions after formulas could already use
+ * those names as variables. Such formulas must rename the variables; the parser rejects them
+ * with an error naming the function rather than reading them as calls.
  */
 public class FunctionRegistry {
     private final Map<String, IAction> functionMap;
+    private final Map<String, IMultiAction> multiFunctionMap;
+    private volatile int version;
 
     /**
-     * Constructs a new FunctionRegistry and registers default mathematical functions.
+     * Constructs a new FunctionRegistry and registers the built-in mathematical functions,
+     * without the functions of the providers on the class path.
      */
     public FunctionRegistry() {
-        this.functionMap = new HashMap<>();
+        this(false);
+    }
+
+    /**
+     * Constructs a new FunctionRegistry and registers the built-in mathematical functions,
+     * optionally with the fast-math versions of tan and log2, without the functions of the
+     * providers on the class path. The fast versions differ from the strict ones by a few ulps
+     * at most; see {@code FastMath} for the bounds.
+     *
+     * @param fastMath {@code true} to register the fast-math functions.
+     */
+    public FunctionRegistry(boolean fastMath) {
+        this.functionMap = new ConcurrentHashMap<>();
+        this.multiFunctionMap = new ConcurrentHashMap<>();
         // Function registration
         registerFunction("sin", new SinAction());
         registerFunction("cos", new CosAction());
-        registerFunction("tan", new TanAction());
+        registerFunction("tan", fastMath ? new FastTanAction() : new TanAction());
         registerFunction("atan", new AtanAction());
         registerFunction("log10", new Log10Action());
-        registerFunction("log2", new Log2Action());
+        registerFunction("log2", fastMath ? new FastLog2Action() : new Log2Action());
         registerFunction("sqrt", new SqrtAction());
+        registerFunction("min", new MinAction());
+        registerFunction("max", new MaxAction());
+        registerFunction("pow", new PowAction());
+        registerFunction("hypot", new HypotAction());
+    }
+
+    /**
+     * Creates a FunctionRegistry with the built-in mathematical functions and the functions of
+     * every {@code FunctionProvider} on the class path.
+     *
+     * @return The new registry.
+     */
+    public static FunctionRegistry create() {
+        return create(false);
+    }
+
+    /**
+     * Creates a FunctionRegistry with the built-in mathematical functions, optionally with the
+     * fast-math versions of tan and log2, and the functions of every {@code FunctionProvider}
+     * on the class path. The providers are registered once the registry is fully constructed.
+     *
+     * @param fastMath {@code true} to register the fast-math functions.
+     * @return The new registry.
+     */
+    public static FunctionRegistry create(boolean fastMath) {
+        FunctionRegistry registry = new FunctionRegistry(fastMath);
+        for (FunctionProvider provider : Providers.ALL) {
+            provider.registerFunctions(registry);
+        }
+        return registry;
     }
 
     /**
@@ -33,26 +90,148 @@ public class FunctionRegistry {
      * @return {@code true} if the function is registered, {@code false} otherwise.
      */
     public boolean containsFunction(String name) {
-        return functionMap.containsKey(name);
+        return functionMap.containsKey(name) || multiFunctionMap.containsKey(name);
     }
 
     /**
      * Retrieves a registered function by its name.
      *
      * @param name The name of the function to retrieve.
-     * @return The {@code IAction} instance representing the requested function.
+     * @return The {@code IAction} instance representing the requested function,
+     *         or null if there is no function of one argument with this name.
      */
     public IAction getFunction(String name) {
         return functionMap.get(name);
     }
 
     /**
-     * Registers a new function with the specified name and associated action.
+     * Retrieves a registered function of several arguments by its name.
+     *
+     * @param name The name of the function to retrieve.
+     * @return The {@code IMultiAction} instance representing the requested function,
+     *         or null if there is no function of several arguments with this name.
+     */
+    public IMultiAction getMultiFunction(String name) {
+        return multiFunctionMap.get(name);
+    }
+
+    /**
+     * Returns the names of all registered functions.
+     *
+     * @return An unmodifiable snapshot of the function names.
+     */
+    public Set<String> getFunctionNames() {
+        Set<String> names = new TreeSet<>(functionMap.keySet());
+        names.addAll(multiFunctionMap.keySet());
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Registers a new function of one argument with the specified name and associated action,
+     * replacing any function with the same name.
      *
      * @param functionName The name of the function to register.
      * @param action       The {@code IAction} instance representing the function's action.
+     * @throws IllegalArgumentException If the name is not a valid function name.
      */
-    private void registerFunction(String functionName, IAction action) {
+    public synchronized void registerFunction(String functionName, IAction action) {
+        checkName(functionName);
+        multiFunctionMap.remove(functionName);
         functionMap.put(functionName, action);
+        version++;
+    }
+
+    /**
+     * Registers a new function of several arguments with the specified name and associated action,
+     * replacing any function with the same name.
+     *
+     * @param functionName The name of the function to register.
+     * @param action       The {@code IMultiAction} instance representing the function's action.
+     * @throws IllegalArgumentException If the name is not a valid function name or the action
+     *                                  takes fewer than 2 arguments.
+     */
+    public synchronized void registerFunction(String functionName, IMultiAction action) {
+        checkName(functionName);
+        if (action.getArity() < 2) {
+            throw new IllegalArgumentException("A function of several arguments needs at least 2, "
+                    + functionName + " takes " + action.getArity());
+        }
+        functionMap.remove(functionName);
+        multiFunctionMap.put(functionName, action);
+        version++;
+    }
+
+    /**
+     * Returns a number that changes whenever a function is registered, so that compiled
+     * expressions depending on the previous set of functions can be discarded.
+     *
+     * @return The version of the function set.
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a checksum of the registered functions: their names, their numbers of arguments and
+     * the classes implementing them. A compiled program depends on the functions it was compiled
+     * with, down to the constants folded from their calls, so a stored program is only reused
+     * with a registry of the same fingerprint. Functions defined by lambdas are identified by
+     * the class defining the lambda.
+     *
+     * @return The fingerprint of the function set.
+     */
+    int getFingerprint() {
+        CRC32 checksum = new CRC32();
+        for (String name : getFunctionNames()) {
+            IAction function = functionMap.get(name);
+            IMultiAction multiFunction = multiFunctionMap.get(name);
+            Object action = function != null ? function : multiFunction;
+            if (action == null) {
+                // Replaced by a function of the other kind in the meantime
+                continue;
+            }
+            String implementation = action.getClass().getName();
+            int lambda = implementation.indexOf("$$Lambda");
+            String entry = name + '/' + (function != null ? 1 : multiFunction.getArity()) + '='
+                    + (lambda < 0 ? implementation : implementation.substring(0, lambda)) + ';';
+            checksum.update(entry.getBytes(StandardCharsets.UTF_8));
+        }
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * The function providers on the class path, loaded on first use. Scanning the class path
+     * is slow, and its result does not change while the JVM runs.
+     */
+    private static final class Providers {
+        static final List<FunctionProvider> ALL = load();
+
+        /**
+         * Finds the function providers on the class path.
+         *
+         * @return An unmodifiable list of the providers.
+         */
+        private static List<FunctionProvider> load() {
+            List<FunctionProvider> providers = new ArrayList<>();
+            ServiceLoader.load(FunctionProvider.class).forEach(providers::add);
+            return Collections.unmodifiableList(providers);
+        }
+    }
+
+    /**
+     * Checks that a name can be written in a formula as a function name.
+     *
+     * @param functionName The name to check.
+     * @throws IllegalArgumentException If the name does not start with a letter or has other
+     *                                  characters than letters and digits.
+     */
+    private static void checkName(String functionName) {
+        boolean valid = !functionName.isEmpty() && Character.isLetter(functionName.charAt(0));
+        for (int i = 1; i < functionName.length() && valid; i++) {
+            valid = Character.isLetterOrDigit(functionName.charAt(i));
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid function name: " + functionName);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,277 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The GradientEvaluator class computes the value of a compiled expression together with its
+ * partial derivatives by every variable, by reverse-mode automatic differentiation. A forward
+ * pass runs the program and records the value of every instruction on a tape; a backward pass
+ * then walks the tape in reverse and accumulates the derivative of the result by every value,
+ * so a gradient costs about as much as two evaluations, however many variables there are,
+ * instead of the 2N+1 evaluations of central differences.
+ * <p>
+ * The tape is laid out once, when the evaluator is created: the operands of every instruction
+ * are resolved by simulating the stack of the program, so {@code DUP} and the temporary registers
+ * of shared subexpressions simply refer to the same tape entry. Repeated gradient calls reuse
+ * the tape and allocate nothing. Functions are differentiated by {@code IAction.derivative} and
+ * {@code IMultiAction.derivative}; the angle functions take degrees, so their derivatives carry
+ * the factor pi/180.
+ * A GradientEvaluator keeps its tape between calls and must not be shared between threads.
+ */
+public final class GradientEvaluator {
+    private final CompiledExpression expression;
+    // One tape entry per value-producing instruction, in program order
+    private final byte[] opcodes;
+    private final int[] operands;
+    private final int[] left;
+    private final int[] right;
+    private final int[][] arguments;
+    private final int root;
+    private final double[] tapeValues;
+    private final double[] adjoints;
+    private final double[] argumentValues;
+    private final double[] values;
+    private final double[] gradient;
+
+    /**
+     * Constructs a GradientEvaluator for the given expression and lays out its tape.
+     *
+     * @param expression The compiled expression to differentiate.
+     */
+    public GradientEvaluator(CompiledExpression expression) {
+        this.expression = expression;
+        byte[] code = expression.getCode();
+        int[] codeOperands = expression.getOperands();
+        IMultiAction[] multiFunctions = expression.getMultiFunctions();
+
+        this.opcodes = new byte[code.length];
+        this.operands = new int[code.length];
+        this.left = new int[code.length];
+        this.right = new int[code.length];
+        this.arguments = new int[code.length][];
+
+        // Run the program on a stack of tape indices instead of values
+        int[] stack = new int[expression.getMaxStackDepth()];
+        int[] temps = new int[expression.getTempCount()];
+        int top = 0;
+        int size = 0;
+        int maxArity = 0;
+        for (int i = 0; i < code.length; i++) {
+            switch (code[i]) {
+                case Opcode.DUP -> {
+                    stack[top] = stack[top - 1];
+                    top++;
+                    continue;
+                }
+                case Opcode.STORE_TEMP -> {
+                    temps[codeOperands[i]] = stack[top - 1];
+                    continue;
+                }
+                case Opcode.LOAD_TEMP -> {
+                    stack[top++] = temps[codeOperands[i]];
+                    continue;
+                }
+                case Opcode.CONST, Opcode.LOAD -> left[size] = -1;
+                case Opcode.CALL -> left[size] = stack[--top];
+                case Opcode.CALL_MULTI -> {
+                    int arity = multiFunctions[codeOperands[i]].getArity();
+                    top -= arity;
+                    arguments[size] = Arrays.copyOfRange(stack, top, top + arity);
+                    maxArity = Math.max(maxArity, arity);
+                }
+                default -> {
+                    right[size] = stack[--top];
+                    left[size] = stack[--top];
+                }
+            }
+            opcodes[size] = code[i];
+            operands[size] = codeOperands[i];
+            stack[top++] = size++;
+        }
+
+        this.root = stack[0];
+        this.tapeValues = new double[size];
+        this.adjoints = new double[size];
+        this.argumentValues = new double[maxArity];
+        this.values = new double[expression.getSlotCount()];
+        this.gradient = new double[values.length];
+    }
+
+    /**
+     * Evaluates the expression and its gradient for the given variable values. Nothing is allocated.
+     *
+     * @param values   The variable values, indexed by slot.
+     * @param gradient The array receiving the partial derivative by every variable, indexed by slot.
+     * @return The result of the mathematical expression.
+     * @throws ArithmeticException      If division by zero is encountered during the calculation.
+     * @throws IllegalArgumentException If a negative number is raised to a fractional power.
+     */
+    public double evaluate(double[] values, double[] gradient) {
+        forward(values);
+        backward(gradient);
+        return tapeValues[root];
+    }
+
+    /**
+     * Evaluates the expression and its gradient for the variable values in the given map.
+     *
+     * @param bindings A map containing variable names and their corresponding values.
+     * @param gradient The map receiving the partial derivative by every variable of the expression.
+     * @return The result of the mathematical expression.
+     * @throws IllegalArgumentException If the map has no value for one of the variables or a
+     *                                  negative number is raised to a fractional power.
+     * @throws ArithmeticException      If division by zero is encountered during the calculation.
+     */
+    public double evaluate(Map<String, Double> bindings, Map<String, Double> gradient) {
+        for (int slot = 0; slot < values.length; slot++) {
+            Double value = bindings.get(expression.getSlotName(slot));
+            if (value == null) {
+                throw new IllegalArgumentException("Please provide a value for variable: "
+                        + expression.getSlotName(slot));
+            }
+            values[slot] = value;
+        }
+
+        double result = evaluate(values, this.gradient);
+        for (int slot = 0; slot < values.length; slot++) {
+            gradient.put(expression.getSlotName(slot), this.gradient[slot]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the compiled expression differentiated by this evaluator.
+     *
+     * @return The compiled expression.
+     */
+    public CompiledExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Runs the program and records the value of every tape entry.
+     *
+     * @param values The variable values, indexed by slot.
+     */
+    private void forward(double[] values) {
+        double[] constants = expression.getConstants();
+        IAction[] functions = expression.getFunctions();
+        IMultiAction[] multiFunctions = expression.getMultiFunctions();
+        double[] v = tapeValues;
+
+        for (int i = 0; i < v.length; i++) {
+            v[i] = switch (opcodes[i]) {
+                case Opcode.CONST -> constants[operands[i]];
+                case Opcode.LOAD -> values[operands[i]];
+                case Opcode.ADD -> v[left[i]] + v[right[i]];
+                case Opcode.SUB -> v[left[i]] - v[right[i]];
+                case Opcode.MUL -> v[left[i]] * v[right[i]];
+                case Opcode.DIV -> CompiledExpression.divide(v[left[i]], v[right[i]]);
+                case Opcode.POW -> CompiledExpression.power(v[left[i]], v[right[i]]);
+                case Opcode.CALL_MULTI -> multiFunctions[operands[i]].calculate(gather(i), 0);
+                default -> functions[operands[i]].calculate(v[left[i]]);
+            };
+        }
+    }
+
+    /**
+     * Walks the tape backwards, accumulating the derivative of the result by every tape entry
+     * (its adjoint) and, at the variable loads, by every variable.
+     *
+     * @param gradient The array receiving the partial derivative by every variable, indexed by slot.
+     */
+    private void backward(double[] gradient) {
+        IAction[] functions = expression.getFunctions();
+        IMultiAction[] multiFunctions = expression.getMultiFunctions();
+        double[] v = tapeValues;
+        double[] adjoint = adjoints;
+        Arrays.fill(adjoint, 0.0);
+        Arrays.fill(gradient, 0, expression.getSlotCount(), 0.0);
+        adjoint[root] = 1.0;
+
+        for (int i = root; i >= 0; i--) {
+            double a = adjoint[i];
+            // Entries the result does not depend on pass nothing on, not even 0 * Infinity
+            if (a == 0.0) {
+                continue;
+            }
+            switch (opcodes[i]) {
+                case Opcode.CONST -> {
+                }
+                case Opcode.LOAD -> gradient[operands[i]] += a;
+                case Opcode.ADD -> {
+                    adjoint[left[i]] += a;
+                    adjoint[right[i]] += a;
+                }
+                case Opcode.SUB -> {
+                    adjoint[left[i]] += a;
+                    adjoint[right[i]] -= a;
+                }
+                case Opcode.MUL -> {
+                    adjoint[left[i]] += a * v[right[i]];
+                    adjoint[right[i]] += a * v[left[i]];
+                }
+                case Opcode.DIV -> {
+                    adjoint[left[i]] += a / v[right[i]];
+                    adjoint[right[i]] -= a * v[i] / v[right[i]];
+                }
+                case Opcode.POW -> {
+                    adjoint[left[i]] += a * baseDerivative(v[left[i]], v[right[i]]);
+                    adjoint[right[i]] += a * exponentDerivative(v[left[i]], v[right[i]], v[i]);
+                }
+                case Opcode.CALL_MULTI -> {
+                    IMultiAction function = multiFunctions[operands[i]];
+                    double[] argumentValues = gather(i);
+                    int[] argumentEntries = arguments[i];
+                    for (int k = 0; k < argumentEntries.length; k++) {
+                        adjoint[argumentEntries[k]] += a * function.derivative(argumentValues, 0, k);
+                    }
+                }
+                default -> adjoint[left[i]] += a * functions[operands[i]].derivative(v[left[i]]);
+            }
+        }
+    }
+
+    /**
+     * Copies the argument values of a call with several arguments into the argument buffer.
+     *
+     * @param entry The tape entry of the call.
+     * @return The argument buffer, holding the arguments from index 0.
+     */
+    private double[] gather(int entry) {
+        int[] argumentEntries = arguments[entry];
+        for (int k = 0; k < argumentEntries.length; k++) {
+            argumentValues[k] = tapeValues[argumentEntries[k]];
+        }
+        return argumentValues;
+    }
+
+    /**
+     * Calculates the derivative of base^exponent by the base: exponent * base^(exponent - 1).
+     *
+     * @param base     The base.
+     * @param exponent The exponent.
+     * @return The partial derivative by the base.
+     */
+    static double baseDerivative(double base, double exponent) {
+        return exponent == 0 ? 0.0 : exponent * Math.pow(base, exponent - 1);
+    }
+
+    /**
+     * Calculates the derivative of base^exponent by the exponent: base^exponent * ln(base).
+     * It is 0 for a zero base and a positive exponent, and undefined (NaN) for a negative base,
+     * which only has integer powers.
+     *
+     * @param base     The base.
+     * @param exponent The exponent.
+     * @param power    The value of base^exponent.
+     * @return The partial derivative by the exponent.
+     */
+    static double exponentDerivative(double base, double exponent, double power) {
+        if (base == 0 && exponent > 0) {
+            return 0.0;
+        }
+        return base < 0 ? Double.NaN : power * Math.log(base);
+    }
+}
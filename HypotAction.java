@@ -0,0 +1,82 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The HypotAction class implements the {@code IMultiAction} interface
+ * and provides a method to calculate the square root of the sum of the squares of two numbers,
+ * without intermediate overflow.
+ */
+public class HypotAction implements IMultiAction {
+
+    /**
+     * Returns the number of arguments of the action.
+     *
+     * @return The number of arguments, 2.
+     */
+    @Override
+    public int getArity() {
+        return 2;
+    }
+
+    /**
+     * Calculates the hypotenuse of the two arguments.
+     *
+     * @param arguments The array holding the arguments.
+     * @param offset    The index of the first argument in the array.
+     * @return The hypotenuse of the arguments.
+     */
+    @Override
+    public double calculate(double[] arguments, int offset) {
+        return Math.hypot(arguments[offset], arguments[offset + 1]);
+    }
+
+    /**
+     * Calculates the hypotenuses of the first {@code n} rows of the two argument columns in a loop of
+     * their own.
+     *
+     * @param arguments The argument columns.
+     * @param offset    The index of the column of the first argument.
+     * @param out       The array receiving the results.
+     * @param n         The number of rows to calculate.
+     */
+    @Override
+    public void calculate(double[][] arguments, int offset, double[] out, int n) {
+        double[] first = arguments[offset];
+        double[] second = arguments[offset + 1];
+        for (int i = 0; i < n; i++) {
+            out[i] = Math.hypot(first[i], second[i]);
+        }
+    }
+
+    /**
+     * Calculates the partial derivative of the hypotenuse: the argument divided by the hypotenuse, or 0 at the origin.
+     *
+     * @param arguments The array holding the arguments.
+     * @param offset    The index of the first argument in the array.
+     * @param index     The position of the argument to differentiate by, 0 or 1.
+     * @return The partial derivative at the arguments.
+     */
+    @Override
+    public double derivative(double[] arguments, int offset, int index) {
+        double hypotenuse = Math.hypot(arguments[offset], arguments[offset + 1]);
+        return hypotenuse == 0 ? 0.0 : arguments[offset + index] / hypotenuse;
+    }
+
+    /**
+     * Calculates the range of the hypotenuse, which grows with the absolute value of either argument.
+     *
+     * @param lows   The array holding the lower ends of the argument intervals.
+     * @param highs  The array holding the upper ends of the argument intervals.
+     * @param offset The index of the first argument in the arrays.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    @Override
+    public void range(double[] lows, double[] highs, int offset, double[] bounds) {
+        // The smallest absolute value is 0 if the interval contains 0
+        double x = lows[offset] > 0 ? lows[offset] : highs[offset] < 0 ? -highs[offset] : 0.0;
+        double y = lows[offset + 1] > 0 ? lows[offset + 1] : highs[offset + 1] < 0 ? -highs[offset + 1] : 0.0;
+        double maxX = Math.max(Math.abs(lows[offset]), Math.abs(highs[offset]));
+        double maxY = Math.max(Math.abs(lows[offset + 1]), Math.abs(highs[offset + 1]));
+        IntervalMath.increasing(Math.hypot(x, y), Math.hypot(maxX, maxY), 2, bounds);
+        bounds[0] = Math.max(bounds[0], 0.0);
+    }
+}
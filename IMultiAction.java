@@ -0,0 +1,95 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The IMultiAction interface represents a mathematical action with a fixed number of arguments,
+ * such as {@code min(a; b)}. In a formula, the arguments are separated by semicolons, because the
+ * comma is a decimal separator. The arguments are passed as a slice of an array, so calling the
+ * action allocates nothing.
+ */
+public interface IMultiAction {
+
+    /**
+     * Returns the number of arguments of the action.
+     *
+     * @return The number of arguments, at least 2.
+     */
+    int getArity();
+
+    /**
+     * Calculates the result of the mathematical action on the given arguments.
+     *
+     * @param arguments The array holding the arguments.
+     * @param offset    The index of the first argument in the array.
+     * @return The result of applying the action to the arguments.
+     */
+    double calculate(double[] arguments, int offset);
+
+    /**
+     * Calculates the result of the mathematical action for each of the first {@code n} rows of
+     * the argument columns {@code arguments[offset]} to {@code arguments[offset + getArity() - 1]}.
+     * The output array may be one of the argument columns.
+     *
+     * @param arguments The argument columns.
+     * @param offset    The index of the column of the first argument.
+     * @param out       The array receiving the results.
+     * @param n         The number of rows to calculate.
+     */
+    default void calculate(double[][] arguments, int offset, double[] out, int n) {
+        double[] row = new double[getArity()];
+        for (int i = 0; i < n; i++) {
+            for (int a = 0; a < row.length; a++) {
+                row[a] = arguments[offset + a][i];
+            }
+            out[i] = calculate(row, 0);
+        }
+    }
+
+    /**
+     * Calculates the partial derivative of the mathematical action with respect to one argument,
+     * which automatic differentiation needs for every function call. This default estimates it
+     * by a central difference, changing the argument in place and restoring it afterwards;
+     * the built-in actions return the exact derivative.
+     *
+     * @param arguments The array holding the arguments.
+     * @param offset    The index of the first argument in the array.
+     * @param index     The position of the argument to differentiate by, from 0.
+     * @return The partial derivative at the arguments.
+     */
+    default double derivative(double[] arguments, int offset, int index) {
+        double argument = arguments[offset + index];
+        double step = 1e-5 * Math.max(1.0, Math.abs(argument));
+        arguments[offset + index] = argument + step;
+        double above = calculate(arguments, offset);
+        arguments[offset + index] = argument - step;
+        double below = calculate(arguments, offset);
+        arguments[offset + index] = argument;
+        return (above - below) / (2 * step);
+    }
+
+    /**
+     * Calculates the range of the mathematical action over intervals of its arguments, for
+     * interval evaluation: {@code bounds[0]} and {@code bounds[1]} receive a lower and an upper
+     * bound of the result for all arguments in the intervals, or NaN if the result may be
+     * undefined there. The ends of the intervals are never NaN. This default knows nothing about
+     * the action, so it calculates intervals of single numbers and allows any result for wider
+     * ones; the built-in actions return tight bounds.
+     *
+     * @param lows   The array holding the lower ends of the argument intervals.
+     * @param highs  The array holding the upper ends of the argument intervals.
+     * @param offset The index of the first argument in the arrays.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    default void range(double[] lows, double[] highs, int offset, double[] bounds) {
+        boolean single = true;
+        for (int a = 0; a < getArity(); a++) {
+            single &= lows[offset + a] == highs[offset + a];
+        }
+        if (single) {
+            double value = calculate(lows, offset);
+            IntervalMath.widen(value, value, 1, bounds);
+        } else {
+            bounds[0] = Double.NEGATIVE_INFINITY;
+            bounds[1] = Double.POSITIVE_INFINITY;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.Map;
+
+/**
+ * The IntervalEvaluator class computes guaranteed bounds of a compiled expression over a box of
+ * variable values, such as {@code x in [0, 10], y in [-1, 1]}, in a single pass of interval
+ * arithmetic over the same program the interpreter runs. Every value on the stack is an interval,
+ * held as a lower and an upper bound; the operations round the bounds outward, and every function
+ * maps an interval through its {@code range} method, which uses monotonicity and, for the angle
+ * functions, their periods. The result contains every value the evaluation can produce for
+ * variables in the box, though it may be wider than the exact range when a variable occurs more
+ * than once. NaN bounds mean the evaluation may fail or be undefined somewhere in the box.
+ * An IntervalEvaluator keeps its stacks between calls and must not be shared between threads.
+ */
+public final class IntervalEvaluator {
+    private final CompiledExpression expression;
+    private final double[] lowStack;
+    private final double[] highStack;
+    private final double[] lows;
+    private final double[] highs;
+    private final boolean[] bound;
+    private final double[] bounds = new double[2];
+    // The result of the operation being evaluated
+    private final double[] scratch = new double[2];
+    private int boundCount;
+
+    /**
+     * Constructs an IntervalEvaluator for the given expression, with no variable bound.
+     *
+     * @param expression The compiled expression to evaluate.
+     */
+    public IntervalEvaluator(CompiledExpression expression) {
+        this.expression = expression;
+        this.lowStack = expression.newStack();
+        this.highStack = expression.newStack();
+        this.lows = new double[expression.getSlotCount()];
+        this.highs = new double[lows.length];
+        this.bound = new boolean[lows.length];
+    }
+
+    /**
+     * Binds an interval to the variable with the given name.
+     *
+     * @param variable The name of the variable.
+     * @param low      The lower end of the interval.
+     * @param high     The upper end of the interval.
+     * @return This evaluator, so calls can be chained.
+     * @throws IllegalArgumentException If the expression does not use the variable or the interval is empty.
+     */
+    public IntervalEvaluator set(String variable, double low, double high) {
+        int slot = expression.slotOf(variable);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Unknown variable: " + variable);
+        }
+        return set(slot, low, high);
+    }
+
+    /**
+     * Binds an interval to the variable in the given slot.
+     *
+     * @param slot The slot index of the variable.
+     * @param low  The lower end of the interval.
+     * @param high The upper end of the interval.
+     * @return This evaluator, so calls can be chained.
+     * @throws IllegalArgumentException  If the interval is empty or has a NaN end.
+     * @throws IndexOutOfBoundsException If the slot does not exist.
+     */
+    public IntervalEvaluator set(int slot, double low, double high) {
+        if (!(low <= high)) {
+            throw new IllegalArgumentException("Invalid interval for variable " + expression.getSlotName(slot)
+                    + ": [" + low + ", " + high + "]");
+        }
+        lows[slot] = low;
+        highs[slot] = high;
+        if (!bound[slot]) {
+            bound[slot] = true;
+            boundCount++;
+        }
+        return this;
+    }
+
+    /**
+     * Binds the intervals of every variable of the expression from the given map, where every
+     * interval is an array holding its lower and upper end.
+     * Entries for variables the expression does not use are ignored.
+     *
+     * @param ranges A map containing variable names and their corresponding intervals.
+     * @return This evaluator, so calls can be chained.
+     * @throws IllegalArgumentException If the map has no interval for one of the variables or an interval is empty.
+     */
+    public IntervalEvaluator bind(Map<String, double[]> ranges) {
+        for (int slot = 0; slot < lows.length; slot++) {
+            double[] range = ranges.get(expression.getSlotName(slot));
+            if (range == null) {
+                throw missing(slot);
+            }
+            set(slot, range[0], range[1]);
+        }
+        return this;
+    }
+
+    /**
+     * Evaluates the bounds of the expression over the bound intervals. Nothing is allocated.
+     *
+     * @return This evaluator, to read the bounds from.
+     * @throws IllegalArgumentException If a variable has no interval.
+     */
+    public IntervalEvaluator evaluate() {
+        if (boundCount != lows.length) {
+            for (int slot = 0; slot < bound.length; slot++) {
+                if (!bound[slot]) {
+                    throw missing(slot);
+                }
+            }
+        }
+        evaluate(lows, highs, bounds);
+        return this;
+    }
+
+    /**
+     * Returns the lower bound computed by the last evaluation.
+     *
+     * @return The lower bound, or NaN if the expression may be undefined in the box.
+     */
+    public double getLow() {
+        return bounds[0];
+    }
+
+    /**
+     * Returns the upper bound computed by the last evaluation.
+     *
+     * @return The upper bound, or NaN if the expression may be undefined in the box.
+     */
+    public double getHigh() {
+        return bounds[1];
+    }
+
+    /**
+     * Checks whether the last evaluation found the expression defined everywhere in the box.
+     *
+     * @return True if the bounds are numbers, false if the expression may fail or be undefined.
+     */
+    public boolean isDefined() {
+        return !Double.isNaN(bounds[0]);
+    }
+
+    /**
+     * Evaluates the bounds of the expression over the given intervals. Nothing is allocated.
+     *
+     * @param lows   The lower ends of the variable intervals, indexed by slot.
+     * @param highs  The upper ends of the variable intervals, indexed by slot.
+     * @param result The array receiving the lower and the upper bound, or two NaNs if the
+     *               expression may fail or be undefined somewhere in the box.
+     */
+    public void evaluate(double[] lows, double[] highs, double[] result) {
+        byte[] code = expression.getCode();
+        int[] operands = expression.getOperands();
+        double[] constants = expression.getConstants();
+        IAction[] functions = expression.getFunctions();
+        IMultiAction[] multiFunctions = expression.getMultiFunctions();
+        int temps = expression.getMaxStackDepth();
+        double[] low = lowStack;
+        double[] high = highStack;
+        int top = 0;
+
+        for (int i = 0; i < code.length; i++) {
+            switch (code[i]) {
+                case Opcode.CONST -> {
+                    low[top] = constants[operands[i]];
+                    high[top++] = constants[operands[i]];
+                }
+                case Opcode.LOAD -> {
+                    low[top] = lows[operands[i]];
+                    high[top++] = highs[operands[i]];
+                }
+                case Opcode.DUP -> {
+                    low[top] = low[top - 1];
+                    high[top] = high[top - 1];
+                    top++;
+                }
+                // Temporary registers are the positions above the deepest stack position
+                case Opcode.STORE_TEMP -> {
+                    low[temps + operands[i]] = low[top - 1];
+                    high[temps + operands[i]] = high[top - 1];
+                }
+                case Opcode.LOAD_TEMP -> {
+                    low[top] = low[temps + operands[i]];
+                    high[top++] = high[temps + operands[i]];
+                }
+                case Opcode.CALL_MULTI -> {
+                    IMultiAction function = multiFunctions[operands[i]];
+                    int first = top - function.getArity();
+                    if (anyUndefined(low, first, top)) {
+                        IntervalMath.undefined(scratch);
+                    } else {
+                        function.range(low, high, first, scratch);
+                    }
+                    top = first + 1;
+                    low[first] = scratch[0];
+                    high[first] = scratch[1];
+                }
+                case Opcode.CALL -> {
+                    if (Double.isNaN(low[top - 1])) {
+                        continue;
+                    }
+                    functions[operands[i]].range(low[top - 1], high[top - 1], scratch);
+                    low[top - 1] = scratch[0];
+                    high[top - 1] = scratch[1];
+                }
+                default -> {
+                    double a = low[top - 2];
+                    double b = high[top - 2];
+                    double c = low[--top];
+                    double d = high[top];
+                    if (Double.isNaN(a) || Double.isNaN(c)) {
+                        IntervalMath.undefined(scratch);
+                    } else {
+                        switch (code[i]) {
+                            case Opcode.ADD -> IntervalMath.add(a, b, c, d, scratch);
+                            case Opcode.SUB -> IntervalMath.subtract(a, b, c, d, scratch);
+                            // A value multiplied by its duplicate is a square, which is never negative
+                            case Opcode.MUL -> {
+                                if (code[i - 1] == Opcode.DUP) {
+                                    IntervalMath.power(a, b, 2, 2, scratch);
+                                } else {
+                                    IntervalMath.multiply(a, b, c, d, scratch);
+                                }
+                            }
+                            case Opcode.DIV -> IntervalMath.divide(a, b, c, d, scratch);
+                            default -> IntervalMath.power(a, b, c, d, scratch);
+                        }
+                    }
+                    low[top - 1] = scratch[0];
+                    high[top - 1] = scratch[1];
+                }
+            }
+        }
+
+        result[0] = low[0];
+        result[1] = high[0];
+    }
+
+    /**
+     * Returns the compiled expression evaluated by this evaluator.
+     *
+     * @return The compiled expression.
+     */
+    public CompiledExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Checks whether one of the given intervals on the stack is undefined.
+     *
+     * @param low  The stack of lower bounds.
+     * @param from The first stack position to check.
+     * @param to   The position after the last one to check.
+     * @return True if one of the intervals has NaN bounds.
+     */
+    private static boolean anyUndefined(double[] low, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (Double.isNaN(low[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the exception reporting a variable without an interval.
+     *
+     * @param slot The slot of the variable.
+     * @return The exception to throw.
+     */
+    private IllegalArgumentException missing(int slot) {
+        return new IllegalArgumentException("Please provide an interval for variable: " + expression.getSlotName(slot));
+    }
+}
@@ -0,0 +1,291 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The IntervalMath class holds the interval arithmetic behind {@code IntervalEvaluator} and the
+ * {@code range} methods of the actions. Every operation writes the lower and the upper bound of
+ * its result to {@code bounds[0]} and {@code bounds[1]} and rounds them outward, by one ulp for
+ * the operations IEEE 754 rounds correctly and by a few ulps for the library functions, so the
+ * interval contains every value the evaluator can compute for operands taken from the operand
+ * intervals. NaN bounds mean that the result may be undefined somewhere in the intervals:
+ * a possible division by zero, a negative number raised to a fractional power, or a function
+ * applied outside its domain.
+ * <p>
+ * An infinite end is a value the evaluator can reach, since intermediate results overflow to
+ * infinity, and it is treated as one: an operation that may combine it into NaN, such as
+ * {@code 0 * inf}, {@code inf - inf} or {@code sin(inf)}, is undefined.
+ */
+final class IntervalMath {
+    // Beyond this magnitude, the multiples of a period cannot be told apart reliably
+    private static final double PERIODIC_LIMIT = 1e15;
+
+    private IntervalMath() {
+    }
+
+    /**
+     * Stores an interval, widened outward by the given number of ulps.
+     *
+     * @param low    The computed lower bound.
+     * @param high   The computed upper bound.
+     * @param ulps   The number of ulps to widen by.
+     * @param bounds The array receiving the bounds.
+     */
+    static void widen(double low, double high, int ulps, double[] bounds) {
+        for (int i = 0; i < ulps; i++) {
+            low = Math.nextDown(low);
+            high = Math.nextUp(high);
+        }
+        bounds[0] = low;
+        bounds[1] = high;
+    }
+
+    /**
+     * Stores the range of a non-decreasing function from its values at the ends of the interval.
+     *
+     * @param atLow  The value of the function at the lower end.
+     * @param atHigh The value of the function at the upper end.
+     * @param ulps   The maximum error of the function in ulps.
+     * @param bounds The array receiving the bounds.
+     */
+    static void increasing(double atLow, double atHigh, int ulps, double[] bounds) {
+        widen(atLow, atHigh, ulps, bounds);
+    }
+
+    /**
+     * Stores the undefined interval.
+     *
+     * @param bounds The array receiving the bounds.
+     */
+    static void undefined(double[] bounds) {
+        bounds[0] = Double.NaN;
+        bounds[1] = Double.NaN;
+    }
+
+    /**
+     * Stores the range of the sum of two intervals.
+     *
+     * @param a      The lower bound of the first interval.
+     * @param b      The upper bound of the first interval.
+     * @param c      The lower bound of the second interval.
+     * @param d      The upper bound of the second interval.
+     * @param bounds The array receiving the bounds.
+     */
+    static void add(double a, double b, double c, double d, double[] bounds) {
+        // Infinities of opposite signs add up to NaN
+        if (b == Double.POSITIVE_INFINITY && c == Double.NEGATIVE_INFINITY
+                || a == Double.NEGATIVE_INFINITY && d == Double.POSITIVE_INFINITY) {
+            undefined(bounds);
+            return;
+        }
+        widen(a + c, b + d, 1, bounds);
+    }
+
+    /**
+     * Stores the range of the difference of two intervals.
+     *
+     * @param a      The lower bound of the first interval.
+     * @param b      The upper bound of the first interval.
+     * @param c      The lower bound of the second interval.
+     * @param d      The upper bound of the second interval.
+     * @param bounds The array receiving the bounds.
+     */
+    static void subtract(double a, double b, double c, double d, double[] bounds) {
+        // An infinity minus itself is NaN
+        if (b == Double.POSITIVE_INFINITY && d == Double.POSITIVE_INFINITY
+                || a == Double.NEGATIVE_INFINITY && c == Double.NEGATIVE_INFINITY) {
+            undefined(bounds);
+            return;
+        }
+        widen(a - d, b - c, 1, bounds);
+    }
+
+    /**
+     * Stores the range of the product of two intervals, from the products of their ends. It is
+     * undefined if one interval contains zero and the other one reaches infinity, since zero
+     * times infinity is NaN.
+     *
+     * @param a      The lower bound of the first interval.
+     * @param b      The upper bound of the first interval.
+     * @param c      The lower bound of the second interval.
+     * @param d      The upper bound of the second interval.
+     * @param bounds The array receiving the bounds.
+     */
+    static void multiply(double a, double b, double c, double d, double[] bounds) {
+        if (a <= 0 && b >= 0 && (Double.isInfinite(c) || Double.isInfinite(d))
+                || c <= 0 && d >= 0 && (Double.isInfinite(a) || Double.isInfinite(b))) {
+            undefined(bounds);
+            return;
+        }
+        double ac = a * c;
+        double ad = a * d;
+        double bc = b * c;
+        double bd = b * d;
+        widen(Math.min(Math.min(ac, ad), Math.min(bc, bd)), Math.max(Math.max(ac, ad), Math.max(bc, bd)), 1, bounds);
+    }
+
+    /**
+     * Stores the range of the quotient of two intervals. It is undefined if the divisor
+     * interval contains zero, since the evaluation throws there.
+     *
+     * @param a      The lower bound of the dividend.
+     * @param b      The upper bound of the dividend.
+     * @param c      The lower bound of the divisor.
+     * @param d      The upper bound of the divisor.
+     * @param bounds The array receiving the bounds.
+     */
+    static void divide(double a, double b, double c, double d, double[] bounds) {
+        if (c <= 0 && d >= 0) {
+            undefined(bounds);
+            return;
+        }
+        double ac = a / c;
+        double ad = a / d;
+        double bc = b / c;
+        double bd = b / d;
+        widen(Math.min(Math.min(ac, ad), Math.min(bc, bd)), Math.max(Math.max(ac, ad), Math.max(bc, bd)), 1, bounds);
+    }
+
+    /**
+     * Stores the range of a power of two intervals. A negative base is only defined for an
+     * integer exponent, so a base interval reaching below zero needs a single integer exponent.
+     * One raised to an infinite power is NaN, so neither may the exponent interval reach
+     * infinity while the base interval contains one.
+     *
+     * @param a      The lower bound of the base.
+     * @param b      The upper bound of the base.
+     * @param c      The lower bound of the exponent.
+     * @param d      The upper bound of the exponent.
+     * @param bounds The array receiving the bounds.
+     */
+    static void power(double a, double b, double c, double d, double[] bounds) {
+        if (c == d && Math.floor(c) == c && !Double.isInfinite(c)) {
+            integerPower(a, b, c, bounds);
+            return;
+        }
+        if (a < 0 || a <= 1 && b >= 1 && (Double.isInfinite(c) || Double.isInfinite(d))) {
+            undefined(bounds);
+            return;
+        }
+
+        // For a base of at least 0, the power is monotonic in the base and in the exponent
+        // separately, so its extremes lie at the corners
+        double ac = Math.pow(a, c);
+        double ad = Math.pow(a, d);
+        double bc = Math.pow(b, c);
+        double bd = Math.pow(b, d);
+        widen(Math.min(Math.min(ac, ad), Math.min(bc, bd)), Math.max(Math.max(ac, ad), Math.max(bc, bd)), 2, bounds);
+    }
+
+    /**
+     * Stores the range of the sine of an interval of angles in degrees, or of the cosine with a
+     * shifted peak: the function is 1 at {@code peak + 360k} and -1 halfway between, and is
+     * monotonic in between, so the range is spanned by the values at the ends and the extremes inside.
+     * The sine of infinity is NaN, so an interval with an infinite end is undefined.
+     *
+     * @param low    The lower bound of the angle.
+     * @param high   The upper bound of the angle.
+     * @param atLow  The value of the function at the lower end.
+     * @param atHigh The value of the function at the upper end.
+     * @param peak   An angle where the function is 1.
+     * @param ulps   The maximum error of the function in ulps.
+     * @param bounds The array receiving the bounds.
+     */
+    static void periodic(double low, double high, double atLow, double atHigh, double peak, int ulps,
+                         double[] bounds) {
+        if (Double.isInfinite(low) || Double.isInfinite(high)) {
+            undefined(bounds);
+            return;
+        }
+        if (high - low >= 360 || Math.abs(low) > PERIODIC_LIMIT || Math.abs(high) > PERIODIC_LIMIT) {
+            bounds[0] = -1.0;
+            bounds[1] = 1.0;
+            return;
+        }
+        widen(Math.min(atLow, atHigh), Math.max(atLow, atHigh), ulps, bounds);
+        if (containsPoint(low, high, peak + 180, 360)) {
+            bounds[0] = -1.0;
+        }
+        if (containsPoint(low, high, peak, 360)) {
+            bounds[1] = 1.0;
+        }
+        // Rounding never takes the sine past 1
+        bounds[0] = Math.max(bounds[0], -1.0);
+        bounds[1] = Math.min(bounds[1], 1.0);
+    }
+
+    /**
+     * Stores the range of the tangent of an interval of angles in degrees. The tangent increases
+     * between its poles at {@code 90 + 180k}; an interval around a pole covers every number.
+     * The tangent of infinity is NaN, so an interval with an infinite end is undefined.
+     *
+     * @param low    The lower bound of the angle.
+     * @param high   The upper bound of the angle.
+     * @param atLow  The tangent at the lower end.
+     * @param atHigh The tangent at the upper end.
+     * @param ulps   The maximum error of the tangent in ulps.
+     * @param bounds The array receiving the bounds.
+     */
+    static void tangent(double low, double high, double atLow, double atHigh, int ulps, double[] bounds) {
+        if (Double.isInfinite(low) || Double.isInfinite(high)) {
+            undefined(bounds);
+            return;
+        }
+        if (high - low >= 180 || Math.abs(low) > PERIODIC_LIMIT || Math.abs(high) > PERIODIC_LIMIT
+                || containsPoint(low, high, 90, 180)) {
+            bounds[0] = Double.NEGATIVE_INFINITY;
+            bounds[1] = Double.POSITIVE_INFINITY;
+            return;
+        }
+        widen(atLow, atHigh, ulps, bounds);
+    }
+
+    /**
+     * Checks whether an interval may contain {@code point + k * period} for some integer k.
+     * Near the ends of the interval it errs on the side of containing the point, which only
+     * widens the resulting range.
+     *
+     * @param low    The lower bound of the interval.
+     * @param high   The upper bound of the interval.
+     * @param point  One of the points.
+     * @param period The distance between the points.
+     * @return True if one of the points may lie in the interval.
+     */
+    static boolean containsPoint(double low, double high, double point, double period) {
+        double slack = 1e-9 * Math.max(1.0, Math.max(Math.abs(low), Math.abs(high)));
+        double first = Math.floor((low - point) / period);
+        for (int k = 0; k < 3; k++) {
+            double candidate = point + (first + k) * period;
+            if (candidate >= low - slack && candidate <= high + slack) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the range of an interval raised to a single integer power.
+     *
+     * @param a        The lower bound of the base.
+     * @param b        The upper bound of the base.
+     * @param exponent The integer exponent.
+     * @param bounds   The array receiving the bounds.
+     */
+    private static void integerPower(double a, double b, double exponent, double[] bounds) {
+        double atLow = Math.pow(a, exponent);
+        double atHigh = Math.pow(b, exponent);
+        boolean even = exponent % 2 == 0;
+        // An interval ending at 0 counts as spanning it, since -0.0 and 0.0 give infinities of either sign
+        boolean spansZero = a <= 0 && b >= 0 && a < b;
+        if (exponent == 0) {
+            bounds[0] = 1.0;
+            bounds[1] = 1.0;
+        } else if (!spansZero) {
+            widen(Math.min(atLow, atHigh), Math.max(atLow, atHigh), 2, bounds);
+        } else if (exponent > 0) {
+            // Even powers have their minimum, 0, inside; odd powers increase
+            widen(even ? 0.0 : atLow, even ? Math.max(atLow, atHigh) : atHigh, 2, bounds);
+        } else {
+            // Negative powers go to infinity at 0: both ways for odd powers
+            widen(even ? Math.min(atLow, atHigh) : Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 2, bounds);
+        }
+    }
+}
@@ -17,4 +17,47 @@ public class Log2Action implements IAction {
         // Calculate the logarithm of the given number divided by the logarithm of 2
         return Math.log(number) / Math.log(2);
     }
+
+    /**
+     * Calculates the base-2 logarithm of each of the first {@code n} numbers in a loop of its own.
+     *
+     * @param in  The input numbers.
+     * @param out The array receiving the results.
+     * @param n   The number of elements to calculate.
+     */
+    @Override
+    public void calculate(double[] in, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = calculate(in[i]);
+        }
+    }
+
+    /**
+     * Calculates the derivative of the base-2 logarithm: 1 / (x ln 2).
+     *
+     * @param number The input number.
+     * @return The derivative at the input number.
+     */
+    @Override
+    public double derivative(double number) {
+        return 1 / (number * Math.log(2));
+    }
+
+    /**
+     * Calculates the range of the base-2 logarithm over an interval. The logarithm increases, so
+     * the range lies between its values at the ends, and is undefined if the interval reaches below
+     * 0.
+     *
+     * @param low    The lower end of the interval.
+     * @param high   The upper end of the interval.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    @Override
+    public void range(double low, double high, double[] bounds) {
+        if (low < 0) {
+            IntervalMath.undefined(bounds);
+        } else {
+            IntervalMath.increasing(calculate(low), calculate(high), 2, bounds);
+        }
+    }
 }
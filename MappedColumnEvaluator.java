@@ -0,0 +1,160 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Map;
+
+/**
+ * The MappedColumnEvaluator class evaluates a compiled expression over columns stored in flat
+ * binary files of {@code double} values, one file per variable, and writes the result column
+ * to another such file. The files are memory-mapped window by window with {@code FileChannel.map},
+ * and every window is evaluated chunk by chunk by a {@code BatchEvaluator} reading and writing
+ * the mapped buffers directly, so the columns are never copied to the heap as a whole and may be
+ * much larger than the heap.
+ */
+public final class MappedColumnEvaluator {
+    /** The number of rows mapped at once from every file: 128 MB of doubles. */
+    static final int WINDOW_ROWS = 1 << 24;
+
+    private final CompiledExpression expression;
+    private final ByteOrder order;
+
+    /**
+     * Constructs a MappedColumnEvaluator for files of little-endian doubles.
+     *
+     * @param expression The compiled expression to evaluate.
+     */
+    public MappedColumnEvaluator(CompiledExpression expression) {
+        this(expression, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Constructs a MappedColumnEvaluator for files of doubles in the given byte order.
+     *
+     * @param expression The compiled expression to evaluate.
+     * @param order      The byte order of the input and output files.
+     */
+    public MappedColumnEvaluator(CompiledExpression expression, ByteOrder order) {
+        this.expression = expression;
+        this.order = order;
+    }
+
+    /**
+     * Evaluates the expression for every row of the given column files and writes the results
+     * to the output file, which is created or replaced. All column files must hold the same
+     * number of values. The inputs are checked before anything is written, and the results are
+     * written to a temporary file next to the output that replaces it only once every row is
+     * evaluated, so a failed evaluation leaves an existing output file as it was.
+     *
+     * @param columns The file of every variable, by variable name. Files of unused variables are ignored.
+     * @param output  The file receiving the result of every row.
+     * @return The number of rows evaluated.
+     * @throws IOException              If a file cannot be read, written or mapped.
+     * @throws IllegalArgumentException If a variable has no file, the files differ in length, or the
+     *                                  output file is one of the column files.
+     * @throws ArithmeticException      If division by zero is encountered in any row.
+     */
+    public long evaluate(Map<String, Path> columns, Path output) throws IOException {
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("Please provide at least one column file");
+        }
+        long rowCount = -1;
+        for (Map.Entry<String, Path> column : columns.entrySet()) {
+            // Writing over a column would destroy it, even one the expression does not use
+            if (Files.exists(output) && Files.isSameFile(output, column.getValue())) {
+                throw new IllegalArgumentException("The output file is the column file of variable "
+                        + column.getKey());
+            }
+            long rows = rowCount(column.getValue());
+            if (rowCount >= 0 && rows != rowCount) {
+                throw new IllegalArgumentException("The column for variable " + column.getKey() + " has "
+                        + rows + " rows instead of " + rowCount);
+            }
+            rowCount = rows;
+        }
+        for (int slot = 0; slot < expression.getSlotCount(); slot++) {
+            if (!columns.containsKey(expression.getSlotName(slot))) {
+                throw new IllegalArgumentException("Please provide a column for variable: "
+                        + expression.getSlotName(slot));
+            }
+        }
+
+        Path directory = output.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, output.getFileName().toString(), ".tmp");
+        try {
+            evaluate(columns, temporary, rowCount);
+            try {
+                Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return rowCount;
+    }
+
+    /**
+     * Evaluates the expression for every row of the given column files, which are already checked,
+     * and writes the results to the given file.
+     *
+     * @param columns  The file of every variable, by variable name.
+     * @param output   The empty file receiving the result of every row.
+     * @param rowCount The number of rows of every column.
+     * @throws IOException         If a file cannot be read, written or mapped.
+     * @throws ArithmeticException If division by zero is encountered in any row.
+     */
+    private void evaluate(Map<String, Path> columns, Path output, long rowCount) throws IOException {
+        FileChannel[] inputs = new FileChannel[expression.getSlotCount()];
+        try (FileChannel results = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Open the file of every variable slot
+            for (int slot = 0; slot < inputs.length; slot++) {
+                inputs[slot] = FileChannel.open(columns.get(expression.getSlotName(slot)), StandardOpenOption.READ);
+            }
+
+            BatchEvaluator batchEvaluator = new BatchEvaluator(expression);
+            DoubleBuffer[] windows = new DoubleBuffer[inputs.length];
+            for (long from = 0; from < rowCount; from += WINDOW_ROWS) {
+                int length = (int) Math.min(WINDOW_ROWS, rowCount - from);
+                long offset = from * Double.BYTES;
+                long size = (long) length * Double.BYTES;
+                for (int slot = 0; slot < inputs.length; slot++) {
+                    windows[slot] = inputs[slot].map(FileChannel.MapMode.READ_ONLY, offset, size)
+                            .order(order).asDoubleBuffer();
+                }
+                // Mapping past the end of the output file extends it
+                DoubleBuffer window = results.map(FileChannel.MapMode.READ_WRITE, offset, size)
+                        .order(order).asDoubleBuffer();
+                batchEvaluator.evaluate(windows, window, length);
+            }
+        } finally {
+            for (FileChannel input : inputs) {
+                if (input != null) {
+                    input.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of values in a column file.
+     *
+     * @param file The column file.
+     * @return The number of doubles in the file.
+     * @throws IOException              If the size of the file cannot be read.
+     * @throws IllegalArgumentException If the size of the file is not a multiple of 8 bytes.
+     */
+    private static long rowCount(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size % Double.BYTES != 0) {
+                throw new IllegalArgumentException("The size of " + file + " is not a multiple of "
+                        + Double.BYTES + " bytes");
+            }
+            return size / Double.BYTES;
+        }
+    }
+}
@@ -3,14 +3,22 @@ package com.shpp.p2p.cs.ikopach.assignment11;
 import java.util.*;
 
 /**
- * The MathExpression class represents a mathematical expression in Reverse Polish Notation (RPN).
- * It provides a method for calculating the result of the expression using a stack-based algorithm.
+ * The MathExpression class represents a parsed mathematical expression: the expression tree
+ * built by the parser, or a queue of tokens in Reverse Polish Notation (RPN).
+ * It provides a method for calculating the result of the expression.
  * The class supports basic arithmetic operations and exponentiation.
  */
 public class MathExpression {
-    private final Queue<String> rpn;
+    private final ExpressionNode tree;
+    private final String[] slotNames;
+    // The registry the functions of the tree were resolved in, and its version at the time
+    private final FunctionRegistry treeRegistry;
+    private final int treeVersion;
+    private final Queue<String> rpnText;
+    private final String formula;
     private FunctionRegistry functionRegistry;
     private Map<String, Double> variableValues;
+    private CompiledExpression compiledExpression;
 
     /**
      * Constructs a MathExpression object with the given RPN representation.
@@ -18,164 +26,207 @@ public class MathExpression {
      * @param rpn The queue containing the RPN representation of the mathematical expression.
      */
     public MathExpression(Queue<String> rpn) {
-        this.rpn = rpn;
+        this.tree = null;
+        this.slotNames = null;
+        this.treeRegistry = null;
+        this.treeVersion = 0;
+        this.rpnText = rpn;
+        this.formula = null;
         this.variableValues = new HashMap<>();
     }
 
     /**
-     * Calculates the result of the mathematical expression using a stack-based algorithm.
+     * Constructs a MathExpression object with the given expression tree.
+     *
+     * @param tree             The root of the expression tree.
+     * @param slotNames        The variable names of the tree, indexed by slot.
+     * @param functionRegistry The registry the functions of the tree were resolved in.
+     * @param version          The version of the registry when they were resolved.
+     * @param formula          The formula the expression was parsed from.
+     */
+    MathExpression(ExpressionNode tree, String[] slotNames, FunctionRegistry functionRegistry, int version,
+                   String formula) {
+        this.tree = tree;
+        this.slotNames = slotNames;
+        this.treeRegistry = functionRegistry;
+        this.treeVersion = version;
+        this.rpnText = null;
+        this.formula = formula;
+        this.variableValues = new HashMap<>();
+    }
+
+    /**
+     * Calculates the result of the mathematical expression using its compiled program.
+     * The expression is left untouched, so it can be calculated more than once. The values are
+     * bound the same way as by {@code MathExpressionEvaluator.evaluate}, so a variable without a
+     * value is an error rather than 0.0.
      *
      * @return The result of the mathematical expression.
      * @throws ArithmeticException      If division by zero is encountered during the calculation.
-     * @throws IllegalArgumentException If an unknown operator is encountered during the calculation.
+     * @throws IllegalArgumentException If there is no value for one of the variables or a negative
+     *                                  number is raised to a fractional power.
      */
     public double calculate() {
-        // Using a deque to store numbers during the calculation
-        Deque<Double> numbers = new ArrayDeque<>();
-
-        // Iterate through each token in the Reverse Polish Notation (RPN)
-        while (!rpn.isEmpty()) {
-            // Retrieve the next token from the RPN
-            String token = rpn.poll();
-
-            // Check if the token is a numeric value
-            if (isNumeric(token)) {
-                // If numeric, push onto the stack
-                numbers.push(Double.parseDouble(token));
-            } else if (isOperator(token.charAt(0))) {
-                // If an operator, pop two operands, apply the operator, and push the result back onto the stack
-                double operand2 = numbers.pop();
-                double operand1 = numbers.pop();
-                double result = applyOperator(operand1, operand2, token.charAt(0));
-                numbers.push(result);
-            } else if (isFunction(token)) {
-                double argument = numbers.pop();
-                double result = applyFunction(token, argument);
-                numbers.push(result);
-            } else {
-                // If it's a variable, push its value onto the stack
-                double value = variableValues.getOrDefault(token, 0.0);
-                numbers.push(value);
-            }
+        VariableBinder binder = compile().newBinder();
+        if (!ExpressionMetrics.ENABLED) {
+            return binder.bind(variableValues).evaluate();
         }
 
-        // The final result is at the top of the stack
-        return numbers.pop();
+        long start = System.nanoTime();
+        try {
+            double result = binder.bind(variableValues).evaluate();
+            ExpressionMetrics.get().recordEvaluation(formula, System.nanoTime() - start, null);
+            return result;
+        } catch (RuntimeException e) {
+            ExpressionMetrics.get().recordEvaluation(formula, System.nanoTime() - start, e);
+            throw e;
+        }
     }
 
     /**
-     * Retrieves the unique set of variables present in the Reverse Polish Notation (RPN) expression.
+     * Compiles the expression into an immutable {@code CompiledExpression} that can be
+     * evaluated many times, with different variable values, without parsing it again.
+     * The program is compiled once and reused until the function registry changes.
      *
-     * @return A set containing unique variable names found in the RPN expression.
+     * @return The compiled form of this expression.
+     * @throws IllegalArgumentException If the function registry is not set or the expression is malformed.
      */
-    public Set<String> getVariables() {
-        // Set to store unique variable names
-        Set<String> variables = new HashSet<>();
-
-        // Iterate through each token in the RPN expression
-        for (String token : rpn) {
-            // Check if the token is not a numeric constant, operator, or function
-            if (!isNumeric(token) && !isOperator(token.charAt(0)) && !isFunction(token)) {
-                // Add the token (variable) to the set
-                variables.add(token);
+    public CompiledExpression compile() {
+        if (functionRegistry == null) {
+            throw new IllegalArgumentException("The function registry is not set");
+        }
+        if (compiledExpression == null) {
+            if (!ExpressionMetrics.ENABLED) {
+                compiledExpression = compileTree();
+            } else {
+                long start = System.nanoTime();
+                try {
+                    compiledExpression = compileTree();
+                    ExpressionMetrics.get().recordCompile(System.nanoTime() - start, null);
+                } catch (RuntimeException e) {
+                    ExpressionMetrics.get().recordCompile(System.nanoTime() - start, e);
+                    throw e;
+                }
             }
         }
+        return compiledExpression;
+    }
 
-        // Return the set of unique variables
-        return variables;
+    /**
+     * Builds the expression tree and compiles it into a program.
+     *
+     * @return The compiled form of this expression.
+     * @throws IllegalArgumentException If the expression is malformed.
+     */
+    private CompiledExpression compileTree() {
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        ExpressionNode root = toTree(slots);
+        return new CompiledExpression(root, slots.keySet().toArray(new String[0]));
     }
+
     /**
-     * Checks if a given string represents a numeric value.
+     * Builds the expression tree, assigning slots to its variables in the given slot table.
+     * Trees built with the same table share their slots, so they can be compiled into one program.
      *
-     * @param str The string to check.
-     * @return True if the string is numeric, false otherwise.
+     * @param slots The slot table to fill, from variable name to slot index.
+     * @return The root of the expression tree.
+     * @throws IllegalArgumentException If the function registry is not set or the expression is malformed.
      */
-    private boolean isNumeric(String str) {
-        return str.matches("-?\\d+(\\.\\d+)?");
+    ExpressionNode toTree(Map<String, Integer> slots) {
+        if (functionRegistry == null) {
+            throw new IllegalArgumentException("The function registry is not set");
+        }
+        if (tree == null) {
+            // The RPN queue is read by the same parser as any formula
+            MathExpression parsed = new MathExpressionParser(functionRegistry).parse(toInfix(rpnText), new HashMap<>());
+            parsed.setFunctionRegistry(functionRegistry);
+            return parsed.toTree(slots);
+        }
+        if (functionRegistry != treeRegistry || functionRegistry.getVersion() != treeVersion || !slots.isEmpty()) {
+            // Other functions, or slots shared with other trees
+            return tree.resolve(functionRegistry, slots);
+        }
+        for (String slotName : slotNames) {
+            slots.put(slotName, slots.size());
+        }
+        return tree;
     }
 
     /**
-     * Checks if a given character is a valid arithmetic operator.
+     * Retrieves the unique set of variables present in the Reverse Polish Notation (RPN) expression.
      *
-     * @param c The character to check.
-     * @return True if the character is an operator, false otherwise.
+     * @return A set containing unique variable names found in the RPN expression.
      */
-    private boolean isOperator(char c) {
-        return c == '+' || c == '-' || c == '*' || c == '/' || c == '^';
+    public Set<String> getVariables() {
+        return compile().getVariables();
     }
 
     /**
-     * Applies the given arithmetic operator to two operands and returns the result.
+     * Writes string tokens in RPN order as a fully parenthesized infix formula, so they are
+     * classified and parsed like any other formula. An operator takes the two operands before
+     * it, a registered function as many as it declares, and every other token is an operand.
+     * Like the original stack machine, the formula is the operand left on top of the stack.
      *
-     * @param operand1 The first operand.
-     * @param operand2 The second operand.
-     * @param operator The arithmetic operator.
-     * @return The result of applying the operator to the operands.
-     * @throws ArithmeticException      If division by zero is encountered during the calculation.
-     * @throws IllegalArgumentException If an unknown operator is encountered during the calculation.
+     * @param tokens The string tokens in RPN order.
+     * @return The infix formula.
+     * @throws IllegalArgumentException If the expression is empty or an operand is missing.
      */
-    private double applyOperator(double operand1, double operand2, char operator) {
-        if (operator == '/' && operand2 == 0) {
-            throw new ArithmeticException("Division by 0 is not allowed");
+    private String toInfix(Queue<String> tokens) {
+        Deque<String> operands = new ArrayDeque<>();
+        for (String token : tokens) {
+            if (token.length() == 1 && isOperator(token.charAt(0))) {
+                String right = popOperand(operands, token);
+                operands.push("(" + popOperand(operands, token) + token + right + ")");
+            } else if (isFunction(token)) {
+                IMultiAction multiFunction = functionRegistry.getMultiFunction(token);
+                String[] arguments = new String[multiFunction != null ? multiFunction.getArity() : 1];
+                for (int i = arguments.length - 1; i >= 0; i--) {
+                    arguments[i] = popOperand(operands, token);
+                }
+                operands.push(token + "(" + String.join("; ", arguments) + ")");
+            } else {
+                operands.push("(" + token + ")");
+            }
         }
-
-        double result;
-        switch (operator) {
-            case '+' -> result = operand1 + operand2;
-            case '-' -> result = operand1 - operand2;
-            case '*' -> result = operand1 * operand2;
-            case '/' -> result = operand1 / operand2;
-            case '^' -> result = power(operand1, operand2);
-            default -> throw new IllegalArgumentException("Unknown operator: " + operator);
+        if (operands.isEmpty()) {
+            throw new IllegalArgumentException("The expression is empty");
         }
-        // Uncomment as needed (replace '2' with the value you want after the comma)
-        // System.out.printf("Performed operation: %.2f %c %.2f = %.2f%n", operand1, operator, operand2, result);
-        return result;
+        return operands.pop();
     }
 
     /**
-     * Computes the result of raising a base to a given exponent.
+     * Takes the topmost operand of an operator or function off the stack.
      *
-     * @param base     The base value.
-     * @param exponent The exponent value.
-     * @return The result of raising the base to the exponent.
-     * @throws IllegalArgumentException If raising a negative number to a fractional power is attempted.
+     * @param operands The stack of operands.
+     * @param token    The operator or function taking the operand.
+     * @return The operand.
+     * @throws IllegalArgumentException If the stack is empty.
      */
-    private double power(double base, double exponent) {
-        if (base < 0 && Math.floor(exponent) != exponent) {
-            // Raising a negative number to a fractional power is undefined
-            throw new IllegalArgumentException("Raising a negative number to a fractional power is undefined");
+    private static String popOperand(Deque<String> operands, String token) {
+        if (operands.isEmpty()) {
+            throw new IllegalArgumentException("Missing operand for: " + token);
         }
-
-        return Math.pow(base, exponent);
+        return operands.pop();
     }
 
     /**
-     * Sets the function registry to be used for mathematical operations.
+     * Checks if a given character is a valid arithmetic operator.
      *
-     * @param functionRegistry The function registry to be set.
+     * @param c The character to check.
+     * @return True if the character is an operator, false otherwise.
      */
-    public void setFunctionRegistry(FunctionRegistry functionRegistry) {
-        this.functionRegistry = functionRegistry;
+    private boolean isOperator(char c) {
+        return c == '+' || c == '-' || c == '*' || c == '/' || c == '^';
     }
 
     /**
-     * Applies the specified function on the given argument using the registered function in the function registry.
+     * Sets the function registry to be used for mathematical operations.
      *
-     * @param functionName The name of the function to be applied.
-     * @param argument The argument on which the function is applied.
-     * @return The result of applying the function on the given argument.
-     * @throws IllegalArgumentException If the function registry is not set or does not contain the specified function.
+     * @param functionRegistry The function registry to be set.
      */
-    private double applyFunction(String functionName, double argument) {
-        if (functionRegistry != null && functionRegistry.containsFunction(functionName)) {
-            double result = functionRegistry.getFunction(functionName).calculate(argument);
-            // Uncomment as needed (replace '2' with the value you want after the comma)
-            //System.out.printf("Performed operation: %s(%.2f) = %.2f%n", functionName, argument, result);
-            return result;
-        } else {
-            throw new IllegalArgumentException("Unknown function: " + functionName);
-        }
+    public void setFunctionRegistry(FunctionRegistry functionRegistry) {
+        this.functionRegistry = functionRegistry;
+        this.compiledExpression = null;
     }
 
     /**
@@ -1,7 +1,9 @@
 package com.shpp.p2p.cs.ikopach.assignment11;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The MathExpressionEvaluator class is responsible for evaluating mathematical expressions.
@@ -11,14 +13,41 @@ import java.util.Map;
 public class MathExpressionEvaluator {
     private final MathExpressionParser parser;
     private final FunctionRegistry functionRegistry;
+    private final ExpressionCache cache;
+    private volatile int functionVersion;
 
     /**
-     * Constructs a MathExpressionEvaluator with an internal MathExpressionParser.
+     * Constructs a MathExpressionEvaluator with an internal MathExpressionParser
+     * and a cache of {@code ExpressionCache.DEFAULT_MAXIMUM_SIZE} compiled expressions.
      */
     public MathExpressionEvaluator() {
+        this(ExpressionCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Constructs a MathExpressionEvaluator with an internal MathExpressionParser
+     * and a cache of the given number of compiled expressions.
+     *
+     * @param cacheSize The maximum number of compiled expressions to keep.
+     */
+    public MathExpressionEvaluator(int cacheSize) {
+        this(cacheSize, FunctionRegistry.create());
+    }
+
+    /**
+     * Constructs a MathExpressionEvaluator with an internal MathExpressionParser, a cache of the
+     * given number of compiled expressions, and the given functions, such as the fast-math
+     * functions of {@code FunctionRegistry.create(true)}.
+     *
+     * @param cacheSize        The maximum number of compiled expressions to keep.
+     * @param functionRegistry The registry used to resolve functions.
+     */
+    public MathExpressionEvaluator(int cacheSize, FunctionRegistry functionRegistry) {
         // Create a new MathExpressionParser for parsing mathematical expressions
-        this.parser = new MathExpressionParser();
-        this.functionRegistry = new FunctionRegistry();
+        this.parser = new MathExpressionParser(functionRegistry);
+        this.functionRegistry = functionRegistry;
+        this.cache = new ExpressionCache(cacheSize);
+        this.functionVersion = functionRegistry.getVersion();
     }
 
     /**
@@ -28,27 +57,267 @@ public class MathExpressionEvaluator {
      * @param expression The mathematical expression to evaluate.
      * @param values     Variable values for calculation.
      * @return The result of the evaluation.
+     * @throws IllegalArgumentException If there is no value for one of the variables.
      */
     public double evaluate(String expression, Map<String, Double> values) {
+        // Parse and compile the expression; a cache miss is timed as a parse and a compilation
+        CompiledExpression compiledExpression = compile(expression);
+        if (!ExpressionMetrics.ENABLED) {
+            // Bind the values by slot, which fails on variables without values, and calculate the result
+            return compiledExpression.newBinder().bind(values).evaluate();
+        }
+
+        long start = System.nanoTime();
+        try {
+            double result = compiledExpression.newBinder().bind(values).evaluate();
+            ExpressionMetrics.get().recordEvaluation(expression, System.nanoTime() - start, null);
+            return result;
+        } catch (RuntimeException e) {
+            ExpressionMetrics.get().recordEvaluation(expression, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Evaluates the given mathematical expression together with its partial derivative by every
+     * variable, in a single forward and backward pass. Callers computing many gradients of the
+     * same formula should keep a {@code GradientEvaluator} from {@code compile(expression)} instead,
+     * which reuses its tape.
+     *
+     * @param expression The mathematical expression to evaluate.
+     * @param values     Variable values for calculation.
+     * @param gradient   The map receiving the partial derivative by every variable of the expression.
+     * @return The result of the evaluation.
+     * @throws IllegalArgumentException If there is no value for one of the variables.
+     */
+    public double evaluateGradient(String expression, Map<String, Double> values, Map<String, Double> gradient) {
+        return compile(expression).newGradientEvaluator().evaluate(values, gradient);
+    }
+
+    /**
+     * Computes guaranteed bounds of the given mathematical expression over a box of variable
+     * values in a single pass of interval arithmetic, instead of sampling the box.
+     *
+     * @param expression The mathematical expression to evaluate.
+     * @param ranges     The interval of every variable, as an array holding its lower and upper end.
+     * @return The lower and the upper bound of the expression, or two NaNs if it may fail or be
+     *         undefined somewhere in the box.
+     * @throws IllegalArgumentException If there is no interval for one of the variables.
+     */
+    public double[] evaluateRange(String expression, Map<String, double[]> ranges) {
+        IntervalEvaluator intervalEvaluator = compile(expression).newIntervalEvaluator().bind(ranges).evaluate();
+        return new double[]{intervalEvaluator.getLow(), intervalEvaluator.getHigh()};
+    }
+
+    /**
+     * Evaluates the given mathematical expression for many sets of variable values in parallel.
+     * The expression is compiled once and shared by all worker threads of the common fork/join pool.
+     *
+     * @param expression The mathematical expression to evaluate.
+     * @param bindings   The variable values of every row.
+     * @return The result of every row, in the order of {@code bindings}.
+     * @throws IllegalArgumentException If a row has no value for one of the variables.
+     */
+    public double[] evaluateAll(String expression, List<Map<String, Double>> bindings) {
+        return evaluateAll(expression, bindings, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluates the given mathematical expression for many sets of variable values in parallel
+     * on the given fork/join pool.
+     *
+     * @param expression The mathematical expression to evaluate.
+     * @param bindings   The variable values of every row.
+     * @param pool       The pool whose threads evaluate the rows.
+     * @return The result of every row, in the order of {@code bindings}.
+     * @throws IllegalArgumentException If a row has no value for one of the variables.
+     */
+    public double[] evaluateAll(String expression, List<Map<String, Double>> bindings, ForkJoinPool pool) {
+        CompiledExpression compiledExpression = compile(expression);
+
+        // Random access is needed to split the rows between tasks
+        List<Map<String, Double>> rows = bindings instanceof RandomAccess ? bindings : new ArrayList<>(bindings);
+        double[] results = new double[rows.size()];
+        pool.invoke(new ParallelEvaluationTask(compiledExpression, rows, results, 0, rows.size()));
+        return results;
+    }
+
+    /**
+     * Parses the given mathematical expression once and compiles it into an immutable
+     * {@code CompiledExpression}, which can then be evaluated many times with different values.
+     * Compiled expressions are cached, so a formula seen before is not parsed again,
+     * until a function is registered and the cache is cleared.
+     *
+     * @param expression The mathematical expression to compile.
+     * @return The compiled expression.
+     */
+    public CompiledExpression compile(String expression) {
+        return compile(expression, null);
+    }
+
+    /**
+     * Returns the cached compiled expression for the given formula, caching the given one
+     * or, if there is none, compiling the formula on a miss.
+     *
+     * @param expression The mathematical expression to compile.
+     * @param compiled   The already compiled expression, or null.
+     * @return The compiled expression.
+     */
+    private CompiledExpression compile(String expression, CompiledExpression compiled) {
+        int version = functionRegistry.getVersion();
+        if (version != functionVersion) {
+            // A registered function may change the meaning of a cached formula
+            cache.clear();
+            functionVersion = version;
+        }
+        return cache.get(expression, compiled == null ? this::parseAndCompile : formula -> compiled);
+    }
+
+    /**
+     * Parses the given formulas and compiles them together into a {@code FormulaSet}: one program
+     * over one table of variable slots, in which subexpressions shared by several formulas are
+     * computed once. Evaluating the set for a row returns the result of every formula.
+     * Formula sets are not cached.
+     *
+     * @param formulas The formulas to compile, in the order of their results.
+     * @return The compiled formula set.
+     * @throws IllegalArgumentException If there are no formulas or a formula is malformed.
+     */
+    public FormulaSet compileSet(List<String> formulas) {
+        if (formulas.isEmpty()) {
+            throw new IllegalArgumentException("Please provide at least one formula");
+        }
+
+        // Every tree assigns its variables in the same slot table
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        ExpressionNode[] roots = new ExpressionNode[formulas.size()];
+        for (int i = 0; i < roots.length; i++) {
+            MathExpression mathExpression = parser.parse(formulas.get(i), new HashMap<>());
+            mathExpression.setFunctionRegistry(functionRegistry);
+            roots[i] = mathExpression.toTree(slots);
+        }
+        if (!ExpressionMetrics.ENABLED) {
+            return new FormulaSet(formulas, roots, slots.keySet().toArray(new String[0]));
+        }
+
+        long start = System.nanoTime();
+        try {
+            FormulaSet formulaSet = new FormulaSet(formulas, roots, slots.keySet().toArray(new String[0]));
+            ExpressionMetrics.get().recordCompile(System.nanoTime() - start, null);
+            return formulaSet;
+        } catch (RuntimeException e) {
+            ExpressionMetrics.get().recordCompile(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Compiles the given formulas and stores their programs in a snapshot file, which
+     * {@code loadSnapshot} reads back after a restart instead of parsing the formulas again.
+     *
+     * @param file     The snapshot file, which is created or replaced.
+     * @param formulas The formulas to store.
+     * @throws IOException              If the file cannot be written.
+     * @throws IllegalArgumentException If a formula is malformed.
+     */
+    public void saveSnapshot(Path file, Collection<String> formulas) throws IOException {
+        Map<String, CompiledExpression> expressions = new LinkedHashMap<>();
+        for (String formula : formulas) {
+            expressions.put(ExpressionCache.normalize(formula), compile(formula));
+        }
+        ExpressionSnapshot.write(file, expressions, functionRegistry);
+    }
+
+    /**
+     * Fills the cache with the given formulas, taking their programs from a snapshot file
+     * written by {@code saveSnapshot}. Formulas that the snapshot does not hold are compiled;
+     * so are all of them if the file is missing, was written by another version or with other
+     * functions, or is damaged. The cache should be large enough to hold every formula.
+     *
+     * @param file     The snapshot file.
+     * @param formulas The formulas to load.
+     * @return The number of formulas taken from the snapshot rather than compiled.
+     * @throws IOException              If the file exists but cannot be read.
+     * @throws IllegalArgumentException If a formula that has to be compiled is malformed.
+     */
+    public int loadSnapshot(Path file, Collection<String> formulas) throws IOException {
+        Map<String, CompiledExpression> snapshot = ExpressionSnapshot.read(file, functionRegistry);
+        int loaded = 0;
+        for (String formula : formulas) {
+            CompiledExpression stored = snapshot.get(ExpressionCache.normalize(formula));
+            if (stored != null) {
+                loaded++;
+            }
+            compile(formula, stored);
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns the registry of the functions this evaluator recognizes. Functions registered
+     * in it are available to every formula compiled afterwards.
+     *
+     * @return The function registry of this evaluator.
+     */
+    public FunctionRegistry getFunctionRegistry() {
+        return functionRegistry;
+    }
+
+    /**
+     * Returns the cache of compiled expressions, with its hit, miss and eviction counters.
+     *
+     * @return The expression cache of this evaluator.
+     */
+    public ExpressionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Parses and compiles an expression, bypassing the cache.
+     *
+     * @param expression The mathematical expression to compile.
+     * @return The compiled expression.
+     */
+    private CompiledExpression parseAndCompile(String expression) {
         // Parse the expression and create a MathExpression object
         MathExpression mathExpression = parser.parse(expression, new HashMap<>());
 
         // Set the FunctionRegistry for MathExpression
         mathExpression.setFunctionRegistry(functionRegistry);
 
-        // Check for variables without values
-        for (String variable : mathExpression.getVariables()) {
-            if (!values.containsKey(variable)) {
-                System.out.println("Please provide a value for variable: " + variable);
-                return (0.0); // or throw an exception if you prefer
+        return mathExpression.compile();
+    }
+
+    /**
+     * Evaluates the given mathematical expression for every row of the given variable columns.
+     * The expression is compiled once and evaluated chunk by chunk across the columns.
+     *
+     * @param expression The mathematical expression to evaluate.
+     * @param columns    The values of every variable, one column per variable name.
+     * @param rowCount   The number of rows to evaluate.
+     * @return The column of results, one per row.
+     * @throws IllegalArgumentException If a variable has no column or a column is shorter than {@code rowCount}.
+     */
+    public double[] evaluateColumns(String expression, Map<String, double[]> columns, int rowCount) {
+        CompiledExpression compiledExpression = compile(expression);
+
+        // Arrange the columns by variable slot
+        double[][] slotColumns = new double[compiledExpression.getSlotCount()][];
+        for (int slot = 0; slot < slotColumns.length; slot++) {
+            String variable = compiledExpression.getSlotName(slot);
+            double[] column = columns.get(variable);
+            if (column == null) {
+                throw new IllegalArgumentException("Please provide a column for variable: " + variable);
             }
+            if (column.length < rowCount) {
+                throw new IllegalArgumentException("The column for variable " + variable + " has only "
+                        + column.length + " rows");
+            }
+            slotColumns[slot] = column;
         }
 
-        // Set variable values for MathExpression
-        mathExpression.setVariableValues(values);
-
-        // Calculate and return the result of the expression
-        return mathExpression.calculate();
+        double[] results = new double[rowCount];
+        new BatchEvaluator(compiledExpression).evaluate(slotColumns, results, rowCount);
+        return results;
     }
 }
-
@@ -4,260 +4,362 @@ import java.util.*;
 
 /**
  * The `MathExpressionParser` class is responsible for parsing mathematical expressions,
- * converting them to Reverse Polish Notation (RPN), and creating corresponding
- * `MathExpression` objects.
+ * building their expression trees with a {@code PrattParser}, and creating corresponding
+ * `MathExpression` objects. Operators follow the usual precedence: {@code ^} binds tightest and
+ * is right-associative, then unary minus, then {@code * /}, then {@code + -}. Malformed formulas
+ * are reported as {@code ExpressionParseException} with the offset of the error.
  */
 public class MathExpressionParser {
+    static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final String[] SYMBOLS = new String[128];
+
+    static {
+        for (char c : "+-*/^();".toCharArray()) {
+            SYMBOLS[c] = String.valueOf(c);
+        }
+    }
+
+    private final FunctionRegistry functionRegistry;
+
+    /**
+     * Constructs a MathExpressionParser that recognizes the functions of a default {@code FunctionRegistry}.
+     */
     public MathExpressionParser() {
+        this(FunctionRegistry.create());
+    }
+
+    /**
+     * Constructs a MathExpressionParser that recognizes the functions of the given registry,
+     * including functions registered after the parser was created.
+     *
+     * @param functionRegistry The registry whose function names are recognized.
+     */
+    public MathExpressionParser(FunctionRegistry functionRegistry) {
+        this.functionRegistry = functionRegistry;
     }
 
     /**
      * Parses the given mathematical expression and creates a `MathExpression` object
-     * in Reverse Polish Notation (RPN).
+     * holding its expression tree.
      *
      * @param formula   The mathematical expression to parse.
      * @param variables A map of variable names and their corresponding values.
-     * @return A `MathExpression` object in RPN form.
+     * @return A `MathExpression` object.
+     * @throws ExpressionParseException If the expression is malformed.
      */
     public MathExpression parse(String formula, HashMap<String, Double> variables) {
-        // Remove spaces from the formula for uniform processing
-        formula = formula.replaceAll("\\s", "");
+        if (!ExpressionMetrics.ENABLED) {
+            return parseFormula(formula, variables);
+        }
 
-        // Tokenize the formula and convert it to RPN
-        List<String> tokens = tokenize(formula, variables);
-        Queue<String> rpn = toRPN(tokens);
+        // Time the parse, whether it succeeds or not
+        long start = System.nanoTime();
+        try {
+            MathExpression mathExpression = parseFormula(formula, variables);
+            ExpressionMetrics.get().recordParse(System.nanoTime() - start, null);
+            return mathExpression;
+        } catch (RuntimeException e) {
+            ExpressionMetrics.get().recordParse(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
 
-        // Return a MathExpression object with the RPN representation
-        return new MathExpression(rpn);
+    /**
+     * Parses the given mathematical expression into an expression tree, without collecting metrics.
+     *
+     * @param formula   The mathematical expression to parse.
+     * @param variables A map of variable names and their corresponding values.
+     * @return A `MathExpression` object.
+     */
+    private MathExpression parseFormula(String formula, HashMap<String, Double> variables) {
+        // Read the version first, so a function registered during the parse makes the tree stale
+        int version = functionRegistry.getVersion();
+
+        // Tokenize the formula, skipping whitespace on the way, and build its tree
+        List<Token> tokens = tokenize(formula, variables);
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        ExpressionNode tree = new PrattParser(formula, tokens, functionRegistry, slots).parse();
+
+        // Return a MathExpression object with the tree and its variables
+        return new MathExpression(tree, slots.keySet().toArray(new String[0]), functionRegistry, version, formula);
     }
 
     /**
-     * Tokenizes the given mathematical expression, handling operators, variables,
-     * and literals, and returns a list of tokens.
+     * Tokenizes the given mathematical expression in a single pass, handling operators, variables,
+     * and literals, and returns a list of typed tokens. Whitespace is ignored wherever it appears.
+     * Numbers and names are located by their start and end offsets; numbers are parsed straight
+     * from the characters, and only names become strings.
      *
      * @param expression          The mathematical expression to tokenize.
      * @param variableDefinitions A map of variable names and their corresponding values.
      * @return A list of tokens representing the expression.
      */
-    private List<String> tokenize(String expression, HashMap<String, Double> variableDefinitions) {
-        // Initialize a list to store tokens and a StringBuilder for the current token
-        List<String> tokens = new ArrayList<>();
-        StringBuilder currentToken = new StringBuilder();
+    private List<Token> tokenize(String expression, HashMap<String, Double> variableDefinitions) {
+        List<Token> tokens = new ArrayList<>();
+        int length = expression.length();
+        // The start of the number or name being read, or -1 if there is none
+        int tokenStart = -1;
 
-        // Iterate through each character in the expression
-        for (int i = 0; i < expression.length(); i++) {
+        for (int i = 0; i < length; i++) {
             char c = expression.charAt(i);
-            c = (c == ',') ? '.' : c;
-
-            // Check if the character is an operator or parentheses
-            if (isOperator(c) || c == '(' || c == ')') {
-                // Process the current token if not empty
-                if (!currentToken.isEmpty()) {
-                    tokens.add(currentToken.toString());
-                    currentToken.setLength(0);
-                }
+            if (isWhitespace(c)) {
+                continue;
+            }
 
-                // Handle negative numbers at the beginning or after an operator or open parenthesis
-                if (c == '-' && (i == 0 || expression.charAt(i - 1) == '(' || isOperator(expression.charAt(i - 1)))) {
-                    currentToken.append(c);
-                } else {
-                    tokens.add(String.valueOf(c));
+            // Check if the character is an operator, a parenthesis or an argument separator
+            if (isOperator(c) || c == '(' || c == ')' || c == ';') {
+                // Process the current token if there is one
+                if (tokenStart >= 0) {
+                    addToken(tokens, expression, tokenStart, i, false);
+                    tokenStart = -1;
                 }
-            } else if (Character.isDigit(c) || c == '.') {
-                // Continue building the current token if the character is a digit or a dot
-                currentToken.append(c);
 
-                // Process the current token if at the end of the expression
-                if (i == expression.length() - 1) {
-                    tokens.add(currentToken.toString());
-                }
-            } else if (Character.isLetter(c)) {
-                // Continue building the current token if the character is a letter (part of a variable or function)
-                currentToken.append(c);
-
-                // Process the current token if at the end of the expression
-                if (i == expression.length() - 1) {
-                    String token = currentToken.toString();
-                    if (isFunction(token)) {
-                        // Handle the function case
-                        tokens.add(token);
-                    } else {
-                        // Handle the variable case
-                        tokens.add(currentToken.toString());
-                    }
+                // A minus sign is always an operator; the parser tells negation from subtraction
+                tokens.add(symbol(c, expression, i));
+            } else if (isTokenCharacter(c)) {
+                // Start a number, or the name of a variable or function, unless one is being read
+                if (tokenStart < 0) {
+                    tokenStart = i;
                 }
             } else if (c == '"') {
+                if (tokenStart >= 0) {
+                    addToken(tokens, expression, tokenStart, i, false);
+                    tokenStart = -1;
+                }
+
                 // Handle quoted expressions
                 int closingQuoteIndex = expression.indexOf('"', i + 1);
                 if (closingQuoteIndex == -1) {
-                    throw new IllegalArgumentException("Unmatched quote in the expression.");
+                    throw new ExpressionParseException("Unmatched quote", expression, i);
                 }
-
-                // Extract the quoted expression and add it to the tokens
-                String quotedExpression = expression.substring(i + 1, closingQuoteIndex);
-                tokens.add(quotedExpression);
+                addToken(tokens, expression, i + 1, closingQuoteIndex, true);
                 i = closingQuoteIndex;
             }
         }
-        for (int i = 0; i < tokens.size(); i++) {
-            String token = tokens.get(i);
 
-            // Check if the token ends with a dot
-            if (token.endsWith(".")) {
-                // Add ".0" to the token
-                tokens.set(i, token + "0");
-            }
-            // Check if the token starts with a dot
-            if (token.startsWith(".")) {
-                // Add "0" before the token
-                tokens.set(i, "0" + token);
-            }
-            // Check if the token starts with "-."
-            if (token.startsWith("-.")) {
-                // Add "0" before the token and remove the leading "-"
-                tokens.set(i, "-0" + token.substring(1));
-            }
+        // Process the token at the end of the expression
+        if (tokenStart >= 0) {
+            addToken(tokens, expression, tokenStart, length, false);
         }
-
         return tokens;
     }
 
     /**
-     * Checks if a given string represents a numeric value.
+     * Creates the token of an operator, a parenthesis or an argument separator.
      *
-     * @param str The string to check.
-     * @return True if the string is numeric, false otherwise.
+     * @param c          The operator, parenthesis or separator character.
+     * @param expression The mathematical expression.
+     * @param offset     The offset of the character in the expression.
+     * @return The new token.
      */
-    private boolean isNumeric(String str) {
-        try {
-            Double.parseDouble(str);
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
-        }
+    private Token symbol(char c, String expression, int offset) {
+        Token.Type type = switch (c) {
+            case '(' -> Token.Type.LEFT_PAREN;
+            case ')' -> Token.Type.RIGHT_PAREN;
+            case ';' -> Token.Type.SEPARATOR;
+            default -> Token.Type.OPERATOR;
+        };
+        return new Token(type, SYMBOLS[c], 0.0, expression, offset, offset + 1);
     }
 
     /**
-     * Checks if a given character is an operator.
+     * Classifies the number, variable or function found between the given offsets and adds the
+     * typed token to the list. Whitespace is skipped, and so are characters that cannot be part
+     * of a token unless the token was quoted. A leading minus sign, which only a quoted token
+     * can have, is part of a negative number; in front of a name it is dropped. A comma is read
+     * as a decimal point.
      *
-     * @param c The character to check.
-     * @return True if the character is an operator, false otherwise.
+     * @param tokens     The list of tokens to add to.
+     * @param expression The mathematical expression.
+     * @param start      The offset of the first character of the token.
+     * @param end        The offset after the last character of the token.
+     * @param quoted     True if the token was written in quotes.
+     * @throws ExpressionParseException If the text is neither a number nor a name.
      */
-    private boolean isOperator(char c) {
-        return c == '+' || c == '-' || c == '*' || c == '/' || c == '^' ;
+    private void addToken(List<Token> tokens, String expression, int start, int end, boolean quoted) {
+        // Trim the range, so the offsets point at the token itself
+        while (start < end && isWhitespace(expression.charAt(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(expression.charAt(end - 1))) {
+            end--;
+        }
+
+        int bodyStart = start;
+        if (end - start > 1 && expression.charAt(start) == '-') {
+            bodyStart = nextSignificant(expression, start + 1, end, quoted);
+        }
+        boolean negative = bodyStart != start;
+        char first = bodyStart < end ? expression.charAt(bodyStart) : 0;
+
+        if (first == 0 && !negative) {
+            if (quoted) {
+                throw new ExpressionParseException("Invalid token: \"\"", expression, start);
+            }
+            return;
+        }
+        if (isDigit(first) || first == '.' || first == ',') {
+            double value = parseNumber(expression, bodyStart, end, quoted);
+            tokens.add(new Token(Token.Type.NUMBER, null, negative ? -value : value, expression, start, end));
+            return;
+        }
+
+        String name = name(expression, bodyStart, end, quoted);
+        if (name.equals("-")) {
+            // A sign with nothing after it is dropped, unless it was quoted
+            if (!quoted) {
+                return;
+            }
+            tokens.add(new Token(Token.Type.OPERATOR, "-", 0.0, expression, start, end));
+        } else if (isFunction(name)) {
+            tokens.add(new Token(Token.Type.FUNCTION, name, 0.0, expression, start, end));
+        } else if (isVariable(name)) {
+            tokens.add(new Token(Token.Type.VARIABLE, name, 0.0, expression, start, end));
+        } else {
+            throw new ExpressionParseException("Invalid token: " + expression.substring(start, end), expression, start);
+        }
     }
 
     /**
-     * Converts a list of tokens to Reverse Polish Notation (RPN) using the
-     * Shunting Yard algorithm.
+     * Parses a decimal literal (digits with at most one decimal point) straight from the expression.
+     * Literals of up to 15 digits with up to 22 decimals are computed exactly from their digits;
+     * longer ones fall back to {@code Double.parseDouble}.
      *
-     * @param tokens The list of tokens to convert.
-     * @return A queue representing the expression in RPN.
+     * @param expression The mathematical expression.
+     * @param start      The offset of the first character of the literal.
+     * @param end        The offset after the last character of the literal.
+     * @param quoted     True if the literal was written in quotes.
+     * @return The value of the literal.
+     * @throws ExpressionParseException If the text is not a decimal literal.
      */
-    private Queue<String> toRPN(List<String> tokens) {
-        // Output queue to store the final RPN expression
-        Queue<String> outputQueue = new LinkedList<>();
-
-        // Operator stack to temporarily store operators and functions during conversion
-        Stack<String> operatorStack = new Stack<>();
-
-        // Iterate through each token in the input list
-        for (String token : tokens) {
-            // Check if the token is a mathematical function
-            if (isFunction(token)) {
-                operatorStack.push(token);
-            }
-            // Check if the token is a numeric constant or variable
-            else if (isNumeric(token) || isVariable(token)) {
-                outputQueue.offer(token);
-            }
-            // Check if the token is a negative number (e.g., '-3' is treated as '0 - 3')
-            else if (token.charAt(0) == '-' && token.length() > 1) {
-                outputQueue.offer(token.substring(1));
-            }
-            // Check if the token is an operator
-            else if (isOperator(token.charAt(0))) {
-                char currentOperator = token.charAt(0);
-
-                // Pop operators from the stack and add to the output queue
-                // based on precedence and associativity rules
-                while (!operatorStack.isEmpty() && (isFunction(operatorStack.peek()) ||
-                        (isOperator(operatorStack.peek().charAt(0)) &&
-                                hasHigherPrecedence(currentOperator, operatorStack.peek().charAt(0))))) {
-                    outputQueue.offer(operatorStack.pop());
-                }
+    private double parseNumber(String expression, int start, int end, boolean quoted) {
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean point = false;
 
-                // Push the current operator onto the stack
-                operatorStack.push(String.valueOf(currentOperator));
-            }
-            // Check if the token is an opening parenthesis
-            else if (token.charAt(0) == '(') {
-                operatorStack.push(token);
+        for (int i = start; i < end; i++) {
+            char c = expression.charAt(i);
+            if (isDigit(c)) {
+                mantissa = digits < 18 ? mantissa * 10 + (c - '0') : mantissa;
+                digits++;
+                decimals += point ? 1 : 0;
+            } else if ((c == '.' || c == ',') && !point) {
+                point = true;
+            } else if (!isWhitespace(c) && (quoted || isTokenCharacter(c))) {
+                throw new ExpressionParseException("Invalid token: " + expression.substring(start, end),
+                        expression, start);
             }
-            // Check if the token is a closing parenthesis
-            else if (token.charAt(0) == ')') {
-                // Pop operators from the stack and add to the output queue until an opening parenthesis is encountered
-                while (!operatorStack.isEmpty() && !operatorStack.peek().equals("(")) {
-                    outputQueue.offer(operatorStack.pop());
-                }
+        }
+        if (digits == 0) {
+            throw new ExpressionParseException("Invalid token: " + expression.substring(start, end), expression, start);
+        }
 
-                // Pop the opening parenthesis from the stack
-                if (!operatorStack.isEmpty() && operatorStack.peek().equals("(")) {
-                    operatorStack.pop();
-                }
+        // Both operands are exact doubles, so the quotient is correctly rounded
+        if (digits <= 15 && decimals < POWERS_OF_TEN.length) {
+            return mantissa / POWERS_OF_TEN[decimals];
+        }
+        return Double.parseDouble(name(expression, start, end, quoted));
+    }
 
-                // If the next token on the stack is a function, pop and add to the output queue
-                if (!operatorStack.isEmpty() && isFunction(operatorStack.peek())) {
-                    outputQueue.offer(operatorStack.pop());
-                }
+    /**
+     * Returns the name between the given offsets, without whitespace (and, unless quoted,
+     * without characters that cannot be part of a token), with commas read as decimal points.
+     *
+     * @param expression The mathematical expression.
+     * @param start      The offset of the first character of the name.
+     * @param end        The offset after the last character of the name.
+     * @param quoted     True if the name was written in quotes.
+     * @return The name.
+     */
+    private String name(String expression, int start, int end, boolean quoted) {
+        StringBuilder name = null;
+        for (int i = start; i < end; i++) {
+            char c = expression.charAt(i);
+            boolean skipped = isWhitespace(c) || (!quoted && !isTokenCharacter(c) && !(i == start && c == '-'));
+            if (name == null && (skipped || c == ',')) {
+                // Only names with gaps or commas need to be copied character by character
+                name = new StringBuilder(end - start).append(expression, start, i);
+            }
+            if (name != null && !skipped) {
+                name.append(c == ',' ? '.' : c);
             }
         }
+        return name == null ? expression.substring(start, end) : name.toString();
+    }
 
-        // Pop any remaining operators from the stack and add to the output queue
-        while (!operatorStack.isEmpty()) {
-            outputQueue.offer(operatorStack.pop());
+    /**
+     * Returns the offset of the next character that belongs to a token.
+     *
+     * @param expression The mathematical expression.
+     * @param from       The offset to start from.
+     * @param end        The offset to stop at.
+     * @param quoted     True if the token was written in quotes.
+     * @return The offset of the next significant character, or {@code end} if there is none.
+     */
+    private int nextSignificant(String expression, int from, int end, boolean quoted) {
+        while (from < end) {
+            char c = expression.charAt(from);
+            if (!isWhitespace(c) && (quoted || isTokenCharacter(c))) {
+                break;
+            }
+            from++;
         }
+        return from;
+    }
 
-        // Return the final RPN expression in the form of a queue
-        return outputQueue;
+    /**
+     * Checks if a character can be part of a number or a name.
+     *
+     * @param c The character to check.
+     * @return True if the character is a digit, a letter, a decimal point or a comma.
+     */
+    private static boolean isTokenCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == ',';
     }
+
     /**
-     * Checks if a given string represents a variable (starts with a letter).
+     * Checks if a character is an ASCII digit.
      *
-     * @param str The string to check.
-     * @return True if the string represents a variable, false otherwise.
+     * @param c The character to check.
+     * @return True if the character is a digit, false otherwise.
      */
-    private boolean isVariable(String str) {
-        return Character.isLetter(str.charAt(0));
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
     /**
-     * Gets the precedence of an operator.
+     * Checks if a character is whitespace in the sense of the regular expression {@code \\s},
+     * which is what the parser has always ignored.
      *
-     * @param operator The operator to get precedence for.
-     * @return The precedence value.
+     * @param c The character to check.
+     * @return True if the character is whitespace, false otherwise.
      */
-    private int getPrecedence(char operator) {
-        return switch (operator) {
-            case '+', '-' -> 4;
-            case '*', '/' -> 3;
-            case '^' -> 2;
-            default -> -1;
-        };
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     /**
-     * Checks if one operator has higher precedence than another.
+     * Checks if a given character is an operator.
      *
-     * @param op1 The first operator.
-     * @param op2 The second operator.
-     * @return True if op1 has higher or equal precedence, false otherwise.
+     * @param c The character to check.
+     * @return True if the character is an operator, false otherwise.
      */
-    private boolean hasHigherPrecedence(char op1, char op2) {
-        int precedence1 = getPrecedence(op1);
-        int precedence2 = getPrecedence(op2);
+    private boolean isOperator(char c) {
+        return c == '+' || c == '-' || c == '*' || c == '/' || c == '^' ;
+    }
 
-        return precedence1 >= precedence2;
+    /**
+     * Checks if a given string represents a variable (starts with a letter).
+     *
+     * @param str The string to check.
+     * @return True if the string represents a variable, false otherwise.
+     */
+    private boolean isVariable(String str) {
+        return !str.isEmpty() && Character.isLetter(str.charAt(0));
     }
 
     /**
@@ -267,9 +369,7 @@ public class MathExpressionParser {
      * @return True if the string represents a function, false otherwise.
      */
     private boolean isFunction(String str) {
-        // List of supported functions
-        List<String> supportedFunctions = Arrays.asList("sin", "cos", "tan", "atan", "log10", "log2", "sqrt");
-
-        return supportedFunctions.contains(str);
+        // The registry looks the name up in a hash map
+        return functionRegistry.containsFunction(str);
     }
 }
\ No newline at end of file
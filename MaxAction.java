@@ -0,0 +1,78 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The MaxAction class implements the {@code IMultiAction} interface
+ * and provides a method to calculate the larger of two numbers.
+ */
+public class MaxAction implements IMultiAction {
+
+    /**
+     * Returns the number of arguments of the action.
+     *
+     * @return The number of arguments, 2.
+     */
+    @Override
+    public int getArity() {
+        return 2;
+    }
+
+    /**
+     * Calculates the maximum of the two arguments.
+     *
+     * @param arguments The array holding the arguments.
+     * @param offset    The index of the first argument in the array.
+     * @return The maximum of the arguments.
+     */
+    @Override
+    public double calculate(double[] arguments, int offset) {
+        return Math.max(arguments[offset], arguments[offset + 1]);
+    }
+
+    /**
+     * Calculates the maximums of the first {@code n} rows of the two argument columns in a loop of
+     * their own.
+     *
+     * @param arguments The argument columns.
+     * @param offset    The index of the column of the first argument.
+     * @param out       The array receiving the results.
+     * @param n         The number of rows to calculate.
+     */
+    @Override
+    public void calculate(double[][] arguments, int offset, double[] out, int n) {
+        double[] first = arguments[offset];
+        double[] second = arguments[offset + 1];
+        for (int i = 0; i < n; i++) {
+            out[i] = Math.max(first[i], second[i]);
+        }
+    }
+
+    /**
+     * Calculates the partial derivative of the maximum: 1 for the larger argument, 0 for the other.
+     * On a tie, the first argument counts as the larger one.
+     *
+     * @param arguments The array holding the arguments.
+     * @param offset    The index of the first argument in the array.
+     * @param index     The position of the argument to differentiate by, 0 or 1.
+     * @return The partial derivative at the arguments.
+     */
+    @Override
+    public double derivative(double[] arguments, int offset, int index) {
+        boolean firstIsMaximum = arguments[offset] >= arguments[offset + 1];
+        return firstIsMaximum == (index == 0) ? 1.0 : 0.0;
+    }
+
+    /**
+     * Calculates the range of the maximum: the maximum of the lower ends and the maximum of the
+     * upper ends, which is exact.
+     *
+     * @param lows   The array holding the lower ends of the argument intervals.
+     * @param highs  The array holding the upper ends of the argument intervals.
+     * @param offset The index of the first argument in the arrays.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    @Override
+    public void range(double[] lows, double[] highs, int offset, double[] bounds) {
+        bounds[0] = Math.max(lows[offset], lows[offset + 1]);
+        bounds[1] = Math.max(highs[offset], highs[offset + 1]);
+    }
+}
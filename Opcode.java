@@ -0,0 +1,52 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The Opcode class defines the instructions of a compiled expression program.
+ * Each instruction is a single byte; instructions that need an argument take it
+ * from the operand array of the program at the same position.
+ */
+final class Opcode {
+    /** Pushes the constant with the operand index. */
+    static final byte CONST = 0;
+    /** Pushes the value of the variable slot with the operand index. */
+    static final byte LOAD = 1;
+    static final byte ADD = 2;
+    static final byte SUB = 3;
+    static final byte MUL = 4;
+    static final byte DIV = 5;
+    static final byte POW = 6;
+    /** Replaces the top of the stack with the result of the function with the operand index. */
+    static final byte CALL = 7;
+    /** Pushes a copy of the value on top of the stack. */
+    static final byte DUP = 8;
+    /** Copies the value on top of the stack to the temporary register with the operand index. */
+    static final byte STORE_TEMP = 9;
+    /** Pushes the value of the temporary register with the operand index. */
+    static final byte LOAD_TEMP = 10;
+    /**
+     * Replaces the arguments on top of the stack with the result of the function of several
+     * arguments with the operand index.
+     */
+    static final byte CALL_MULTI = 11;
+
+    private Opcode() {
+    }
+
+    /**
+     * Returns the opcode of the given arithmetic operator.
+     *
+     * @param operator The operator character.
+     * @return The opcode of the operator.
+     * @throws IllegalArgumentException If the operator is unknown.
+     */
+    static byte forOperator(char operator) {
+        return switch (operator) {
+            case '+' -> ADD;
+            case '-' -> SUB;
+            case '*' -> MUL;
+            case '/' -> DIV;
+            case '^' -> POW;
+            default -> throw new IllegalArgumentException("Unknown operator: " + operator);
+        };
+    }
+}
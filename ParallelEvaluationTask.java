@@ -0,0 +1,79 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The ParallelEvaluationTask class evaluates one compiled expression for a range of variable
+ * bindings on a fork/join pool. Large ranges are split in halves until they are small enough;
+ * every leaf evaluates its rows sequentially on its own values array and stack, so the only
+ * state shared between threads is the immutable compiled expression.
+ */
+class ParallelEvaluationTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /** The largest number of rows evaluated by a single task without splitting. */
+    static final int THRESHOLD = 2048;
+
+    private final CompiledExpression expression;
+    private final List<Map<String, Double>> bindings;
+    private final double[] results;
+    private final int from;
+    private final int to;
+
+    /**
+     * Constructs a task evaluating the rows from {@code from} (inclusive) to {@code to} (exclusive).
+     *
+     * @param expression The compiled expression shared by all tasks.
+     * @param bindings   The variable values of every row.
+     * @param results    The array receiving the result of every row.
+     * @param from       The first row of the range.
+     * @param to         The row after the last row of the range.
+     */
+    ParallelEvaluationTask(CompiledExpression expression, List<Map<String, Double>> bindings,
+                           double[] results, int from, int to) {
+        this.expression = expression;
+        this.bindings = bindings;
+        this.results = results;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= THRESHOLD) {
+            evaluateRange();
+            return;
+        }
+
+        // Split the range in halves and evaluate them in parallel
+        int middle = (from + to) >>> 1;
+        invokeAll(new ParallelEvaluationTask(expression, bindings, results, from, middle),
+                new ParallelEvaluationTask(expression, bindings, results, middle, to));
+    }
+
+    /**
+     * Evaluates every row of the range on a values array and stack owned by this task.
+     *
+     * @throws IllegalArgumentException If a row has no value for one of the variables.
+     */
+    private void evaluateRange() {
+        String[] slotNames = expression.getSlotNames();
+        double[] values = new double[slotNames.length];
+        double[] stack = expression.newStack();
+
+        for (int row = from; row < to; row++) {
+            Map<String, Double> binding = bindings.get(row);
+            for (int slot = 0; slot < slotNames.length; slot++) {
+                Double value = binding.get(slotNames[slot]);
+                if (value == null) {
+                    throw new IllegalArgumentException("Please provide a value for variable: "
+                            + slotNames[slot] + " (row " + row + ")");
+                }
+                values[slot] = value;
+            }
+            results[row] = expression.evaluate(values, stack);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The PowAction class implements the {@code IMultiAction} interface
+ * and provides a method to calculate a number raised to the power of another, like the {@code ^} operator.
+ */
+public class PowAction implements IMultiAction {
+
+    @Override
+    public int getArity() {
+        return 2;
+    }
+
+    /**
+     * Calculates the power of the two arguments.
+     *
+     * @param arguments The array holding the arguments.
+     * @param offset    The index of the first argument in the array.
+     * @return The power of the arguments.
+     * @throws IllegalArgumentException If a negative number is raised to a fractional power.
+     */
+    @Override
+    public double calculate(double[] arguments, int offset) {
+        return CompiledExpression.power(arguments[offset], arguments[offset + 1]);
+    }
+
+    @Override
+    public void calculate(double[][] arguments, int offset, double[] out, int n) {
+        double[] first = arguments[offset];
+        double[] second = arguments[offset + 1];
+        for (int i = 0; i < n; i++) {
+            out[i] = CompiledExpression.power(first[i], second[i]);
+        }
+    }
+
+    /**
+     * Calculates the partial derivative of the power by the base or by the exponent.
+     *
+     * @param arguments The array holding the arguments.
+     * @param offset    The index of the first argument in the array.
+     * @param index     The position of the argument to differentiate by, 0 or 1.
+     * @return The partial derivative at the arguments.
+     */
+    @Override
+    public double derivative(double[] arguments, int offset, int index) {
+        double base = arguments[offset];
+        double exponent = arguments[offset + 1];
+        return index == 0 ? GradientEvaluator.baseDerivative(base, exponent)
+                : GradientEvaluator.exponentDerivative(base, exponent, Math.pow(base, exponent));
+    }
+
+    /**
+     * Calculates the range of the power, which is undefined if the base interval reaches below 0
+     * and the exponent is not a single integer.
+     *
+     * @param lows   The array holding the lower ends of the argument intervals.
+     * @param highs  The array holding the upper ends of the argument intervals.
+     * @param offset The index of the first argument in the arrays.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    @Override
+    public void range(double[] lows, double[] highs, int offset, double[] bounds) {
+        IntervalMath.power(lows[offset], highs[offset], lows[offset + 1], highs[offset + 1], bounds);
+    }
+}
@@ -0,0 +1,296 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The PrattParser class builds the expression tree of a tokenized formula in one pass, by
+ * precedence climbing with binding powers (a Pratt parser). Every operator binds the operand to
+ * its right with its right binding power, and an infix operator takes the expression to its
+ * left only if it binds tighter than the operator waiting there:
+ * <pre>
+ *   +  -          10  left-associative
+ *   *  /          20  left-associative
+ *   unary -       25  so -x^2 is -(x^2) and -x*y is (-x)*y
+ *   ^             30  right-associative, so 2^3^2 is 2^9
+ *   f x           40  a function written without parentheses takes the next operand: sin x^2 is (sin x)^2
+ * </pre>
+ * The pending operators and operands live in plain arrays instead of on the call stack, so
+ * the parser runs in linear time and constant stack space, however deeply the formula nests.
+ * Errors are reported as {@code ExpressionParseException} with the offset of the offending token.
+ */
+final class PrattParser {
+    // Binding powers
+    private static final int SUM = 10;
+    private static final int PRODUCT = 20;
+    private static final int NEGATION = 25;
+    private static final int POWER = 30;
+    private static final int APPLICATION = 40;
+
+    // The kinds of pending operators; parentheses and calls are markers that operators do not cross
+    private static final int GROUP = 0;
+    private static final int CALL = 1;
+    private static final int NEGATE = 2;
+    private static final int APPLY = 3;
+    private static final int BINARY = 4;
+
+    private final String formula;
+    private final List<Token> tokens;
+    private final FunctionRegistry functionRegistry;
+    private final Map<String, Integer> slots;
+
+    private ExpressionNode[] operands = new ExpressionNode[16];
+    private int operandCount;
+    // The kind of every pending operator, the index of its token and, for calls, the number of arguments
+    private int[] kinds = new int[16];
+    private int[] positions = new int[16];
+    private int[] argumentCounts = new int[16];
+    private int operatorCount;
+
+    /**
+     * Constructs a PrattParser for the given tokens.
+     *
+     * @param formula          The formula the tokens were read from.
+     * @param tokens           The tokens of the formula.
+     * @param functionRegistry The registry used to resolve functions.
+     * @param slots            The slot table to fill, from variable name to slot index.
+     */
+    PrattParser(String formula, List<Token> tokens, FunctionRegistry functionRegistry, Map<String, Integer> slots) {
+        this.formula = formula;
+        this.tokens = tokens;
+        this.functionRegistry = functionRegistry;
+        this.slots = slots;
+    }
+
+    /**
+     * Parses the tokens into an expression tree. Every distinct variable is added to the slot
+     * table in order of first use.
+     *
+     * @return The root of the expression tree.
+     * @throws ExpressionParseException If the formula is empty or malformed, or calls a function
+     *                                  with the wrong number of arguments.
+     */
+    ExpressionNode parse() {
+        // The parser alternates between expecting an operand and expecting an operator after one
+        boolean expectOperand = true;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (expectOperand) {
+                switch (token.getType()) {
+                    case NUMBER -> {
+                        pushOperand(ExpressionNode.constant(token.getValue()));
+                        expectOperand = false;
+                    }
+                    case VARIABLE -> {
+                        String name = token.getText();
+                        int slot = slots.computeIfAbsent(name, variable -> slots.size());
+                        pushOperand(ExpressionNode.variable(slot, name));
+                        expectOperand = false;
+                    }
+                    case LEFT_PAREN -> pushOperator(GROUP, i);
+                    case FUNCTION -> {
+                        if (i + 1 < tokens.size() && tokens.get(i + 1).getType() == Token.Type.LEFT_PAREN) {
+                            pushOperator(CALL, i++);
+                        } else if (functionRegistry.getFunction(token.getText()) == null) {
+                            // Only a function of one argument can go without parentheses; this is
+                            // most likely a formula that uses the name of a newer function as a variable
+                            throw error("The function " + token.getText() + " needs its arguments in parentheses;"
+                                    + " a function name cannot be used as a variable", token.getStart());
+                        } else {
+                            pushOperator(APPLY, i);
+                        }
+                    }
+                    case OPERATOR -> {
+                        // A unary plus changes nothing
+                        if (token.getOperator() == '-') {
+                            pushOperator(NEGATE, i);
+                        } else if (token.getOperator() != '+') {
+                            throw error("Expected an operand before '" + text(token) + "'", token.getStart());
+                        }
+                    }
+                    default -> throw error("Expected an operand before '" + text(token) + "'", token.getStart());
+                }
+            } else {
+                switch (token.getType()) {
+                    case OPERATOR -> {
+                        reduce(leftBindingPower(token.getOperator()));
+                        pushOperator(BINARY, i);
+                        expectOperand = true;
+                    }
+                    case RIGHT_PAREN -> {
+                        reduce(0);
+                        if (operatorCount == 0) {
+                            throw error("Unmatched ')'", token.getStart());
+                        }
+                        closeParenthesis();
+                    }
+                    case SEPARATOR -> {
+                        reduce(0);
+                        if (operatorCount == 0 || kinds[operatorCount - 1] != CALL) {
+                            throw error("Argument separator outside of a function call", token.getStart());
+                        }
+                        argumentCounts[operatorCount - 1]++;
+                        expectOperand = true;
+                    }
+                    default -> throw error("Expected an operator before '" + text(token) + "'", token.getStart());
+                }
+            }
+        }
+
+        if (expectOperand) {
+            throw error(tokens.isEmpty() ? "The expression is empty" : "Unexpected end of the expression",
+                    formula.length());
+        }
+        reduce(0);
+        if (operatorCount > 0) {
+            // An opening parenthesis is left; the one of a call follows the function name
+            int position = positions[operatorCount - 1] + (kinds[operatorCount - 1] == CALL ? 1 : 0);
+            throw error("Unmatched '('", tokens.get(position).getStart());
+        }
+        return operands[0];
+    }
+
+    /**
+     * Applies the pending operators that bind their right operand at least as tightly as the
+     * given binding power, stopping at the innermost open parenthesis.
+     *
+     * @param bindingPower The left binding power of the next operator, or 0 to apply all
+     *                     operators up to the parenthesis.
+     */
+    private void reduce(int bindingPower) {
+        while (operatorCount > 0 && kinds[operatorCount - 1] >= NEGATE
+                && rightBindingPower(operatorCount - 1) >= bindingPower) {
+            int kind = kinds[--operatorCount];
+            Token token = tokens.get(positions[operatorCount]);
+            ExpressionNode right = operands[--operandCount];
+            ExpressionNode result;
+            if (kind == NEGATE) {
+                // Negative literals stay constants; anything else is multiplied by -1, which only flips the sign
+                result = right.isConstant() ? ExpressionNode.constant(-right.getValue())
+                        : ExpressionNode.binary(Opcode.MUL, ExpressionNode.constant(-1.0), right);
+            } else if (kind == APPLY) {
+                result = call(token, right);
+            } else {
+                ExpressionNode left = operands[--operandCount];
+                result = ExpressionNode.binary(Opcode.forOperator(token.getOperator()), left, right);
+            }
+            pushOperand(result);
+        }
+    }
+
+    /**
+     * Closes the innermost open parenthesis, whose operators have all been applied. The
+     * parentheses of a call are replaced by the call of the function with its arguments.
+     */
+    private void closeParenthesis() {
+        int kind = kinds[--operatorCount];
+        if (kind == CALL) {
+            int arity = argumentCounts[operatorCount];
+            ExpressionNode[] arguments = Arrays.copyOfRange(operands, operandCount - arity, operandCount);
+            operandCount -= arity;
+            pushOperand(call(tokens.get(positions[operatorCount]), arguments));
+        }
+    }
+
+    /**
+     * Builds the call of a function, resolving it in the registry.
+     *
+     * @param token     The token of the function.
+     * @param arguments The arguments of the call.
+     * @return The call node.
+     * @throws ExpressionParseException If the function is unknown or takes another number of arguments.
+     */
+    private ExpressionNode call(Token token, ExpressionNode... arguments) {
+        try {
+            return ExpressionNode.resolveCall(token.getText(), functionRegistry, arguments);
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage(), token.getStart());
+        }
+    }
+
+    /**
+     * Returns the binding power with which an infix operator takes the expression to its left.
+     *
+     * @param operator The operator.
+     * @return The left binding power.
+     */
+    private static int leftBindingPower(char operator) {
+        return switch (operator) {
+            case '+', '-' -> SUM;
+            case '*', '/' -> PRODUCT;
+            // Higher than the right binding power of ^, so a ^ on the stack waits for this one
+            default -> POWER + 1;
+        };
+    }
+
+    /**
+     * Returns the binding power with which a pending operator takes the expression to its right.
+     *
+     * @param index The index of the operator on the operator stack.
+     * @return The right binding power.
+     */
+    private int rightBindingPower(int index) {
+        return switch (kinds[index]) {
+            case NEGATE -> NEGATION;
+            case APPLY -> APPLICATION;
+            // Left-associative operators bind their right operand one step tighter than their left one
+            default -> switch (tokens.get(positions[index]).getOperator()) {
+                case '+', '-' -> SUM + 1;
+                case '*', '/' -> PRODUCT + 1;
+                default -> POWER;
+            };
+        };
+    }
+
+    /**
+     * Pushes an operand.
+     *
+     * @param node The operand.
+     */
+    private void pushOperand(ExpressionNode node) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+        }
+        operands[operandCount++] = node;
+    }
+
+    /**
+     * Pushes a pending operator, parenthesis or call.
+     *
+     * @param kind     The kind of the entry.
+     * @param position The index of its token.
+     */
+    private void pushOperator(int kind, int position) {
+        if (operatorCount == kinds.length) {
+            kinds = Arrays.copyOf(kinds, operatorCount * 2);
+            positions = Arrays.copyOf(positions, operatorCount * 2);
+            argumentCounts = Arrays.copyOf(argumentCounts, operatorCount * 2);
+        }
+        kinds[operatorCount] = kind;
+        positions[operatorCount] = position;
+        argumentCounts[operatorCount] = 1;
+        operatorCount++;
+    }
+
+    /**
+     * Returns the text of a token as written in the formula.
+     *
+     * @param token The token.
+     * @return The text of the token.
+     */
+    private String text(Token token) {
+        return formula.substring(token.getStart(), token.getEnd());
+    }
+
+    /**
+     * Creates the exception reporting an error at the given offset.
+     *
+     * @param message The description of the error.
+     * @param offset  The offset of the error in the formula.
+     * @return The exception to throw.
+     */
+    private ExpressionParseException error(String message, int offset) {
+        return new ExpressionParseException(message, formula, offset);
+    }
+}
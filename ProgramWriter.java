@@ -0,0 +1,191 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.*;
+
+/**
+ * The ProgramWriter class turns an expression tree or DAG into the instructions of a compiled
+ * program, visiting it in post-order and keeping track of the stack depth the program needs.
+ * The nodes being computed are kept in arrays rather than on the call stack, so trees of any
+ * depth can be written.
+ * A node used by more than one parent is computed once and kept in a temporary register.
+ * A program written from several roots leaves the value of root {@code i} at stack position {@code i}.
+ */
+final class ProgramWriter {
+    private byte[] code = new byte[16];
+    private int[] operands = new int[16];
+    private int size;
+    private final List<Double> constants = new ArrayList<>();
+    private final List<IAction> functions = new ArrayList<>();
+    private final List<String> functionNames = new ArrayList<>();
+    private final List<IMultiAction> multiFunctions = new ArrayList<>();
+    private final List<String> multiFunctionNames = new ArrayList<>();
+    private final Map<ExpressionNode, Integer> uses = new IdentityHashMap<>();
+    private final Map<ExpressionNode, Integer> temps = new IdentityHashMap<>();
+    private int depth;
+    private int maxDepth;
+    // The operations whose operands are being emitted, and the index of the next operand of each
+    private ExpressionNode[] path = new ExpressionNode[16];
+    private int[] nextChild = new int[16];
+
+    /**
+     * Appends the instructions computing the given root nodes and everything below them, one
+     * root after another. The roots may share nodes, and a root may itself be shared by another one.
+     *
+     * @param roots The root nodes of the expressions.
+     */
+    void write(ExpressionNode... roots) {
+        // A root counts as a use of its own, so one that also appears below another root is kept
+        for (ExpressionNode root : roots) {
+            uses.merge(root, 1, Integer::sum);
+        }
+        // Every distinct node counts as one use of each of its children. A node that is both
+        // operands of the same parent counts once, because it is duplicated on the stack rather than stored.
+        for (ExpressionNode node : ExpressionNode.postOrder(roots)) {
+            ExpressionNode[] children = node.getChildren();
+            for (int i = 0; i < children.length; i++) {
+                if (i == 0 || children[i] != children[i - 1]) {
+                    uses.merge(children[i], 1, Integer::sum);
+                }
+            }
+        }
+        for (ExpressionNode root : roots) {
+            emit(root);
+        }
+    }
+
+    /**
+     * Appends the instructions computing the given node and everything below it that was not
+     * computed yet. The operations whose operands are being emitted wait on {@code path}.
+     *
+     * @param root The node to compute.
+     */
+    private void emit(ExpressionNode root) {
+        ExpressionNode node = root;
+        int pathLength = 0;
+        while (true) {
+            if (node != null) {
+                // Enter the node: a leaf or an operation already computed is emitted at once
+                Integer temp = temps.get(node);
+                if (temp != null) {
+                    add(Opcode.LOAD_TEMP, temp, 1);
+                } else if (node.getOpcode() == Opcode.CONST) {
+                    add(Opcode.CONST, constants.size(), 1);
+                    constants.add(node.getValue());
+                } else if (node.getOpcode() == Opcode.LOAD) {
+                    add(Opcode.LOAD, node.getSlot(), 1);
+                } else {
+                    if (pathLength == path.length) {
+                        path = Arrays.copyOf(path, pathLength * 2);
+                        nextChild = Arrays.copyOf(nextChild, pathLength * 2);
+                    }
+                    path[pathLength] = node;
+                    nextChild[pathLength] = 0;
+                    pathLength++;
+                }
+                node = null;
+            }
+            if (pathLength == 0) {
+                return;
+            }
+
+            ExpressionNode parent = path[pathLength - 1];
+            ExpressionNode[] children = parent.getChildren();
+            int next = nextChild[pathLength - 1]++;
+            if (next < children.length) {
+                if (next > 0 && children[next] == children[next - 1]) {
+                    // The same node twice in a row: compute it once and duplicate it
+                    add(Opcode.DUP, 0, 1);
+                } else {
+                    node = children[next];
+                }
+            } else {
+                pathLength--;
+                emitOperation(parent);
+            }
+        }
+    }
+
+    /**
+     * Appends the instruction of an operation whose operands are already on the stack, and
+     * keeps its value in a temporary register if other parents need it.
+     *
+     * @param node The operation node.
+     */
+    private void emitOperation(ExpressionNode node) {
+        switch (node.getOpcode()) {
+            case Opcode.CALL -> {
+                add(Opcode.CALL, functions.size(), 0);
+                functions.add(node.getFunction());
+                functionNames.add(node.getName());
+            }
+            case Opcode.CALL_MULTI -> {
+                // The call replaces its arguments with its result
+                add(Opcode.CALL_MULTI, multiFunctions.size(), 1 - node.getChildren().length);
+                multiFunctions.add(node.getMultiFunction());
+                multiFunctionNames.add(node.getName());
+            }
+            default -> add(node.getOpcode(), 0, -1);
+        }
+
+        // Keep the value of a shared operation for its other parents; constants and variables are cheap to reload
+        if (uses.getOrDefault(node, 1) > 1) {
+            temps.put(node, temps.size());
+            add(Opcode.STORE_TEMP, temps.size() - 1, 0);
+        }
+    }
+
+    /**
+     * Appends one instruction.
+     *
+     * @param opcode     The opcode of the instruction.
+     * @param operand    The operand of the instruction.
+     * @param stackDelta The change of the stack depth caused by the instruction.
+     */
+    private void add(byte opcode, int operand, int stackDelta) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+            operands = Arrays.copyOf(operands, size * 2);
+        }
+        code[size] = opcode;
+        operands[size] = operand;
+        size++;
+        depth += stackDelta;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    byte[] getCode() {
+        return Arrays.copyOf(code, size);
+    }
+
+    int[] getOperands() {
+        return Arrays.copyOf(operands, size);
+    }
+
+    double[] getConstants() {
+        return constants.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    IAction[] getFunctions() {
+        return functions.toArray(new IAction[0]);
+    }
+
+    String[] getFunctionNames() {
+        return functionNames.toArray(new String[0]);
+    }
+
+    IMultiAction[] getMultiFunctions() {
+        return multiFunctions.toArray(new IMultiAction[0]);
+    }
+
+    String[] getMultiFunctionNames() {
+        return multiFunctionNames.toArray(new String[0]);
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    int getTempCount() {
+        return temps.size();
+    }
+}
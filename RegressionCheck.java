@@ -0,0 +1,512 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * The RegressionCheck class runs formulas that broke the library before, and cases that pin down
+ * the behavior of its parts, and verifies their results. It prints one line per case and exits
+ * with status 1 if any of them fails.
+ */
+public class RegressionCheck {
+    // The number of terms, and of nesting levels, of the large formulas
+    private static final int SIZE = 10_000;
+
+    private static int failures;
+
+    /**
+     * Runs every case.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) throws IOException {
+        checkLargeFormulas();
+        checkPrecedence();
+        checkErrorOffsets();
+        checkFunctionNamesAsVariables();
+        checkSessions();
+        checkGradients();
+        checkFormulaSets();
+        checkSnapshots();
+        checkBindings();
+        checkIntervals();
+
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " case(s)");
+            System.exit(1);
+        }
+        System.out.println("OK: every case passed");
+    }
+
+    /**
+     * Compiles and evaluates a long flat sum and deeply nested formulas, which must not
+     * overflow the call stack anywhere between the parser and the evaluator.
+     */
+    private static void checkLargeFormulas() {
+        StringBuilder sum = new StringBuilder("x");
+        StringBuilder nested = new StringBuilder();
+        StringBuilder calls = new StringBuilder();
+        StringBuilder multiCalls = new StringBuilder();
+        for (int i = 1; i < SIZE; i++) {
+            sum.append(" + x*").append(i);
+        }
+        double root = 2.0;
+        for (int i = 0; i < SIZE; i++) {
+            nested.append("(x + ");
+            calls.append("sqrt(");
+            multiCalls.append("max(x; ");
+            root = Math.sqrt(root);
+        }
+        nested.append("x").append(")".repeat(SIZE));
+        calls.append("x").append(")".repeat(SIZE));
+        multiCalls.append("x").append(")".repeat(SIZE));
+
+        // At x = 2, the sum is 2 + 2 * (1 + 2 + ... + (SIZE - 1))
+        check(SIZE + "-term sum", sum.toString(), 2.0 + (double) SIZE * (SIZE - 1));
+        check(SIZE + " nested parentheses", nested.toString(), 2.0 * (SIZE + 1));
+        check(SIZE + " nested calls", calls.toString(), root);
+        check(SIZE + " nested calls of two arguments", multiCalls.toString(), 2.0);
+        check(SIZE + " negations", "-".repeat(SIZE) + "x", 2.0);
+
+        // A formula of a set after the first one is resolved again in the shared slot table
+        try {
+            FormulaSet formulaSet = new MathExpressionEvaluator().compileSet(List.of("x", nested.toString()));
+            double[] results = formulaSet.evaluate(Map.of("x", 2.0));
+            report(SIZE + " nested parentheses in a formula set", results[1] == 2.0 * (SIZE + 1),
+                    "got " + Arrays.toString(results));
+        } catch (RuntimeException | StackOverflowError e) {
+            report(SIZE + " nested parentheses in a formula set", false, e.toString());
+        }
+    }
+
+    /**
+     * Checks the binding powers of the Pratt parser: '^' is right-associative and binds tighter
+     * than a unary minus, which binds tighter than '*'.
+     */
+    private static void checkPrecedence() {
+        check("2^3^2 is 2^9", "2^3^2", 512.0);
+        check("-2^2 is -(2^2)", "-2^2", -4.0);
+        check("-x^2 is -(x^2)", "-x^2", -4.0);
+        check("(-x)^2", "(-x)^2", 4.0);
+        check("2^-1", "2^-1", 0.5);
+        check("-x*3 is (-x)*3", "-x*3", -6.0);
+        check("x-3-1 is left-associative", "x-3-1", -2.0);
+        check("x/4/2 is left-associative", "x/4/2", 0.25);
+        check("sqrt(x)^2 applies the power to the call", "sqrt(x*8)^2", 16.0);
+    }
+
+    /**
+     * Checks that the offsets of parse errors raised through the caching evaluator refer to the
+     * formula as written, whitespace included.
+     */
+    private static void checkErrorOffsets() {
+        checkOffset("1   +   * 2", 8);
+        checkOffset("sin(x)   )", 9);
+        checkOffset("  (x + 1", 2);
+        checkOffset("x + ", 4);
+        checkOffset("2 * (x ; 1)", 7);
+        checkOffset("x + max(1; 2; 3)", 4);
+        checkOffset("x + )", 4);
+    }
+
+    /**
+     * Checks that formulas using the names of the functions of several arguments as variables,
+     * which were valid before those functions were built in, are rejected with an error at the
+     * name instead of being read as calls.
+     */
+    private static void checkFunctionNamesAsVariables() {
+        for (String name : List.of("min", "max", "pow", "hypot")) {
+            String formula = "x + " + name + "*2";
+            String caseName = "function name " + name + " used as a variable";
+            try {
+                new MathExpressionEvaluator().evaluate(formula, Map.of("x", 1.0, name, 2.0));
+                report(caseName, false, "no error");
+            } catch (ExpressionParseException e) {
+                report(caseName, e.getOffset() == 4 && e.getMessage().contains("variable"),
+                        "got \"" + e.getMessage() + "\" at offset " + e.getOffset());
+            }
+        }
+    }
+
+    /**
+     * Checks that an evaluation session recomputes exactly the operations above a changed
+     * variable, reuses the others, and recovers from a failed evaluation.
+     */
+    private static void checkSessions() {
+        // Five operations: x+1, y+2, their product, z*3 and the sum
+        CompiledExpression compiledExpression = new MathExpressionEvaluator().compile("(x + 1) * (y + 2) + z * 3");
+        EvaluationSession session = compiledExpression.newSession().bind(Map.of("x", 1.0, "y", 2.0, "z", 3.0));
+        double result = session.evaluate();
+        report("session computes every operation first", result == 17.0 && session.getRecomputedCount() == 5
+                && session.getReusedCount() == 0, counts(session, result));
+
+        session.resetCounters();
+        result = session.set("y", 4.0).evaluate();
+        report("session recomputes only the operations above y", result == 21.0
+                && session.getRecomputedCount() == 3 && session.getReusedCount() == 2, counts(session, result));
+
+        session.resetCounters();
+        result = session.set("y", 4.0).evaluate();
+        report("session reuses everything for an unchanged value", result == 21.0
+                && session.getRecomputedCount() == 0 && session.getReusedCount() == 5, counts(session, result));
+
+        // A failed operation stays dirty, so the session is not left with a stale value
+        EvaluationSession failing = new MathExpressionEvaluator().compile("x / (y - 1) + z").newSession()
+                .bind(Map.of("x", 6.0, "y", 1.0, "z", 1.0));
+        int failures = 0;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                failing.evaluate();
+            } catch (ArithmeticException e) {
+                failures++;
+            }
+        }
+        result = failing.set("y", 3.0).evaluate();
+        report("session retries after a division by zero", failures == 2 && result == 4.0,
+                failures + " failures, then " + result);
+        result = failing.set("z", 2.0).evaluate();
+        report("session goes on after the retry", result == 5.0, "got " + result);
+    }
+
+    /**
+     * Describes the result and the counters of a session for a failed case.
+     *
+     * @param session The session.
+     * @param result  The result of its last evaluation.
+     * @return The description.
+     */
+    private static String counts(EvaluationSession session, double result) {
+        return "got " + result + " with " + session.getRecomputedCount() + " recomputed and "
+                + session.getReusedCount() + " reused";
+    }
+
+    /**
+     * Checks the gradients of formulas that use every operator and function against central
+     * differences, including a formula whose subexpressions are shared by several parents.
+     */
+    private static void checkGradients() {
+        checkGradient("x*y + x/y - y^2 + x^y");
+        checkGradient("sin(x)*cos(y) + tan(x/3)*57");
+        checkGradient("atan(x) + log10(y) + log2(x*y) + sqrt(x + y)");
+        checkGradient("max(x; y) + min(x; y)*2 + pow(x; y) + hypot(x; y)");
+        checkGradient("(x*y)^3 / (1 + (x*y)^2) - sqrt(x*y)");
+    }
+
+    /**
+     * Compares the gradient of a formula at x = 1.3, y = 0.7 with central differences.
+     *
+     * @param formula The formula over x and y, differentiable at the point.
+     */
+    private static void checkGradient(String formula) {
+        String name = "gradient of " + formula;
+        Map<String, Double> point = Map.of("x", 1.3, "y", 0.7);
+        CompiledExpression compiledExpression = new MathExpressionEvaluator().compile(formula);
+        Map<String, Double> gradient = new HashMap<>();
+        double result = compiledExpression.newGradientEvaluator().evaluate(point, gradient);
+        if (result != compiledExpression.evaluate(point)) {
+            report(name, false, "the value " + result + " differs from " + compiledExpression.evaluate(point));
+            return;
+        }
+
+        for (String variable : List.of("x", "y")) {
+            double h = 1e-6;
+            Map<String, Double> above = new HashMap<>(point);
+            Map<String, Double> below = new HashMap<>(point);
+            above.put(variable, point.get(variable) + h);
+            below.put(variable, point.get(variable) - h);
+            double expected = (compiledExpression.evaluate(above) - compiledExpression.evaluate(below)) / (2 * h);
+            double actual = gradient.get(variable);
+            if (Math.abs(actual - expected) > 1e-6 * (1 + Math.abs(expected))) {
+                report(name, false, "d/d" + variable + " is " + actual + ", central difference " + expected);
+                return;
+            }
+        }
+        report(name, true, "");
+    }
+
+    /**
+     * Checks that a formula set, whose formulas share subterms, gives exactly the results of
+     * its formulas compiled one by one, and that {@code evaluateEach} keeps the error of one
+     * formula from the others.
+     */
+    private static void checkFormulaSets() {
+        List<String> formulas = List.of("sqrt(x^2 + y^2)", "sqrt(x^2 + y^2) * sin(x)", "x^2 + y^2",
+                "max(x; y) / (1 + sqrt(x^2 + y^2))", "log10(x^2 + y^2 + 1) - y", "x");
+        MathExpressionEvaluator evaluator = new MathExpressionEvaluator();
+        FormulaSet formulaSet = evaluator.compileSet(formulas);
+        Random random = new Random(42);
+        String mismatch = null;
+        for (int row = 0; row < 1000 && mismatch == null; row++) {
+            Map<String, Double> values = Map.of("x", random.nextDouble() * 200 - 100, "y", random.nextDouble() * 10);
+            double[] results = formulaSet.evaluate(values);
+            for (int f = 0; f < formulas.size() && mismatch == null; f++) {
+                double expected = evaluator.compile(formulas.get(f)).evaluate(values);
+                if (Double.doubleToLongBits(results[f]) != Double.doubleToLongBits(expected)) {
+                    mismatch = formulas.get(f) + " at " + values + ": " + results[f] + " instead of " + expected;
+                }
+            }
+        }
+        report("formula set results equal the results of its formulas", mismatch == null, mismatch);
+
+        // y = 0 divides by zero in the second formula only, and z has no value
+        FormulaSet failing = evaluator.compileSet(List.of("x + y", "x / y", "sqrt(x) * y", "x * z"));
+        double[] values = new double[failing.getSlotCount()];
+        boolean[] bound = new boolean[failing.getSlotCount()];
+        values[failing.slotOf("x")] = 4.0;
+        bound[failing.slotOf("x")] = true;
+        bound[failing.slotOf("y")] = true;
+        double[] results = new double[failing.size()];
+        RuntimeException[] errors = new RuntimeException[failing.size()];
+        int failed = failing.evaluateEach(values, bound, failing.newStack(), results, errors);
+        report("formula set keeps the errors of its formulas apart", failed == 2
+                        && results[0] == 4.0 && errors[0] == null
+                        && Double.isNaN(results[1]) && errors[1] instanceof ArithmeticException
+                        && results[2] == 0.0 && errors[2] == null
+                        && Double.isNaN(results[3]) && errors[3] instanceof IllegalArgumentException,
+                failed + " failed: " + Arrays.toString(results) + " " + Arrays.toString(errors));
+    }
+
+    /**
+     * Checks that a snapshot reads back into programs with the results of freshly compiled
+     * ones, and that a truncated, corrupted or wrong-version file is ignored: every formula is
+     * compiled again and still gives the right result.
+     *
+     * @throws IOException If the temporary snapshot file cannot be written.
+     */
+    private static void checkSnapshots() throws IOException {
+        List<String> formulas = List.of("x^2 + 3*y", "sin(x) * cos(y) - max(x; y)", "sqrt(x^2 + y^2) / (1 + x)",
+                "log10(x + 10) + hypot(y; 5)");
+        Path file = Files.createTempFile("regression", ".snapshot");
+        try {
+            new MathExpressionEvaluator().saveSnapshot(file, formulas);
+            byte[] saved = Files.readAllBytes(file);
+            checkSnapshot("snapshot round-trip", file, formulas, formulas.size());
+
+            byte[] truncated = Arrays.copyOf(saved, saved.length - 5);
+            Files.write(file, truncated);
+            checkSnapshot("truncated snapshot is ignored", file, formulas, 0);
+
+            byte[] corrupted = saved.clone();
+            corrupted[corrupted.length / 2] ^= 0x10;
+            Files.write(file, corrupted);
+            checkSnapshot("corrupted snapshot is ignored", file, formulas, 0);
+
+            // Another version with a valid checksum, so only the version check can reject it
+            ByteBuffer otherVersion = ByteBuffer.wrap(saved.clone());
+            otherVersion.putInt(4, ExpressionSnapshot.FORMAT_VERSION + 1);
+            CRC32 checksum = new CRC32();
+            checksum.update(otherVersion.array(), 0, saved.length - Long.BYTES);
+            otherVersion.putLong(saved.length - Long.BYTES, checksum.getValue());
+            Files.write(file, otherVersion.array());
+            checkSnapshot("snapshot of another version is ignored", file, formulas, 0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Loads a snapshot into a new evaluator and compares its results with those of freshly
+     * compiled formulas at a few points.
+     *
+     * @param name     The name of the case.
+     * @param file     The snapshot file.
+     * @param formulas The formulas to load.
+     * @param expected The number of formulas the snapshot should provide.
+     * @throws IOException If the snapshot file cannot be read.
+     */
+    private static void checkSnapshot(String name, Path file, List<String> formulas, int expected)
+            throws IOException {
+        MathExpressionEvaluator loading = new MathExpressionEvaluator();
+        MathExpressionEvaluator compiling = new MathExpressionEvaluator();
+        int loaded = loading.loadSnapshot(file, formulas);
+        String mismatch = loaded == expected ? null : loaded + " formulas loaded instead of " + expected;
+        for (String formula : formulas) {
+            for (double x = -3; x <= 3 && mismatch == null; x += 1.5) {
+                Map<String, Double> values = Map.of("x", x, "y", 0.5 - x);
+                double actual = loading.compile(formula).evaluate(values);
+                double wanted = compiling.compile(formula).evaluate(values);
+                if (Double.doubleToLongBits(actual) != Double.doubleToLongBits(wanted)) {
+                    mismatch = formula + " at " + values + ": " + actual + " instead of " + wanted;
+                }
+            }
+        }
+        report(name, mismatch == null, mismatch);
+    }
+
+    /**
+     * Checks that the binding parser reads comma decimals, keeps the last of duplicate
+     * names, skips unknown names, reads UTF-8 bytes like text and reports malformed pairs
+     * with their reason and offset.
+     *
+     * @throws IOException Never, as the reader reads a string.
+     */
+    private static void checkBindings() throws IOException {
+        CompiledExpression expression = new MathExpressionEvaluator().compile("x + 2*y");
+        BindingParser parser = new BindingParser(expression);
+        int x = expression.slotOf("x");
+        int y = expression.slotOf("y");
+
+        checkBinding(parser, "x=0,5 y=-1,25e1", x, 0.5, y, -12.5);
+        checkBinding(parser, "x=1; y=2; z=7; x=3", x, 3.0, y, 2.0);
+        checkBinding(parser, " y = 6,02e23\t\tx=.25;", x, 0.25, y, 6.02e23);
+
+        double[] values = new double[expression.getSlotCount()];
+        int bound = parser.parse(new StringReader("y=4 x=0,125"), values);
+        report("binding from a reader", bound == 2 && values[x] == 0.125 && values[y] == 4.0,
+                bound + " bound: " + Arrays.toString(values));
+
+        // The buffer starts past a prefix, and the names before x take more bytes than chars
+        byte[] utf8 = "skipped; \u0448\u0438\u0440\u0438\u043d\u0430=2 \uD835\uDC65=3 x=1,5 y=2"
+                .getBytes(StandardCharsets.UTF_8);
+        values = new double[expression.getSlotCount()];
+        bound = parser.parse(ByteBuffer.wrap(utf8, 9, utf8.length - 9), values);
+        report("binding from UTF-8 bytes", bound == 2 && values[x] == 1.5 && values[y] == 2.0,
+                bound + " bound: " + Arrays.toString(values));
+        try {
+            parser.parse(ByteBuffer.wrap("\u0448=2 x=1,5,0".getBytes(StandardCharsets.UTF_8)), values);
+            report("binding error offset in UTF-8 bytes", false, "no error");
+        } catch (BindingParseException e) {
+            report("binding error offset in UTF-8 bytes", e.getOffset() == 7, e.getMessage());
+        }
+
+        checkBindingError(parser, "=1", BindingParseException.Reason.MISSING_NAME, 0, null);
+        checkBindingError(parser, "x=1 y 2", BindingParseException.Reason.MISSING_EQUALS, 6, "y");
+        checkBindingError(parser, "x=1; y=", BindingParseException.Reason.MISSING_VALUE, 7, "y");
+        checkBindingError(parser, "x=1 y=1.2.3", BindingParseException.Reason.INVALID_NUMBER, 6, "y");
+        checkBindingError(parser, "x=0,5e y=1", BindingParseException.Reason.INVALID_NUMBER, 2, "x");
+        checkBindingError(parser, "z=abc x=1", BindingParseException.Reason.INVALID_NUMBER, 2, "z");
+    }
+
+    /**
+     * Parses the pairs of a text and compares the values of two variables.
+     *
+     * @param parser    The binding parser.
+     * @param text      The pairs.
+     * @param slot1     The slot of the first variable.
+     * @param expected1 The expected value of the first variable.
+     * @param slot2     The slot of the second variable.
+     * @param expected2 The expected value of the second variable.
+     */
+    private static void checkBinding(BindingParser parser, String text, int slot1, double expected1,
+                                     int slot2, double expected2) {
+        double[] values = new double[Math.max(slot1, slot2) + 1];
+        int bound = parser.parse(text, values);
+        report("binding \"" + text + "\"", bound == 2 && values[slot1] == expected1 && values[slot2] == expected2,
+                bound + " bound: " + Arrays.toString(values));
+    }
+
+    /**
+     * Checks that the binding parser rejects a text with the expected reason, offset and variable.
+     *
+     * @param parser   The binding parser.
+     * @param text     The malformed pairs.
+     * @param reason   The expected reason.
+     * @param offset   The expected offset.
+     * @param variable The expected variable name, or null if the pair has none.
+     */
+    private static void checkBindingError(BindingParser parser, String text, BindingParseException.Reason reason,
+                                          long offset, String variable) {
+        String name = "binding error in \"" + text + "\"";
+        try {
+            parser.parse(text, new double[2]);
+            report(name, false, "no error");
+        } catch (BindingParseException e) {
+            report(name, e.getReason() == reason && e.getOffset() == offset
+                    && Objects.equals(e.getVariable(), variable), e.getMessage());
+        }
+    }
+
+    /**
+     * Checks that interval bounds stay guaranteed when an intermediate result overflows to
+     * infinity: every point of these boxes evaluates to NaN, so the bounds must be undefined.
+     */
+    private static void checkIntervals() {
+        checkUndefinedRange("x^400*0");
+        checkUndefinedRange("x^400 - x^400");
+        checkUndefinedRange("sin(x^400)");
+        checkUndefinedRange("cos(x^400)");
+        checkUndefinedRange("tan(x^400)");
+    }
+
+    /**
+     * Computes the bounds of a formula over x = 10..11 and checks that they are undefined.
+     *
+     * @param formula The formula, which evaluates to NaN everywhere in the box.
+     */
+    private static void checkUndefinedRange(String formula) {
+        String name = "range of " + formula + " over x = 10..11";
+        CompiledExpression compiledExpression = new MathExpressionEvaluator().compile(formula);
+        IntervalEvaluator intervalEvaluator = compiledExpression.newIntervalEvaluator().set("x", 10, 11).evaluate();
+        report(name, !intervalEvaluator.isDefined(), "got [" + intervalEvaluator.getLow() + ", "
+                + intervalEvaluator.getHigh() + "] for " + compiledExpression.evaluate(Map.of("x", 10.0)));
+    }
+
+    /**
+     * Compiles a malformed formula twice through one evaluator and compares the offset of the
+     * error with the expected one. The second attempt makes sure a failure is not cached.
+     *
+     * @param formula  The malformed formula.
+     * @param expected The expected offset of the error.
+     */
+    private static void checkOffset(String formula, int expected) {
+        MathExpressionEvaluator evaluator = new MathExpressionEvaluator();
+        for (int attempt = 1; attempt <= 2; attempt++) {
+            String name = "error offset in \"" + formula + "\", attempt " + attempt;
+            try {
+                evaluator.compile(formula);
+                report(name, false, "no error");
+            } catch (ExpressionParseException e) {
+                report(name, e.getOffset() == expected && e.getFormula().equals(formula),
+                        "got offset " + e.getOffset() + " in \"" + e.getFormula() + "\", expected " + expected);
+            }
+        }
+    }
+
+    /**
+     * Evaluates a formula at x = 2 by the evaluator and by an evaluation session, and compares
+     * both results with the expected value.
+     *
+     * @param name     The name of the case.
+     * @param formula  The formula.
+     * @param expected The expected value.
+     */
+    private static void check(String name, String formula, double expected) {
+        try {
+            Map<String, Double> values = Map.of("x", 2.0);
+            CompiledExpression compiledExpression = new MathExpressionEvaluator().compile(formula);
+            double result = compiledExpression.evaluate(values);
+            double sessionResult = compiledExpression.newSession().bind(values).evaluate();
+            report(name, result == expected && sessionResult == expected,
+                    "got " + result + " and " + sessionResult + ", expected " + expected);
+        } catch (RuntimeException | StackOverflowError e) {
+            report(name, false, e.toString());
+        }
+    }
+
+    /**
+     * Prints the outcome of a case and counts it if it failed.
+     *
+     * @param name    The name of the case.
+     * @param passed  True if the case passed.
+     * @param details What went wrong, printed if the case failed.
+     */
+    private static void report(String name, boolean passed, String details) {
+        if (passed) {
+            System.out.println("OK: " + name);
+        } else {
+            failures++;
+            System.out.println("FAILED: " + name + ": " + details);
+        }
+    }
+}
@@ -18,4 +18,44 @@ public class SinAction implements IAction {
         double radians = Math.toRadians(number);
         return Math.sin(radians);
     }
+
+    /**
+     * Calculates the sine of each of the first {@code n} numbers in a loop of its own.
+     *
+     * @param in  The input numbers.
+     * @param out The array receiving the results.
+     * @param n   The number of elements to calculate.
+     */
+    @Override
+    public void calculate(double[] in, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = calculate(in[i]);
+        }
+    }
+
+    /**
+     * Calculates the derivative of the sine of an angle in degrees: the cosine times pi/180.
+     *
+     * @param number The input number.
+     * @return The derivative at the input number.
+     */
+    @Override
+    public double derivative(double number) {
+        // d/dx sin(x degrees) = cos(x degrees) * pi/180
+        return Math.toRadians(Math.cos(Math.toRadians(number)));
+    }
+
+    /**
+     * Calculates the range of the sine over an interval of angles in degrees. The sine is monotonic
+     * between its extremes at 90 + 180k degrees, which are taken into account where the interval
+     * contains them.
+     *
+     * @param low    The lower end of the interval.
+     * @param high   The upper end of the interval.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    @Override
+    public void range(double low, double high, double[] bounds) {
+        IntervalMath.periodic(low, high, calculate(low), calculate(high), 90, 2, bounds);
+    }
 }
@@ -16,4 +16,46 @@ public class SqrtAction implements IAction {
     public double calculate(double number) {
         return Math.sqrt(number);
     }
+
+    /**
+     * Calculates the square root of each of the first {@code n} numbers in a loop of its own.
+     *
+     * @param in  The input numbers.
+     * @param out The array receiving the results.
+     * @param n   The number of elements to calculate.
+     */
+    @Override
+    public void calculate(double[] in, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = Math.sqrt(in[i]);
+        }
+    }
+
+    /**
+     * Calculates the derivative of the square root: 1 / (2 sqrt(x)).
+     *
+     * @param number The input number.
+     * @return The derivative at the input number.
+     */
+    @Override
+    public double derivative(double number) {
+        return 0.5 / Math.sqrt(number);
+    }
+
+    /**
+     * Calculates the range of the square root over an interval. The square root increases, so the
+     * range lies between its values at the ends, and is undefined if the interval reaches below 0.
+     *
+     * @param low    The lower end of the interval.
+     * @param high   The upper end of the interval.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    @Override
+    public void range(double low, double high, double[] bounds) {
+        if (low < 0) {
+            IntervalMath.undefined(bounds);
+        } else {
+            IntervalMath.increasing(Math.sqrt(low), Math.sqrt(high), 1, bounds);
+        }
+    }
 }
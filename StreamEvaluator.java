@@ -0,0 +1,479 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The StreamEvaluator class evaluates one or more formulas for every row of a stream of
+ * variable values and writes one line of results per row. The formulas are compiled once,
+ * together, into a {@code FormulaSet}, so a row with a value for every variable is evaluated in a
+ * single pass that computes the subterms shared by several formulas only once; rows with missing
+ * values or errors are evaluated again with {@code FormulaSet.evaluateEach}, which tells the
+ * failed formulas apart from the others. The rows are read and the results written through
+ * fixed-size NIO buffers, so a stream of any length is processed in constant memory (apart from
+ * the longest line).
+ * <p>
+ * Rows are either CSV, with a header line naming the variable of every column and dots as
+ * decimal points, or NDJSON, one flat object of numbers per line, such as {@code {"x": 1.5, "y": 2}}.
+ * Values follow the number grammar of {@code BindingParser}, so {@code NaN}, {@code Infinity}
+ * and hexadecimal values are malformed.
+ * The results of a CSV row are written as comma-separated values, those of an NDJSON row as a
+ * JSON array. A formula that cannot be evaluated for a row gives {@code NaN} (or {@code null}
+ * in JSON), and the reason is written to the error stream.
+ */
+public final class StreamEvaluator {
+    /** The format of the rows. */
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Format format;
+    private final FormulaSet formulaSet;
+    private final double[] setValues;
+    private final boolean[] setBound;
+    private final double[] setStack;
+    private final double[] results;
+    private final RuntimeException[] errors;
+    // The variable of every input column, and the slot of every column in the formula set
+    private final List<String> columns = new ArrayList<>();
+    private final Map<String, Integer> columnIndices = new HashMap<>();
+    private int[] setSlots = new int[0];
+    private double[] row = new double[0];
+    private boolean[] present = new boolean[0];
+
+    private final StringBuilder line = new StringBuilder();
+    private char[] number = new char[32];
+    private final StringBuilder output = new StringBuilder();
+    private final ByteBuffer outputBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private WritableByteChannel out;
+    private long lineNumber;
+    private long rowCount;
+    private long errorCount;
+
+    /**
+     * Constructs a StreamEvaluator for the given formulas, compiled by the given evaluator.
+     *
+     * @param evaluator The evaluator that parses and compiles the formulas.
+     * @param formulas  The formulas to evaluate for every row.
+     * @param format    The format of the rows.
+     * @throws IllegalArgumentException If there are no formulas or a formula is malformed.
+     */
+    public StreamEvaluator(MathExpressionEvaluator evaluator, List<String> formulas, Format format) {
+        if (formulas.isEmpty()) {
+            throw new IllegalArgumentException("Please provide at least one formula");
+        }
+        this.format = format;
+        this.formulaSet = evaluator.compileSet(formulas);
+        this.setValues = new double[formulaSet.getSlotCount()];
+        this.setBound = new boolean[formulaSet.getSlotCount()];
+        this.setStack = formulaSet.newStack();
+        this.results = new double[formulas.size()];
+        this.errors = new RuntimeException[formulas.size()];
+    }
+
+    /**
+     * Reads every row from the input, evaluates the formulas and writes the results to the output.
+     * The channels are not closed.
+     *
+     * @param in  The channel to read the rows from.
+     * @param out The channel to write the results to.
+     * @return The number of rows evaluated.
+     * @throws IOException If reading or writing fails.
+     */
+    public long run(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        this.out = out;
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            endOfInput = in.read(bytes) < 0;
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            bytes.compact();
+
+            // Split the decoded characters into lines
+            chars.flip();
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n') {
+                    processLine();
+                } else {
+                    line.append(c);
+                }
+            }
+            chars.clear();
+        }
+        decoder.decode(bytes.flip(), chars, true);
+        decoder.flush(chars);
+        line.append(chars.flip());
+        if (line.length() > 0) {
+            processLine();
+        }
+
+        flushOutput(true);
+        return rowCount;
+    }
+
+    /**
+     * Returns the number of rows evaluated so far.
+     *
+     * @return The number of rows.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the number of formula evaluations that failed so far.
+     *
+     * @return The number of errors.
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Handles the line just read: the CSV header, a row, or a blank line, which is skipped.
+     *
+     * @throws IOException If writing fails.
+     */
+    private void processLine() throws IOException {
+        lineNumber++;
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(--length);
+        }
+        if (isBlank(line)) {
+            line.setLength(0);
+            return;
+        }
+
+        if (format == Format.CSV && columns.isEmpty()) {
+            readHeader();
+        } else {
+            Arrays.fill(present, false);
+            try {
+                if (format == Format.CSV) {
+                    readCsvRow();
+                } else {
+                    readJsonRow();
+                }
+                evaluateRow();
+            } catch (IllegalArgumentException e) {
+                // A malformed row still gets its line of results, so the output stays aligned with the input
+                errorCount++;
+                System.err.println(e.getMessage());
+                writeFailedRow();
+            }
+        }
+        line.setLength(0);
+    }
+
+    /**
+     * Reads the variable names of the CSV columns.
+     */
+    private void readHeader() {
+        int start = 0;
+        for (int i = 0; i <= line.length(); i++) {
+            if (i == line.length() || line.charAt(i) == ',') {
+                column(trim(start, i));
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Reads the values of a CSV row. Empty fields leave their variable without a value.
+     */
+    private void readCsvRow() {
+        int start = 0;
+        int column = 0;
+        for (int i = 0; i <= line.length() && column < row.length; i++) {
+            if (i == line.length() || line.charAt(i) == ',') {
+                String field = trim(start, i);
+                if (!field.isEmpty()) {
+                    row[column] = parseValue(field);
+                    present[column] = true;
+                }
+                column++;
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Reads the values of a flat NDJSON object. Keys that are not known yet become new columns;
+     * {@code null} values leave their variable without a value.
+     */
+    private void readJsonRow() {
+        int i = skipWhitespace(0);
+        expect(i++, '{');
+        i = skipWhitespace(i);
+        if (i < line.length() && line.charAt(i) == '}') {
+            return;
+        }
+
+        while (true) {
+            // Read the key, resolving the simple escapes
+            i = skipWhitespace(i);
+            expect(i++, '"');
+            StringBuilder key = new StringBuilder();
+            while (i < line.length() && line.charAt(i) != '"') {
+                char c = line.charAt(i++);
+                if (c == '\\' && i < line.length()) {
+                    c = line.charAt(i++);
+                }
+                key.append(c);
+            }
+            expect(i++, '"');
+            i = skipWhitespace(i);
+            expect(i++, ':');
+            i = skipWhitespace(i);
+
+            // Read the value up to the next separator
+            int start = i;
+            while (i < line.length() && line.charAt(i) != ',' && line.charAt(i) != '}') {
+                i++;
+            }
+            String value = trim(start, i);
+            int column = column(key.toString());
+            if (!value.equals("null")) {
+                row[column] = parseValue(value);
+                present[column] = true;
+            }
+
+            expect(i, i < line.length() && line.charAt(i) == ',' ? ',' : '}');
+            if (line.charAt(i++) == '}') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Evaluates every formula with the values of the current row and writes the results.
+     *
+     * @throws IOException If writing fails.
+     */
+    private void evaluateRow() throws IOException {
+        rowCount++;
+        boolean evaluated = false;
+        if (bindSetValues()) {
+            try {
+                formulaSet.evaluate(setValues, setStack, results);
+                evaluated = true;
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                // Evaluate the row again below to find out which of the formulas failed
+            }
+        }
+        if (!evaluated && formulaSet.evaluateEach(setValues, setBound, setStack, results, errors) > 0) {
+            for (int f = 0; f < errors.length; f++) {
+                if (errors[f] != null) {
+                    errorCount++;
+                    System.err.println("Line " + lineNumber + ", formula " + (f + 1) + ": " + errors[f].getMessage());
+                }
+            }
+        }
+
+        output.append(format == Format.CSV ? "" : "[");
+        for (int f = 0; f < results.length; f++) {
+            if (f > 0) {
+                output.append(format == Format.CSV ? "," : ", ");
+            }
+
+            double result = results[f];
+            if (format == Format.NDJSON && (Double.isNaN(result) || Double.isInfinite(result))) {
+                output.append("null");
+            } else {
+                output.append(result);
+            }
+        }
+        output.append(format == Format.CSV ? "\n" : "]\n");
+        flushOutput(false);
+    }
+
+    /**
+     * Copies the values of the current row into the variable slots of the formula set.
+     *
+     * @return True if the row has a value for every variable of the set.
+     */
+    private boolean bindSetValues() {
+        Arrays.fill(setBound, false);
+        int bound = 0;
+        for (int column = 0; column < setSlots.length; column++) {
+            if (setSlots[column] >= 0 && present[column]) {
+                setValues[setSlots[column]] = row[column];
+                setBound[setSlots[column]] = true;
+                bound++;
+            }
+        }
+        return bound == setValues.length;
+    }
+
+    /**
+     * Writes a line of results for a row that could not be read.
+     *
+     * @throws IOException If writing fails.
+     */
+    private void writeFailedRow() throws IOException {
+        rowCount++;
+        String failed = format == Format.CSV ? "NaN" : "null";
+        output.append(format == Format.CSV ? "" : "[");
+        for (int f = 0; f < results.length; f++) {
+            output.append(f == 0 ? "" : format == Format.CSV ? "," : ", ").append(failed);
+        }
+        output.append(format == Format.CSV ? "\n" : "]\n");
+        flushOutput(false);
+    }
+
+    /**
+     * Returns the column of the given variable, adding a column if the variable is new.
+     *
+     * @param variable The name of the variable.
+     * @return The index of the column.
+     */
+    private int column(String variable) {
+        Integer index = columnIndices.get(variable);
+        if (index != null) {
+            return index;
+        }
+
+        int column = columns.size();
+        columns.add(variable);
+        columnIndices.put(variable, column);
+        row = Arrays.copyOf(row, column + 1);
+        present = Arrays.copyOf(present, column + 1);
+
+        setSlots = Arrays.copyOf(setSlots, column + 1);
+        setSlots[column] = formulaSet.slotOf(variable);
+        return column;
+    }
+
+    /**
+     * Parses the value of a variable with the number grammar of {@code BindingParser}.
+     *
+     * @param value The text of the value.
+     * @return The value.
+     * @throws IllegalArgumentException If the text is not a number.
+     */
+    private double parseValue(String value) {
+        if (number.length < value.length()) {
+            number = new char[value.length()];
+        }
+        value.getChars(0, value.length(), number, 0);
+        double result = BindingParser.parseNumber(number, value.length());
+        if (Double.isNaN(result)) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": invalid number: " + value);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the collected output to the output buffer, and the buffer to the channel when it
+     * is full or when forced.
+     *
+     * @param force True to write everything to the channel.
+     * @throws IOException If writing fails.
+     */
+    private void flushOutput(boolean force) throws IOException {
+        for (int i = 0; i < output.length(); i++) {
+            if (!outputBuffer.hasRemaining()) {
+                drain();
+            }
+            // The output consists of numbers, punctuation and "null", so every character is a single byte
+            outputBuffer.put((byte) output.charAt(i));
+        }
+        output.setLength(0);
+        if (force) {
+            drain();
+        }
+    }
+
+    /**
+     * Writes the content of the output buffer to the channel.
+     *
+     * @throws IOException If writing fails.
+     */
+    private void drain() throws IOException {
+        outputBuffer.flip();
+        while (outputBuffer.hasRemaining()) {
+            out.write(outputBuffer);
+        }
+        outputBuffer.clear();
+    }
+
+    /**
+     * Checks that the current line has the given character at the given position.
+     *
+     * @param index    The position in the line.
+     * @param expected The expected character.
+     * @throws IllegalArgumentException If the character is different.
+     */
+    private void expect(int index, char expected) {
+        if (index >= line.length() || line.charAt(index) != expected) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": expected '" + expected
+                    + "' at column " + (index + 1));
+        }
+    }
+
+    /**
+     * Returns the position of the first character at or after the given one that is not whitespace.
+     *
+     * @param index The position to start from.
+     * @return The position of the next significant character.
+     */
+    private int skipWhitespace(int index) {
+        while (index < line.length() && MathExpressionParser.isWhitespace(line.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the part of the current line between the given positions, without surrounding whitespace.
+     *
+     * @param start The first position.
+     * @param end   The position after the last character.
+     * @return The trimmed text.
+     */
+    private String trim(int start, int end) {
+        while (start < end && MathExpressionParser.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        while (end > start && MathExpressionParser.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        return line.substring(start, end);
+    }
+
+    /**
+     * Checks if a line consists of whitespace only.
+     *
+     * @param text The line to check.
+     * @return True if the line is blank, false otherwise.
+     */
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!MathExpressionParser.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -18,4 +18,44 @@ public class TanAction implements IAction {
         double radians = Math.toRadians(number);
         return Math.tan(radians);
     }
+
+    /**
+     * Calculates the tangent of each of the first {@code n} numbers in a loop of its own.
+     *
+     * @param in  The input numbers.
+     * @param out The array receiving the results.
+     * @param n   The number of elements to calculate.
+     */
+    @Override
+    public void calculate(double[] in, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = calculate(in[i]);
+        }
+    }
+
+    /**
+     * Calculates the derivative of the tangent of an angle in degrees: (1 + tan^2) times pi/180.
+     *
+     * @param number The input number.
+     * @return The derivative at the input number.
+     */
+    @Override
+    public double derivative(double number) {
+        double tangent = calculate(number);
+        return Math.toRadians(1 + tangent * tangent);
+    }
+
+    /**
+     * Calculates the range of the tangent over an interval of angles in degrees. The tangent
+     * increases between its poles at 90 + 180k degrees; an interval around a pole gives every
+     * number.
+     *
+     * @param low    The lower end of the interval.
+     * @param high   The upper end of the interval.
+     * @param bounds The array receiving the bounds of the result.
+     */
+    @Override
+    public void range(double low, double high, double[] bounds) {
+        IntervalMath.tangent(low, high, calculate(low), calculate(high), 2, bounds);
+    }
 }
@@ -0,0 +1,102 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+/**
+ * The Token class represents a single typed token of a mathematical expression.
+ * Tokens are classified once by the parser, so later stages never have to
+ * re-examine the text of a token to find out what it is. A token produced by the parser
+ * also remembers where it was found in the formula.
+ */
+public final class Token {
+
+    /**
+     * The kinds of tokens produced by the parser.
+     */
+    public enum Type {
+        NUMBER, VARIABLE, FUNCTION, OPERATOR, LEFT_PAREN, RIGHT_PAREN, SEPARATOR
+    }
+
+    private final Type type;
+    private final String text;
+    private final double value;
+    private final String source;
+    private final int start;
+    private final int end;
+
+    /**
+     * Constructs a token of the given type found in a formula.
+     *
+     * @param type   The type of the token.
+     * @param text   The text of the token, or null to take it from the formula only when it is asked for.
+     * @param value  The numeric value of a {@code NUMBER} token, 0.0 for other types.
+     * @param source The formula the token was found in.
+     * @param start  The offset of the first character of the token in the formula.
+     * @param end    The offset after the last character of the token in the formula.
+     */
+    Token(Type type, String text, double value, String source, int start, int end) {
+        this.type = type;
+        this.text = text;
+        this.value = value;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns the type of the token.
+     *
+     * @return The type of the token.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the text of the token.
+     *
+     * @return The name of a variable or function, the operator symbol or the literal text.
+     */
+    public String getText() {
+        return text != null ? text : source.substring(start, end);
+    }
+
+    /**
+     * Returns the numeric value of a {@code NUMBER} token.
+     *
+     * @return The pre-parsed value of the literal.
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the operator symbol of an {@code OPERATOR} token.
+     *
+     * @return The operator character.
+     */
+    public char getOperator() {
+        return text.charAt(0);
+    }
+
+    /**
+     * Returns the offset of the first character of the token in the formula.
+     *
+     * @return The start offset, or -1 if the token does not come from a formula.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the offset after the last character of the token in the formula.
+     *
+     * @return The end offset, or -1 if the token does not come from a formula.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+}
@@ -0,0 +1,137 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The VariableBinder class collects the variable values of a compiled expression in a slot array
+ * that is reused from one evaluation to the next. Values can be bound by name or, without any
+ * hashing, by the slot index returned by {@code CompiledExpression.slotOf}. A variable left
+ * without a value is reported when the expression is evaluated, instead of being read as 0.0.
+ * A VariableBinder keeps its arrays between calls and must not be shared between threads.
+ */
+public final class VariableBinder {
+    private final CompiledExpression expression;
+    private final double[] values;
+    private final boolean[] bound;
+    private final double[] stack;
+    private int boundCount;
+
+    /**
+     * Constructs a VariableBinder for the given expression, with no variable bound.
+     *
+     * @param expression The compiled expression whose variables are bound.
+     */
+    public VariableBinder(CompiledExpression expression) {
+        this.expression = expression;
+        this.values = new double[expression.getSlotCount()];
+        this.bound = new boolean[values.length];
+        this.stack = expression.newStack();
+    }
+
+    /**
+     * Binds a value to the variable with the given name.
+     *
+     * @param variable The name of the variable.
+     * @param value    The value of the variable.
+     * @return This binder, so calls can be chained.
+     * @throws IllegalArgumentException If the expression does not use the variable.
+     */
+    public VariableBinder set(String variable, double value) {
+        int slot = expression.slotOf(variable);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Unknown variable: " + variable);
+        }
+        return set(slot, value);
+    }
+
+    /**
+     * Binds a value to the variable in the given slot.
+     *
+     * @param slot  The slot index of the variable.
+     * @param value The value of the variable.
+     * @return This binder, so calls can be chained.
+     * @throws IndexOutOfBoundsException If the slot does not exist.
+     */
+    public VariableBinder set(int slot, double value) {
+        values[slot] = value;
+        if (!bound[slot]) {
+            bound[slot] = true;
+            boundCount++;
+        }
+        return this;
+    }
+
+    /**
+     * Binds the values of every variable of the expression from the given map.
+     * Entries for variables the expression does not use are ignored.
+     *
+     * @param bindings A map containing variable names and their corresponding values.
+     * @return This binder, so calls can be chained.
+     * @throws IllegalArgumentException If the map has no value for one of the variables.
+     */
+    public VariableBinder bind(Map<String, Double> bindings) {
+        for (int slot = 0; slot < values.length; slot++) {
+            Double value = bindings.get(expression.getSlotName(slot));
+            if (value == null) {
+                throw missing(slot);
+            }
+            set(slot, value);
+        }
+        return this;
+    }
+
+    /**
+     * Forgets every bound value, so the binder can be filled again.
+     */
+    public void clear() {
+        Arrays.fill(bound, false);
+        boundCount = 0;
+    }
+
+    /**
+     * Checks whether every variable of the expression has a value.
+     *
+     * @return True if every variable is bound, false otherwise.
+     */
+    public boolean isComplete() {
+        return boundCount == values.length;
+    }
+
+    /**
+     * Evaluates the expression with the bound values. Nothing is allocated.
+     *
+     * @return The result of the mathematical expression.
+     * @throws IllegalArgumentException If a variable has no value or a negative number is raised to a fractional power.
+     * @throws ArithmeticException      If division by zero is encountered during the calculation.
+     */
+    public double evaluate() {
+        if (boundCount != values.length) {
+            for (int slot = 0; slot < bound.length; slot++) {
+                if (!bound[slot]) {
+                    throw missing(slot);
+                }
+            }
+        }
+        return expression.evaluate(values, stack);
+    }
+
+    /**
+     * Returns the compiled expression whose variables are bound.
+     *
+     * @return The compiled expression.
+     */
+    public CompiledExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Creates the exception reporting a variable without a value.
+     *
+     * @param slot The slot of the variable.
+     * @return The exception to throw.
+     */
+    private IllegalArgumentException missing(int slot) {
+        return new IllegalArgumentException("Please provide a value for variable: " + expression.getSlotName(slot));
+    }
+}
@@ -0,0 +1,308 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ExpressionBenchmark class measures the parse, compile and evaluate paths of the library
+ * over short, long, deeply nested and variable-heavy formulas.
+ * Run with {@code java -jar jmh/target/benchmarks.jar -prof gc} to also get the allocation rate
+ * ({@code gc.alloc.rate.norm} is the number of bytes allocated per operation).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpressionBenchmark {
+    // The number of formulas in the formula set benchmarks
+    private static final int SET_SIZE = 50;
+
+    /**
+     * The shapes of formula the benchmarks are run on.
+     */
+    public enum Shape {
+        /** A short formula with two variables and one function. */
+        SHORT,
+        /** A sum of 200 terms. */
+        LONG,
+        /** 100 levels of nested parentheses and function calls. */
+        NESTED,
+        /** A sum over 64 distinct variables. */
+        VARIABLES
+    }
+
+    @Param
+    public Shape shape;
+
+    private String formula;
+    private Map<String, Double> values;
+    private double[] slotValues;
+    private double[] stack;
+    private VariableBinder binder;
+    private EvaluationSession session;
+    private GradientEvaluator gradientEvaluator;
+    private double[] gradient;
+    private int tick;
+    private MathExpressionParser parser;
+    private FunctionRegistry functionRegistry;
+    private MathExpressionEvaluator evaluator;
+    private CompiledExpression compiledExpression;
+    private FormulaSet formulaSet;
+    private CompiledExpression[] setExpressions;
+    private double[] setValues;
+    private double[] setStack;
+    private double[][] setStacks;
+    private double[] setResults;
+    private String[] arguments;
+    private String bindings;
+    private ByteBuffer bindingBytes;
+    private BindingParser bindingParser;
+    private double[] boundValues;
+
+    @Setup
+    public void setUp() {
+        formula = formula(shape);
+        values = new HashMap<>();
+        for (int i = 0; i < 64; i++) {
+            values.put("v" + i, i + 0.5);
+        }
+        values.put("x", 1.5);
+        values.put("y", 2.5);
+
+        parser = new MathExpressionParser();
+        functionRegistry = new FunctionRegistry();
+        evaluator = new MathExpressionEvaluator();
+        compiledExpression = evaluator.compile(formula);
+
+        // Bind the values in slot order once, as a caller of the compiled API would
+        slotValues = new double[compiledExpression.getSlotCount()];
+        for (int slot = 0; slot < slotValues.length; slot++) {
+            slotValues[slot] = values.get(compiledExpression.getSlotName(slot));
+        }
+        stack = compiledExpression.newStack();
+        binder = compiledExpression.newBinder();
+        session = compiledExpression.newSession().bind(values);
+        gradientEvaluator = compiledExpression.newGradientEvaluator();
+        gradient = new double[slotValues.length];
+
+        // Formulas sharing the whole formula as a subterm, each with a term of its own
+        List<String> formulas = new ArrayList<>();
+        for (int i = 0; i < SET_SIZE; i++) {
+            formulas.add(formula + " + " + i + " * x");
+        }
+        formulaSet = evaluator.compileSet(formulas);
+        setExpressions = new CompiledExpression[SET_SIZE];
+        setStacks = new double[SET_SIZE][];
+        for (int i = 0; i < SET_SIZE; i++) {
+            setExpressions[i] = evaluator.compile(formulas.get(i));
+            setStacks[i] = setExpressions[i].newStack();
+        }
+        // Every formula of the set uses the variables in the same order, so they share one slot array
+        setValues = new double[formulaSet.getSlotCount()];
+        for (int slot = 0; slot < setValues.length; slot++) {
+            setValues[slot] = values.get(formulaSet.getSlotName(slot));
+        }
+        setStack = formulaSet.newStack();
+        setResults = new double[SET_SIZE];
+
+        // Every value as a name=value argument with a decimal comma, as typed on the command line
+        arguments = new String[values.size()];
+        int argument = 0;
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            arguments[argument++] = entry.getKey() + "=" + String.valueOf(entry.getValue()).replace('.', ',');
+        }
+        bindings = String.join(" ", arguments);
+        bindingBytes = ByteBuffer.allocateDirect(bindings.length());
+        bindingBytes.put(bindings.getBytes(StandardCharsets.UTF_8)).flip();
+        bindingParser = new BindingParser(compiledExpression);
+        boundValues = new double[compiledExpression.getSlotCount()];
+    }
+
+    /**
+     * Builds the formula of the given shape.
+     *
+     * @param shape The shape of the formula.
+     * @return The formula text.
+     */
+    static String formula(Shape shape) {
+        StringBuilder formula = new StringBuilder();
+        switch (shape) {
+            case SHORT -> formula.append("x^2 + sin(y) * 3.5");
+            case LONG -> {
+                formula.append("x");
+                for (int i = 1; i < 200; i++) {
+                    formula.append(i % 2 == 0 ? " + " : " - ").append(i).append(".25 * y");
+                }
+            }
+            case NESTED -> {
+                formula.append("x");
+                for (int i = 0; i < 100; i++) {
+                    formula.insert(0, i % 2 == 0 ? "sqrt(" : "(1 + ").append(i % 2 == 0 ? ")" : " * y)");
+                }
+            }
+            case VARIABLES -> {
+                formula.append("v0");
+                for (int i = 1; i < 64; i++) {
+                    formula.append(" + v").append(i).append(" * ").append(i);
+                }
+            }
+        }
+        return formula.toString();
+    }
+
+    /**
+     * Tokenizes the formula and parses it into its expression tree.
+     */
+    @Benchmark
+    public MathExpression parse() {
+        return parser.parse(formula, new HashMap<>());
+    }
+
+    /**
+     * Parses the name=value arguments of every variable into a map with the regular expressions
+     * of {@code MathArgumentsParser}.
+     */
+    @Benchmark
+    public Map<String, Double> parseArgumentsRegex() {
+        return MathArgumentsParser.parseArguments(arguments);
+    }
+
+    /**
+     * Parses the same arguments, joined into one text, into the slot array of the formula.
+     */
+    @Benchmark
+    public double[] parseBindings() {
+        bindingParser.parse(bindings, boundValues);
+        return boundValues;
+    }
+
+    /**
+     * Parses the same arguments from the UTF-8 bytes of a direct buffer into the slot array.
+     */
+    @Benchmark
+    public double[] parseBindingBytes() {
+        bindingParser.parse(bindingBytes.rewind(), boundValues);
+        return boundValues;
+    }
+
+    /**
+     * Parses the formula and compiles it into an optimized program, bypassing the cache.
+     */
+    @Benchmark
+    public CompiledExpression parseAndCompile() {
+        MathExpression mathExpression = parser.parse(formula, new HashMap<>());
+        mathExpression.setFunctionRegistry(functionRegistry);
+        return mathExpression.compile();
+    }
+
+    /**
+     * Evaluates the compiled program on a reused stack and values array.
+     */
+    @Benchmark
+    public double evaluateCompiled() {
+        return compiledExpression.evaluate(slotValues, stack);
+    }
+
+    /**
+     * Evaluates the compiled program with values looked up in a map.
+     */
+    @Benchmark
+    public double evaluateCompiledWithMap() {
+        return compiledExpression.evaluate(values);
+    }
+
+    /**
+     * Binds the values from a map into a reused binder by slot, then evaluates.
+     */
+    @Benchmark
+    public double evaluateBinder() {
+        return binder.bind(values).evaluate();
+    }
+
+    /**
+     * Computes the value and the whole gradient by reverse-mode automatic differentiation.
+     */
+    @Benchmark
+    public double evaluateGradient() {
+        return gradientEvaluator.evaluate(slotValues, gradient);
+    }
+
+    /**
+     * Estimates the whole gradient by central differences, 2N+1 evaluations, for comparison.
+     */
+    @Benchmark
+    public double evaluateGradientByDifferences() {
+        double result = compiledExpression.evaluate(slotValues, stack);
+        for (int slot = 0; slot < slotValues.length; slot++) {
+            double value = slotValues[slot];
+            double step = 1e-6 * Math.max(1.0, Math.abs(value));
+            slotValues[slot] = value + step;
+            double above = compiledExpression.evaluate(slotValues, stack);
+            slotValues[slot] = value - step;
+            double below = compiledExpression.evaluate(slotValues, stack);
+            slotValues[slot] = value;
+            gradient[slot] = (above - below) / (2 * step);
+        }
+        return result;
+    }
+
+    /**
+     * Changes one variable per evaluation, so a session recomputes only the operations depending on it.
+     */
+    @Benchmark
+    public double evaluateSessionOneChange() {
+        if (compiledExpression.getSlotCount() > 0) {
+            session.set(0, slotValues[0] + (tick++ & 1));
+        }
+        return session.evaluate();
+    }
+
+    /**
+     * Evaluates a set of formulas sharing a subterm in one pass of a {@code FormulaSet}.
+     */
+    @Benchmark
+    public double[] evaluateFormulaSet() {
+        formulaSet.evaluate(setValues, setStack, setResults);
+        return setResults;
+    }
+
+    /**
+     * Evaluates the same set of formulas one compiled expression at a time, for comparison
+     * with {@code evaluateFormulaSet}.
+     */
+    @Benchmark
+    public double[] evaluateFormulasSeparately() {
+        for (int i = 0; i < SET_SIZE; i++) {
+            setResults[i] = setExpressions[i].evaluate(setValues, setStacks[i]);
+        }
+        return setResults;
+    }
+
+    /**
+     * Parses, compiles and evaluates the formula through a fresh MathExpression each time.
+     */
+    @Benchmark
+    public double endToEndUncached() {
+        MathExpression mathExpression = parser.parse(formula, new HashMap<>());
+        mathExpression.setFunctionRegistry(functionRegistry);
+        mathExpression.setVariableValues(values);
+        return mathExpression.calculate();
+    }
+
+    /**
+     * Evaluates the formula through {@code MathExpressionEvaluator.evaluate}, which hits its cache.
+     */
+    @Benchmark
+    public double endToEndEvaluator() {
+        return evaluator.evaluate(formula, values);
+    }
+}
@@ -0,0 +1,79 @@
+package com.shpp.p2p.cs.ikopach.assignment11;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FastMathBenchmark class measures the time of one call of every function that has a
+ * fast-math version, in its strict and in its fast version, over random arguments.
+ * Run with {@code java -jar jmh/target/benchmarks.jar FastMathBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FastMathBenchmark {
+    // The number of arguments every benchmark call goes through
+    private static final int SIZE = 1024;
+
+    /**
+     * The functions that have a fast-math version.
+     */
+    public enum Function {
+        SIN, COS, TAN, LOG2
+    }
+
+    @Param
+    public Function function;
+
+    private IAction strict;
+    private IAction fast;
+    private final double[] arguments = new double[SIZE];
+
+    @Setup
+    public void setUp() {
+        FunctionRegistry strictRegistry = new FunctionRegistry(false);
+        FunctionRegistry fastRegistry = new FunctionRegistry(true);
+        String name = function.name().toLowerCase();
+        strict = strictRegistry.getFunction(name);
+        fast = fastRegistry.getFunction(name);
+
+        // Angles within a few turns, and positive numbers over many orders of magnitude for the logarithm
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            arguments[i] = function == Function.LOG2
+                    ? Math.exp(random.nextDouble() * 100 - 50)
+                    : random.nextDouble() * 1440 - 720;
+        }
+    }
+
+    /**
+     * Calls the strict version of the function.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public double strict() {
+        double sum = 0;
+        for (double argument : arguments) {
+            sum += strict.calculate(argument);
+        }
+        return sum;
+    }
+
+    /**
+     * Calls the fast version of the function.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public double fast() {
+        double sum = 0;
+        for (double argument : arguments) {
+            sum += fast.calculate(argument);
+        }
+        return sum;
+    }
+}